@@ -16,6 +16,8 @@ import java.util.List;
  * It is responsible for trying to fulfil a request using one of the available Endpoints.
  * <p>
  * It tries all available Endpoints until some of them fulfils the request or all fail.
+ * An Endpoint fails when it cannot be reached or answers with a server error (5xx). When all of them fail and
+ * some answered, the last server error is returned, so its status, body and headers (e.g. 'Retry-After') reach the caller.
  * The strategy of electing which Endpoint should be the next candidate depends on the
  * routing strategy implemented in the subclasses.
  *
@@ -25,6 +27,7 @@ import java.util.List;
  */
 public abstract class BaseLoadBalancer implements ILoadBalancer {
     public static final Logger logger = (Logger) LoggerFactory.getLogger(BaseLoadBalancer.class);
+    private static final int SERVER_ERROR = 500;
     protected List<Endpoint> endpoints;
 
     public BaseLoadBalancer() {
@@ -43,20 +46,47 @@ public abstract class BaseLoadBalancer implements ILoadBalancer {
      * @throws NoAvailableEndpointsException Thrown in case no Endpoint is available for executing the request
      */
     public Response balance(Request request) throws NoAvailableEndpointsException {
+        return balance(request, 0);
+    }
+
+    /**
+     * Applies the defined strategy to retrieve the response from the elected endpoint.
+     * Successful responses larger than the given size are streamed instead of read.
+     * Requests with a streamed body are only tried on one Endpoint.
+     *
+     * @param request Request to be executed
+     * @param streamAbove Body size above which the response is streamed, 0 to always read it
+     * @return Response Response sent from the Endpoint, or the server error of the last Endpoint tried
+     * @throws NoAvailableEndpointsException Thrown in case no Endpoint is available for executing the request
+     */
+    public Response balance(Request request, long streamAbove) throws NoAvailableEndpointsException {
         if (request != null) {
+            int attempts = 0;
+            Response failed = null;
             while (hasEndpointCandidate()) {
                 Endpoint endpoint = nextEndpoint();
+                attempts++;
                 try {
-                    logger.info("Trying with endpoint " + endpoint);
-                    Response response = HttpForwarder.execute(request, endpoint);
-                    logger.info("Sucess. Marking as active.");
-                    endpoint.setStatus(EndpointStatus.ACTIVE);
-                    return response;
+                    logger.debug("Trying with endpoint {}", endpoint);
+                    Response response = HttpForwarder.execute(request, endpoint, streamAbove);
+                    response.setEndpoint(endpoint);
+                    response.setAttempts(attempts);
+                    if (response.getStatus() < SERVER_ERROR) {
+                        logger.debug("Sucess. Marking as active.");
+                        endpoint.setStatus(EndpointStatus.ACTIVE);
+                        return response;
+                    }
+                    logger.error("Endpoint {} answered {}, marking as suspended", endpoint, response.getStatus());
+                    endpoint.setStatus(EndpointStatus.SUSPENDED);
+                    failed = response;
                 } catch (Exception e) {
-                    logger.error("Failed. Marking as suspended.");
+                    logger.error("Endpoint {} failed, marking as suspended: {}", endpoint, e.getMessage());
                     endpoint.setStatus(EndpointStatus.SUSPENDED);
                 }
+                //A streamed body may have been partly sent, so it cannot be replayed to another Endpoint
+                if (request.isStreamed()) break;
             }
+            if (failed != null) return failed;
             throw new NoAvailableEndpointsException("No endpoint could fulfil the request. Service unavailable");
         }
         return null;
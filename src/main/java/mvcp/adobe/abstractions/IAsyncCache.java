@@ -0,0 +1,19 @@
+package mvcp.adobe.abstractions;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Defines the interface of a non-blocking Cache handler
+ *
+ * @author      Marcelo Pereira
+ * @version     1.0.0
+ * @since       2019-06-12
+ */
+public interface IAsyncCache {
+    CompletableFuture<Void> putAsync(String key, String value);
+    CompletableFuture<String> getAsync(String key);
+    CompletableFuture<Void> putAllAsync(Map<String, String> values);
+    CompletableFuture<Map<String, String>> getAllAsync(Collection<String> keys);
+}
@@ -2,6 +2,12 @@ package mvcp.adobe.abstractions;
 
 import mvcp.adobe.exceptions.CacheNotAvailableException;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
 /**
  * Defines the interface of a Cache handler
  *
@@ -12,4 +18,55 @@ import mvcp.adobe.exceptions.CacheNotAvailableException;
 public interface ICache {
     void put(String key, String value) throws CacheNotAvailableException;
     String get(String key) throws CacheNotAvailableException;
+
+    /**
+     * Removes several keys at once, e.g. when cached items are purged.
+     *
+     * @param keys Keys to be removed
+     * @throws CacheNotAvailableException Thrown when the Cache is not accessible
+     */
+    void delete(Collection<String> keys) throws CacheNotAvailableException;
+
+    /**
+     * Stores several key/value pairs at once. Implementations should send them in a single round trip.
+     *
+     * @param values Map of keys and values to be stored
+     * @throws CacheNotAvailableException Thrown when the Cache is not accessible
+     */
+    default void putAll(Map<String, String> values) throws CacheNotAvailableException {
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Retrieves several keys at once. Implementations should fetch them in a single round trip.
+     *
+     * @param keys Keys to be retrieved
+     * @return Map Keys found in the Cache and their values. Missing keys are left out.
+     * @throws CacheNotAvailableException Thrown when the Cache is not accessible
+     */
+    default Map<String, String> getAll(Collection<String> keys) throws CacheNotAvailableException {
+        Map<String, String> values = new HashMap<>();
+        for (String key : keys) {
+            String value = get(key);
+            if (value != null) values.put(key, value);
+        }
+        return values;
+    }
+
+    /**
+     * Finds which of several keys are certainly not stored, e.g. to prune the indexes of evicted keys.
+     * A key whose storage cannot be asked right now is never reported as missing.
+     * Implementations should ask in a single round trip, without reading the values.
+     *
+     * @param keys Keys to be verified
+     * @return Set Keys that are not stored
+     * @throws CacheNotAvailableException Thrown when the Cache is not accessible
+     */
+    default Set<String> missing(Collection<String> keys) throws CacheNotAvailableException {
+        Set<String> missing = new HashSet<>(keys);
+        missing.removeAll(getAll(keys).keySet());
+        return missing;
+    }
 }
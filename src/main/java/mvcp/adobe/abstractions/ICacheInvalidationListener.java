@@ -0,0 +1,15 @@
+package mvcp.adobe.abstractions;
+
+import java.util.Collection;
+
+/**
+ * Defines the interface of a local cache that must drop its copies of purged items.
+ * Every bean implementing it is notified of the purges made by any proxy replica.
+ *
+ * @author      Marcelo Pereira
+ * @version     1.0.0
+ * @since       2019-06-13
+ */
+public interface ICacheInvalidationListener {
+    void invalidate(Collection<String> keys);
+}
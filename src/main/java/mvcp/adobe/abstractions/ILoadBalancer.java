@@ -15,6 +15,7 @@ import java.util.List;
  */
 public interface ILoadBalancer {
     Response balance(Request request) throws NoAvailableEndpointsException;
+    Response balance(Request request, long streamAbove) throws NoAvailableEndpointsException;
     Endpoint nextEndpoint();
     boolean hasEndpointCandidate();
     List<Endpoint> getEndpointCandidates();
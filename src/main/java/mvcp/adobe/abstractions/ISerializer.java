@@ -1,7 +1,9 @@
 package mvcp.adobe.abstractions;
 
 import mvcp.adobe.entities.CacheItem;
+import mvcp.adobe.entities.CachePolicy;
 import mvcp.adobe.entities.Request;
+import mvcp.adobe.entities.Response;
 /**
  * Defines the interface of a serializer
  *
@@ -12,6 +14,48 @@ import mvcp.adobe.entities.Request;
 public interface ISerializer {
 
     String hashRequest(Request request);
+
+    /**
+     * Encodes a Request into a cache key, following the cache policy of its Service.
+     *
+     * @param request Request to be hashed
+     * @param policy Cache policy of the Service, providing the key headers and namespace
+     * @return String Cache key of the request
+     */
+    default String hashRequest(Request request, CachePolicy policy) {
+        return hashRequest(request);
+    }
     CacheItem deserializeCacheItem(String hash);
     String serializeCacheItem(CacheItem item);
+
+    /**
+     * Reads the metadata of a serialized CacheItem, possibly without its response body.
+     *
+     * @param hash Serialized CacheItem
+     * @return CacheItem Item whose response may have no body
+     */
+    default CacheItem deserializeCacheMeta(String hash) {
+        return deserializeCacheItem(hash);
+    }
+    String refreshCacheItem(String serialized, CacheItem item);
+
+    /**
+     * Returns the URL identifying the cached items of a request, consistent with hashRequest.
+     *
+     * @param request Request whose URL is needed
+     * @return String URL of the request
+     */
+    default String canonicalUrl(Request request) {
+        return request.getUrl();
+    }
+
+    /**
+     * Computes the strong validator of a Response to be cached, sent as its ETag when the origin gives none.
+     *
+     * @param response Response to be cached
+     * @return String Quoted entity tag or null in case the response has no validator
+     */
+    default String validatorOf(Response response) {
+        return null;
+    }
 }
@@ -0,0 +1,228 @@
+package mvcp.adobe.components;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import mvcp.adobe.entities.AccessLogRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Structured access log: one AccessLogRecord per request, written to a rotating file off the request path.
+ * <p>
+ * Request threads only add their record to a lock-free RingBuffer. A background writer drains the buffer,
+ * formats the records as tab-separated lines and appends them to the file, flushing once per batch.
+ * When the buffer is full, records are dropped and counted instead of slowing requests down.
+ * <p>
+ * Once the file would grow beyond 'mvcp.adobe.access.log.max.bytes', it is rotated: 'access.log' becomes
+ * 'access.log.1', 'access.log.1' becomes 'access.log.2', and so on, keeping 'mvcp.adobe.access.log.files' old files.
+ * An empty 'mvcp.adobe.access.log.path' disables the access log.
+ *
+ * @author      Marcelo Pereira
+ * @version     1.0.0
+ * @since       2019-06-14
+ */
+@Component
+public class AccessLog {
+    public static final Logger logger = (Logger) LoggerFactory.getLogger(AccessLog.class);
+    private static final String PATH_PROPERTY = "mvcp.adobe.access.log.path";
+    private static final String BUFFER_PROPERTY = "mvcp.adobe.access.log.buffer";
+    private static final String MAX_BYTES_PROPERTY = "mvcp.adobe.access.log.max.bytes";
+    private static final String FILES_PROPERTY = "mvcp.adobe.access.log.files";
+    private static final String FLUSH_PROPERTY = "mvcp.adobe.access.log.flush.milis";
+    private static final int DEFAULT_BUFFER = 8192;
+    private static final long DEFAULT_MAX_BYTES = 10485760;
+    private static final int DEFAULT_FILES = 5;
+    private static final long DEFAULT_FLUSH_MILIS = 500;
+    private static final int BATCH_SIZE = 512;
+    private static final char LINE_BREAK = '\n';
+
+    @Autowired
+    private Environment env;
+
+    private final Counter written = Metrics.counter("proxy.access.log.records");
+    private final Counter dropped = Metrics.counter("proxy.access.log.dropped");
+    private RingBuffer<AccessLogRecord> records;
+    private Path path;
+    private long maxBytes;
+    private int files;
+    private long flushNanos;
+    private OutputStream out;
+    private long size;
+    private final StringBuilder line = new StringBuilder(256);
+    private volatile boolean running;
+    private Thread writer;
+
+    /**
+     * Reads the configuration and starts the background writer, unless the access log is disabled.
+     */
+    @PostConstruct
+    public void init() {
+        String file = env.getProperty(PATH_PROPERTY, String.class, "");
+        if (file.trim().isEmpty()) return;
+        try {
+            open(Paths.get(file.trim()), env.getProperty(BUFFER_PROPERTY, Integer.class, DEFAULT_BUFFER),
+                    env.getProperty(MAX_BYTES_PROPERTY, Long.class, DEFAULT_MAX_BYTES),
+                    env.getProperty(FILES_PROPERTY, Integer.class, DEFAULT_FILES),
+                    env.getProperty(FLUSH_PROPERTY, Long.class, DEFAULT_FLUSH_MILIS));
+        } catch (IOException e) {
+            logger.error("+++++Could not open the access log at {}, running without it: {}+++++", file, e.getMessage());
+        }
+    }
+
+    /**
+     * Opens the log file and starts the background writer.
+     *
+     * @param path Path of the log file, its directory is created if needed
+     * @param capacity Records held while waiting for the writer
+     * @param maxBytes Size from which the file is rotated
+     * @param files Number of rotated files kept
+     * @param flushMilis Longest time a record waits before being written
+     * @throws IOException Thrown in case the file cannot be opened
+     */
+    public void open(Path path, int capacity, long maxBytes, int files, long flushMilis) throws IOException {
+        this.path = path.toAbsolutePath();
+        this.maxBytes = maxBytes;
+        this.files = Math.max(0, files);
+        this.flushNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, flushMilis));
+        if (this.path.getParent() != null) Files.createDirectories(this.path.getParent());
+        openFile();
+        this.records = new RingBuffer<>(capacity);
+        this.running = true;
+        this.writer = new Thread(this::write, "access-log-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Stops the background writer, writing the records that are still waiting.
+     */
+    @PreDestroy
+    public void close() {
+        if (writer == null) return;
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.NANOSECONDS.toMillis(flushNanos) + 1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writer = null;
+    }
+
+    /**
+     * Adds the record of a request to the log. Never blocks.
+     *
+     * @param record Record of a finished request
+     * @return boolean True in case the record was accepted, false in case the log is disabled or its buffer is full
+     */
+    public boolean log(AccessLogRecord record) {
+        if (records == null) return false;
+        if (records.offer(record)) return true;
+        dropped.increment();
+        return false;
+    }
+
+    public boolean isEnabled() {
+        return records != null;
+    }
+
+    /**
+     * Loop of the background writer: drains the buffer in batches and sleeps while it is empty.
+     */
+    private void write() {
+        try {
+            while (running) {
+                if (drain() == 0) LockSupport.parkNanos(this, flushNanos);
+            }
+            drain();
+        } finally {
+            try {
+                out.close();
+            } catch (IOException e) {
+                logger.info("+++++Could not close the access log: {}+++++", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Writes the waiting records and flushes the file.
+     *
+     * @return int Number of records written
+     */
+    private int drain() {
+        int ret = 0;
+        int batch;
+        while ((batch = records.drain(this::append, BATCH_SIZE)) > 0) ret += batch;
+        if (ret > 0) {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                logger.info("+++++Could not flush the access log: {}+++++", e.getMessage());
+            }
+            written.increment(ret);
+        }
+        return ret;
+    }
+
+    /**
+     * Formats a record and appends it to the file, rotating the file first if the line does not fit.
+     *
+     * @param record Record to be written
+     */
+    private void append(AccessLogRecord record) {
+        line.setLength(0);
+        byte[] bytes = record.format(line).append(LINE_BREAK).toString().getBytes(StandardCharsets.UTF_8);
+        try {
+            if (size > 0 && size + bytes.length > maxBytes) rotate();
+            out.write(bytes);
+            size += bytes.length;
+        } catch (IOException e) {
+            logger.info("+++++Could not write the access log: {}+++++", e.getMessage());
+        }
+    }
+
+    /**
+     * Shifts the rotated files by one, dropping the oldest, and starts a new file.
+     *
+     * @throws IOException Thrown in case the files cannot be moved or the new file cannot be opened
+     */
+    private void rotate() throws IOException {
+        out.close();
+        if (files == 0) {
+            Files.deleteIfExists(path);
+        } else {
+            Files.deleteIfExists(rotated(files));
+            for (int i = files - 1; i >= 1; i--) {
+                if (Files.exists(rotated(i))) Files.move(rotated(i), rotated(i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.move(path, rotated(1), StandardCopyOption.REPLACE_EXISTING);
+        }
+        openFile();
+    }
+
+    private Path rotated(int index) {
+        return path.resolveSibling(path.getFileName() + "." + index);
+    }
+
+    private void openFile() throws IOException {
+        this.out = new BufferedOutputStream(Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND), 65536);
+        this.size = Files.size(path);
+    }
+}
@@ -0,0 +1,358 @@
+package mvcp.adobe.components;
+
+import io.lettuce.core.RedisConnectionException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import mvcp.adobe.abstractions.ICache;
+import mvcp.adobe.abstractions.ISerializer;
+import mvcp.adobe.entities.CacheItem;
+import mvcp.adobe.exceptions.CacheNotAvailableException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.env.Environment;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Secondary indexes of the cached items, kept in Redis so every proxy replica can purge them.
+ * <p>
+ * Indexes:
+ * <ul>
+ *     <li>Path index: a sorted set whose members are 'host/path key', all with the same score,
+ *     so the keys under a URL prefix are found with a lexicographic range query (ZRANGEBYLEX)</li>
+ *     <li>Tag index: one set of keys per surrogate key, taken from the 'Surrogate-Key' response header
+ *     (a space-separated list of tags)</li>
+ * </ul>
+ * Index entries are written in a single pipelined round trip per batch of cached items.
+ * <p>
+ * Entries are only removed by purges, so the entries of items evicted by Redis, or re-cached with other surrogate
+ * keys, are pruned in background every 'mvcp.adobe.cache.index.prune.seconds':
+ * <ul>
+ *     <li>Path index: members whose key is no longer stored are removed. This is also done by every visit of
+ *     forEachKey, e.g. by the rebuilds of the KeyFilter</li>
+ *     <li>Tag index: keys no longer stored, or whose item does not carry the tag anymore, are removed from
+ *     each tag set. Emptied sets are dropped by Redis</li>
+ * </ul>
+ * Keys whose Cache node cannot be asked are kept, so an outage never empties the indexes.
+ *
+ * @author      Marcelo Pereira
+ * @version     1.0.0
+ * @since       2019-06-13
+ */
+@Component
+public class CacheIndex {
+    public static final Logger logger = (Logger) LoggerFactory.getLogger(CacheIndex.class);
+    public static final String SURROGATE_KEY = "Surrogate-Key";
+    private static final String PATH_INDEX = "mvcp:index:paths";
+    private static final String TAG_INDEX_PREFIX = "mvcp:index:tag:";
+    //Separates the URL from the cache key in the members of the path index
+    private static final String SEPARATOR = " ";
+    //Upper bound of a lexicographic range: sorts after any character of a URL
+    private static final String RANGE_END = "\uffff";
+    //Members read per round trip when visiting the whole path index
+    private static final int SCAN_PAGE = 1000;
+    private static final String PRUNE_PROPERTY = "mvcp.adobe.cache.index.prune.seconds";
+    private static final int DEFAULT_PRUNE = 3600;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    @Qualifier("cache")
+    private ICache cache;
+
+    @Autowired
+    private ISerializer serializer;
+
+    @Autowired
+    private Environment env;
+
+    private final Counter pruned = Metrics.counter("proxy.cache.index.pruned");
+    private ScheduledExecutorService pruner;
+
+    public CacheIndex() {}
+
+    /**
+     * Schedules the pruning of the indexes, the first one after a full interval.
+     */
+    @PostConstruct
+    public void init() {
+        int interval = Math.max(1, env.getProperty(PRUNE_PROPERTY, Integer.class, DEFAULT_PRUNE));
+        this.pruner = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cache-index-pruner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        pruner.scheduleWithFixedDelay(this::prune, interval, interval, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (pruner != null) pruner.shutdownNow();
+    }
+
+    /**
+     * Indexes a batch of cached items by URL and by surrogate keys.
+     *
+     * @param items Cached items by cache key
+     * @throws CacheNotAvailableException Thrown in case Cache is not accessible
+     */
+    public void addAll(Map<String, CacheItem> items) throws CacheNotAvailableException {
+        if (items.isEmpty()) return;
+        try {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection stringConnection = (StringRedisConnection) connection;
+                for (Map.Entry<String, CacheItem> entry : items.entrySet()) {
+                    CacheItem item = entry.getValue();
+                    if (item.getUrl() != null) {
+                        stringConnection.zAdd(PATH_INDEX, 0, item.getUrl() + SEPARATOR + entry.getKey());
+                    }
+                    for (String tag : getTags(item)) {
+                        stringConnection.sAdd(TAG_INDEX_PREFIX + tag, entry.getKey());
+                    }
+                }
+                return null;
+            });
+        } catch (RedisConnectionException | RedisConnectionFailureException | QueryTimeoutException e) {
+            throw new CacheNotAvailableException("The cache server is inaccessible: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Finds the keys of the items cached under a URL prefix, removing them from the path index.
+     *
+     * @param prefix URL prefix, e.g. 'servicea.com/api/'
+     * @return List Cache keys under the prefix
+     * @throws CacheNotAvailableException Thrown in case Cache is not accessible
+     */
+    public List<String> removeByPrefix(String prefix) throws CacheNotAvailableException {
+        try {
+            RedisZSetCommands.Range range = RedisZSetCommands.Range.range().gte(prefix).lte(prefix + RANGE_END);
+            Set<String> members = stringRedisTemplate.opsForZSet().rangeByLex(PATH_INDEX, range);
+            if (members == null || members.isEmpty()) return Collections.emptyList();
+            List<String> keys = new ArrayList<>(members.size());
+            for (String member : members) {
+                keys.add(keyOf(member));
+            }
+            stringRedisTemplate.opsForZSet().remove(PATH_INDEX, members.toArray());
+            return keys;
+        } catch (RedisConnectionException | RedisConnectionFailureException | QueryTimeoutException e) {
+            throw new CacheNotAvailableException("The cache server is inaccessible: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Finds the keys of all items cached under exactly one URL, e.g. its variants by key headers,
+     * removing them from the path index.
+     *
+     * @param url URL of the items, e.g. 'servicea.com/api/items?page=1'
+     * @return List Cache keys of the URL
+     * @throws CacheNotAvailableException Thrown in case Cache is not accessible
+     */
+    public List<String> removeByUrl(String url) throws CacheNotAvailableException {
+        return removeByPrefix(url + SEPARATOR);
+    }
+
+    /**
+     * Finds the keys of the items tagged with a surrogate key, removing the tag index.
+     *
+     * @param tag Surrogate key
+     * @return List Cache keys tagged with the surrogate key
+     * @throws CacheNotAvailableException Thrown in case Cache is not accessible
+     */
+    public List<String> removeByTag(String tag) throws CacheNotAvailableException {
+        try {
+            Set<String> keys = stringRedisTemplate.opsForSet().members(TAG_INDEX_PREFIX + tag);
+            if (keys == null || keys.isEmpty()) return Collections.emptyList();
+            stringRedisTemplate.delete(TAG_INDEX_PREFIX + tag);
+            return new ArrayList<>(keys);
+        } catch (RedisConnectionException | RedisConnectionFailureException | QueryTimeoutException e) {
+            throw new CacheNotAvailableException("The cache server is inaccessible: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Removes a single item from the path index.
+     *
+     * @param url URL the item was cached for
+     * @param key Cache key of the item
+     * @throws CacheNotAvailableException Thrown in case Cache is not accessible
+     */
+    public void remove(String url, String key) throws CacheNotAvailableException {
+        try {
+            stringRedisTemplate.opsForZSet().remove(PATH_INDEX, url + SEPARATOR + key);
+        } catch (RedisConnectionException | RedisConnectionFailureException | QueryTimeoutException e) {
+            throw new CacheNotAvailableException("The cache server is inaccessible: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Visits the keys of all indexed items, reading the path index in pages.
+     * The members of keys that are no longer stored are removed from the index instead of being visited.
+     *
+     * @param consumer Receives each stored cache key
+     * @return int Number of removed members
+     * @throws CacheNotAvailableException Thrown in case Cache is not accessible
+     */
+    public int forEachKey(Consumer<String> consumer) throws CacheNotAvailableException {
+        int ret = 0;
+        try {
+            RedisZSetCommands.Range range = RedisZSetCommands.Range.unbounded();
+            while (true) {
+                Set<String> members = stringRedisTemplate.opsForZSet().rangeByLex(PATH_INDEX, range,
+                        RedisZSetCommands.Limit.limit().count(SCAN_PAGE));
+                if (members == null || members.isEmpty()) return ret;
+                List<String> keys = new ArrayList<>(members.size());
+                String last = null;
+                for (String member : members) {
+                    keys.add(keyOf(member));
+                    last = member;
+                }
+                Set<String> missing = cache.missing(keys);
+                List<String> stale = new ArrayList<>(missing.size());
+                for (String member : members) {
+                    String key = keyOf(member);
+                    if (missing.contains(key)) stale.add(member);
+                    else consumer.accept(key);
+                }
+                if (!stale.isEmpty()) {
+                    stringRedisTemplate.opsForZSet().remove(PATH_INDEX, stale.toArray());
+                    pruned.increment(stale.size());
+                    ret += stale.size();
+                }
+                if (members.size() < SCAN_PAGE) return ret;
+                range = RedisZSetCommands.Range.range().gt(last);
+            }
+        } catch (RedisConnectionException | RedisConnectionFailureException | QueryTimeoutException e) {
+            throw new CacheNotAvailableException("The cache server is inaccessible: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Removes from the tag sets the keys that are no longer stored or whose item does not carry the tag anymore.
+     *
+     * @return int Number of removed members
+     * @throws CacheNotAvailableException Thrown in case Cache is not accessible
+     */
+    public int pruneTags() throws CacheNotAvailableException {
+        int ret = 0;
+        try {
+            for (String set : findTagSets()) {
+                String tag = set.substring(TAG_INDEX_PREFIX.length());
+                Set<String> members = stringRedisTemplate.opsForSet().members(set);
+                if (members == null || members.isEmpty()) continue;
+                List<String> keys = new ArrayList<>(members);
+                for (int i = 0; i < keys.size(); i += SCAN_PAGE) {
+                    List<String> page = keys.subList(i, Math.min(i + SCAN_PAGE, keys.size()));
+                    List<String> stale = findUntagged(tag, page);
+                    if (stale.isEmpty()) continue;
+                    stringRedisTemplate.opsForSet().remove(set, stale.toArray());
+                    pruned.increment(stale.size());
+                    ret += stale.size();
+                }
+            }
+            return ret;
+        } catch (RedisConnectionException | RedisConnectionFailureException | QueryTimeoutException e) {
+            throw new CacheNotAvailableException("The cache server is inaccessible: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Prunes both indexes. On failure, the indexes are left as they are until the next run.
+     */
+    public void prune() {
+        try {
+            int paths = forEachKey(key -> {});
+            int tags = pruneTags();
+            if (paths + tags > 0) logger.info("+++++Pruned {} path and {} tag index entries+++++", paths, tags);
+        } catch (CacheNotAvailableException | RuntimeException e) {
+            logger.info("+++++Could not prune the cache indexes: {}+++++", e.getMessage());
+        }
+    }
+
+    /**
+     * Finds the keys of a tag set that are no longer stored, or whose stored item does not carry the tag.
+     *
+     * @param tag Surrogate key
+     * @param keys Keys of the tag set
+     * @return List Keys to be removed from the tag set
+     * @throws CacheNotAvailableException Thrown in case Cache is not accessible
+     */
+    private List<String> findUntagged(String tag, List<String> keys) throws CacheNotAvailableException {
+        Map<String, String> values = cache.getAll(keys);
+        List<String> ret = new ArrayList<>();
+        List<String> absent = new ArrayList<>();
+        for (String key : keys) {
+            String value = values.get(key);
+            if (value == null) absent.add(key);
+            else if (!getTags(serializer.deserializeCacheMeta(value)).contains(tag)) ret.add(key);
+        }
+        //A key may be absent from the values only because its node could not be read
+        if (!absent.isEmpty()) ret.addAll(cache.missing(absent));
+        return ret;
+    }
+
+    /**
+     * Lists the tag sets with a SCAN, so Redis is never blocked by a KEYS command.
+     *
+     * @return List Names of the tag sets
+     */
+    private List<String> findTagSets() {
+        List<String> ret = stringRedisTemplate.execute((RedisCallback<List<String>>) connection -> {
+            List<String> sets = new ArrayList<>();
+            Cursor<byte[]> cursor = connection.scan(ScanOptions.scanOptions().match(TAG_INDEX_PREFIX + "*").count(SCAN_PAGE).build());
+            try {
+                while (cursor.hasNext()) sets.add(new String(cursor.next(), StandardCharsets.UTF_8));
+            } finally {
+                try {
+                    cursor.close();
+                } catch (IOException e) {
+                    logger.debug("+++++Could not close the scan of the tag index: {}+++++", e.getMessage());
+                }
+            }
+            return sets;
+        });
+        return ret == null ? Collections.emptyList() : ret;
+    }
+
+    private static String keyOf(String member) {
+        return member.substring(member.lastIndexOf(SEPARATOR) + 1);
+    }
+
+    /**
+     * Extracts the surrogate keys of a cached item from its 'Surrogate-Key' header.
+     *
+     * @param item Cached item
+     * @return List Surrogate keys, empty in case the header is not present
+     */
+    private static List<String> getTags(CacheItem item) {
+        if (item.getResponse() == null) return Collections.emptyList();
+        String header = item.getResponse().getHeader(SURROGATE_KEY);
+        if (header == null || header.trim().isEmpty()) return Collections.emptyList();
+        return Arrays.asList(header.trim().split("\\s+"));
+    }
+}
@@ -0,0 +1,106 @@
+package mvcp.adobe.components;
+
+import mvcp.adobe.abstractions.ICacheInvalidationListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Fans purges out to the local caches of every proxy replica through a Redis pub/sub channel.
+ * <p>
+ * Purged keys are published as comma-separated chunks. Each replica, including the publisher,
+ * receives the message and notifies all its ICacheInvalidationListener beans.
+ * The publisher also notifies its own listeners directly, so a lost subscription never keeps
+ * stale copies in the replica that made the purge.
+ *
+ * @author      Marcelo Pereira
+ * @version     1.0.0
+ * @since       2019-06-13
+ */
+@Component
+public class CacheInvalidator implements MessageListener {
+    public static final Logger logger = (Logger) LoggerFactory.getLogger(CacheInvalidator.class);
+    public static final String CHANNEL = "mvcp:invalidations";
+    //Maximum number of keys per published message
+    private static final int CHUNK_SIZE = 1000;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    private final List<ICacheInvalidationListener> listeners = new CopyOnWriteArrayList<>();
+
+    public CacheInvalidator() {}
+
+    /**
+     * Registers the local cache beans of this replica.
+     *
+     * @param beans Local caches declared as beans
+     */
+    @Autowired(required = false)
+    public void setListeners(List<ICacheInvalidationListener> beans) {
+        listeners.addAll(beans);
+    }
+
+    /**
+     * Registers a local cache that is not a bean by itself, e.g. a tier of the Cache.
+     *
+     * @param listener Local cache
+     */
+    public void addListener(ICacheInvalidationListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Invalidates keys in the local caches of this replica and publishes them to the other replicas.
+     *
+     * @param keys Purged cache keys
+     */
+    public void publish(Collection<String> keys) {
+        if (keys.isEmpty()) return;
+        notifyListeners(keys);
+        List<String> list = new ArrayList<>(keys);
+        try {
+            for (int i = 0; i < list.size(); i += CHUNK_SIZE) {
+                List<String> chunk = list.subList(i, Math.min(i + CHUNK_SIZE, list.size()));
+                stringRedisTemplate.convertAndSend(CHANNEL, String.join(",", chunk));
+            }
+        } catch (RuntimeException e) {
+            logger.info("+++++Could not publish cache invalidation: " + e.getMessage() + "+++++");
+        }
+    }
+
+    /**
+     * Receives invalidations published by any replica.
+     *
+     * @param message Comma-separated cache keys
+     * @param pattern Channel pattern
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        if (body.isEmpty()) return;
+        notifyListeners(Arrays.asList(body.split(",")));
+    }
+
+    /**
+     * Notifies the local caches of this replica.
+     *
+     * @param keys Purged cache keys
+     */
+    private void notifyListeners(Collection<String> keys) {
+        for (ICacheInvalidationListener listener : listeners) {
+            listener.invalidate(keys);
+        }
+    }
+}
@@ -1,24 +1,53 @@
 package mvcp.adobe.components;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
 import mvcp.adobe.abstractions.ICache;
 import mvcp.adobe.abstractions.ISerializer;
+import mvcp.adobe.connection.Buffers;
+import mvcp.adobe.entities.CacheDirectives;
+import mvcp.adobe.entities.CacheFreshness;
 import mvcp.adobe.entities.CacheItem;
+import mvcp.adobe.entities.CachePolicy;
+import mvcp.adobe.entities.Compression;
+import mvcp.adobe.entities.Headers;
 import mvcp.adobe.entities.Request;
 import mvcp.adobe.entities.Response;
+import mvcp.adobe.entities.Service;
+import mvcp.adobe.enums.CacheStatus;
 import mvcp.adobe.exceptions.CacheNotAvailableException;
+import mvcp.adobe.exceptions.NoAvailableEndpointsException;
+import mvcp.adobe.exceptions.ServiceHostNotFoundException;
+import mvcp.adobe.proxy.ReverseProxy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Component;
 
-import java.text.ParseException;
-import java.util.Date;
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Manages HTTP Cache Control logic.
- * Current implemented Cache Control properties: no-cache, no-store, private, max-age
+ * Current implemented Cache Control properties: no-cache, no-store, private, max-age, s-maxage, min-fresh, max-stale,
+ * must-revalidate, proxy-revalidate, stale-while-revalidate, stale-if-error, besides the Expires, Date and Age headers.
+ * Directives are parsed into CacheDirectives and the age/freshness decision is made by CacheFreshness.
  * <br>
  * CacheManager overall flow:
  * <ol>
@@ -33,15 +62,50 @@ import java.util.Map;
  * <li>Retrieves the cached item</li>
  * <li>Deserializes the stored object</li>
  * <li>Validates if cached object is still valid based on request/response Cache Control headers</li>
- * <li>Returns cached object</li>
+ * <li>In case yes, returns cached object</li>
+ * <li>In case no, revalidates it against the origin using the stored ETag/Last-Modified validators</li>
  * </ol>
  * <p>
+ * Admission control keeps the Cache for the responses worth it:
+ * <ul>
+ * <li>Bodies larger than the 'max-body-bytes' of the Service are not stored. When their 'Content-Length'
+ * announces it, they are streamed to the client without being buffered at all</li>
+ * <li>With 'mvcp.adobe.cache.admission.min.hits' above 1, a missed key is only stored after that many misses,
+ * counted in a CountMinSketch, so one-hit wonders do not evict popular items</li>
+ * </ul>
+ * <p>
+ * Lookups of keys that the KeyFilter knows are not stored skip the Cache, saving a round trip per certain miss.
+ * Items of hot keys, detected by the HotKeyCache, are pinned locally for a short TTL, taking their load off Redis.
+ * <p>
+ * Each Service has a CachePolicy, compiled from its definition, which may disable caching, restrict the cacheable
+ * methods and statuses, bound the body size, set default and maximum TTLs, add request headers to the cache key
+ * and prefix its keys with a namespace.
+ * <p>
+ * Error responses (4xx and 5xx) are never stored in the Cache: they are kept for a short TTL by the NegativeCache,
+ * which is looked up before the Cache, so repeated requests for missing or failing resources are not forwarded.
+ * <p>
+ * Cached items can be purged by URL, by URL prefix or by surrogate key (tags from the 'Surrogate-Key' response
+ * header), using the indexes kept by CacheIndex. Purges are fanned out to the local caches of every replica.
+ * <p>
+ * Revalidation sends a conditional request (If-None-Match/If-Modified-Since) to the Service.
+ * A 304 answer only refreshes the creation date of the stored item, so the body is never transferred again.
+ * <p>
+ * Clients revalidate their own copies against the proxy: a conditional GET whose If-None-Match matches the ETag of
+ * the origin or the validator computed by the proxy (or whose If-Modified-Since is not older than the Last-Modified
+ * date) is answered with a 304 built from the metadata of the fresh cached item, without reading its body.
+ * <p>
+ * Fresh items are refreshed in background before they expire, with a probability that rises as expiry nears
+ * and with the time the origin took to produce them (XFetch, scaled by 'mvcp.adobe.cache.early.refresh.beta').
+ * Popular items are thus refreshed by one early request instead of a burst of misses on every replica at expiry.
+ * <p>
  * Behaviors of headers on request:
  * <ul>
  * <li>no-cache: Skips cache, execute query and then cache Response</li>
- * <li>no-store: Skips cache, execute query and then cache Response</li>
+ * <li>no-store: Skips cache, execute query and does not cache Response</li>
  * <li>private: Skips cache, execute query and then cache Response</li>
  * <li>max-age: Validate if cached object is not older than max-age in seconds</li>
+ * <li>min-fresh: Validate if cached object stays fresh for at least min-fresh seconds</li>
+ * <li>max-stale: Accepts a stale cached object, stale for at most max-stale seconds (any, without a value)</li>
  * </ul>
  * <p>
  * Behaviors of headers on response:
@@ -49,6 +113,12 @@ import java.util.Map;
  * <li>no-cache: Does not store Response on cache.</li>
  * <li>no-store: Does not store Response on cache.</li>
  * <li>private: Does not store Response on cache.</li>
+ * <li>s-maxage: Cached Response becomes stale after s-maxage seconds, overriding max-age and Expires</li>
+ * <li>max-age: Cached Response becomes stale after max-age seconds, overriding Expires</li>
+ * <li>Expires: Cached Response becomes stale at the given date. Without expiration information it does not expire</li>
+ * <li>must-revalidate, proxy-revalidate: Stale Response is never served without revalidation</li>
+ * <li>stale-while-revalidate: Stale Response is still served for the given seconds while it is refreshed in background</li>
+ * <li>stale-if-error: Stale Response is served for the given seconds when the Service has no available Endpoints</li>
  * </ul>
  *
  * @author Marcelo Pereira
@@ -58,131 +128,542 @@ import java.util.Map;
 @Component
 public class CacheManager {
     public static final Logger logger = (Logger) LoggerFactory.getLogger(CacheManager.class);
+    private static final String ETAG = "ETag";
+    private static final String LAST_MODIFIED = "Last-Modified";
+    private static final String IF_NONE_MATCH = "If-None-Match";
+    private static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+    private static final int OK = 200;
+    private static final int PARTIAL_CONTENT = 206;
+    private static final int NOT_MODIFIED = 304;
+    private static final int INTERNAL_SERVER_ERROR = 500;
+    private static final String WARNING = "Warning";
+    private static final String STALE_WARNING = "110 - \"Response is Stale\"";
+    private static final String AGE = "Age";
+    //Headers of a 304 answer that describe the connection or the (absent) body, so they are not copied to the cached item
+    private static final Set<String> NOT_UPDATED_HEADERS = caseInsensitiveSet(
+            "content-length", "content-encoding", "transfer-encoding", "connection", "keep-alive");
+    //Headers of a cached response sent along a 304 answer (RFC 7232, section 4.1)
+    private static final Set<String> NOT_MODIFIED_HEADERS = caseInsensitiveSet(
+            "cache-control", "content-location", "date", "etag", "expires", "vary", "last-modified");
+    private static final String STALE_IF_ERROR_PROPERTY = "mvcp.adobe.cache.stale.if.error";
+    private static final int DEFAULT_STALE_IF_ERROR = 300;
+    private static final String REFRESH_THREADS_PROPERTY = "mvcp.adobe.cache.refresh.threads";
+    private static final String REFRESH_QUEUE_PROPERTY = "mvcp.adobe.cache.refresh.queue";
+    private static final int DEFAULT_REFRESH_THREADS = 4;
+    private static final int DEFAULT_REFRESH_QUEUE = 100;
+    private static final String CONTENT_LENGTH = "Content-Length";
+    private static final String ADMISSION_MIN_HITS_PROPERTY = "mvcp.adobe.cache.admission.min.hits";
+    private static final String ADMISSION_WIDTH_PROPERTY = "mvcp.adobe.cache.admission.width";
+    private static final int DEFAULT_ADMISSION_MIN_HITS = 1;
+    private static final int DEFAULT_ADMISSION_WIDTH = 16384;
+    private static final String EARLY_REFRESH_BETA_PROPERTY = "mvcp.adobe.cache.early.refresh.beta";
+    private static final double DEFAULT_EARLY_REFRESH_BETA = 1.0;
 
     @Autowired
-    @Qualifier("redis")
+    @Qualifier("cache")
     private ICache redisCache;
 
     @Autowired
     private ISerializer serializer;
 
+    @Autowired
+    private ReverseProxy proxy;
+
+    @Autowired
+    private Environment env;
+
+    @Autowired
+    private CacheWriter writer;
+
+    @Autowired
+    private CacheIndex index;
+
+    @Autowired
+    private CacheInvalidator invalidator;
+
+    @Autowired
+    private NegativeCache negativeCache;
+
+    @Autowired
+    private KeyFilter keyFilter;
+
+    @Autowired
+    private HotKeyCache hotKeys;
+
+    //Cache keys with a background refresh in progress
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+    private ThreadPoolExecutor refresher;
+    private CountMinSketch frequencies;
+    private final Counter tooLarge = Metrics.counter("proxy.cache.admission.rejected", "reason", "size");
+    private final Counter infrequent = Metrics.counter("proxy.cache.admission.rejected", "reason", "frequency");
+    private final Counter earlyRefreshes = Metrics.counter("proxy.cache.early.refreshes");
+    private final Counter notModified = Metrics.counter("proxy.cache.not.modified");
+    //Settings read on every request, resolved once instead of through the Environment each time
+    private double earlyRefreshBeta = DEFAULT_EARLY_REFRESH_BETA;
+    private int staleIfError = DEFAULT_STALE_IF_ERROR;
+    private int admissionMinHits = DEFAULT_ADMISSION_MIN_HITS;
+
     public CacheManager() {
     }
 
+    private static Set<String> caseInsensitiveSet(String... names) {
+        Set<String> ret = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        ret.addAll(Arrays.asList(names));
+        return ret;
+    }
+
+    /**
+     * Returns the cache policy of a Service.
+     *
+     * @param service Target Service, possibly null
+     * @return CachePolicy Policy of the Service or the default policy in case there is no Service
+     */
+    private static CachePolicy policyOf(Service service) {
+        return service == null ? CachePolicy.DEFAULT : service.getCachePolicy();
+    }
+
+    /**
+     * Returns the Service targeted by a request.
+     *
+     * @param request Incoming HTTP request
+     * @return Service Target Service or null in case it cannot be found
+     */
+    private Service findService(Request request) {
+        if (proxy == null) return null;
+        try {
+            return proxy.discoverService(request);
+        } catch (ServiceHostNotFoundException e) {
+            return null;
+        }
+    }
+
     /**
-     * Verifies if a request can be fulfilled with cached data based on Cache Control headers.
+     * Schedules a single background refresh of a stale cached item.
+     * Refreshes are deduplicated per cache key and run on a bounded executor.
+     * When the executor is saturated the refresh is dropped, the next stale hit will schedule it again.
+     * <p>
+     * The refresh works on its own copies of the request and of the cached item: the foreground keeps serving
+     * the cached response, and its cache status is the one written to the access log.
      *
-     * @param request Incoming HTTP Request
-     * @return boolean True in case the Response can be retrieved from Cache
+     * @param request Incoming HTTP request
+     * @param hash Cache key of the request
+     * @param value Serialized form of the cached item
+     * @param freshness Freshness decision of the cached item
+     * @return boolean True in case the refresh was scheduled
      */
-    private boolean canGetFromCache(Request request) {
-        Map<String, String> headers = request.getHeaders();
-        if (headers != null) {
-            String value = headers.get("cache-control");
-            if (value != null) {
-                String[] parts = value.split(",");
-                for (String part : parts) {
-                    if (part == null) continue;
-                    part = part.trim();
-                    if (part.equalsIgnoreCase("no-cache")
-                            || part.equalsIgnoreCase("no-store")
-                            || part.equalsIgnoreCase("private")) {
-                        logger.info("+++++Skipping cache via header: " + part + "+++++");
-                        return false;
+    private boolean refreshInBackground(Request request, String hash, String value, CacheFreshness freshness) {
+        if (proxy == null || !refreshing.add(hash)) return false;
+        Request copy = detach(request);
+        try {
+            getRefresher().execute(() -> {
+                try {
+                    CacheItem item = serializer.deserializeCacheItem(value);
+                    if (revalidate(copy, hash, item, value, freshness) == null) {
+                        //A server error would shadow the stale item from the negative cache, it is left as is
+                        Response response = proxy.processRequest(copy);
+                        if (!isServerError(response)) store(copy, response);
                     }
+                } catch (CacheNotAvailableException | ServiceHostNotFoundException | NoAvailableEndpointsException e) {
+                    logger.info("+++++Background refresh failed: {}+++++", e.getMessage());
+                } finally {
+                    refreshing.remove(hash);
                 }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            refreshing.remove(hash);
+            return false;
+        }
+    }
+
+    /**
+     * Copies the parts of a request needed to forward it again, so a background task does not share its state.
+     *
+     * @param request Incoming HTTP request
+     * @return Request Copy of the request
+     */
+    private static Request detach(Request request) {
+        Request ret = new Request(request.getVersion(), request.getMethod(), request.getPath(), null, request.getBody());
+        Headers headers = new Headers(request.getHeaders().size());
+        request.getHeaders().forEach(headers::add);
+        ret.setHeaders(headers);
+        ret.setQuery(request.getQuery());
+        return ret;
+    }
+
+    /**
+     * Returns the bounded executor for background refreshes, creating it on first use.
+     *
+     * @return ThreadPoolExecutor Executor of background refreshes
+     */
+    private synchronized ThreadPoolExecutor getRefresher() {
+        if (refresher == null) {
+            int threads = getIntProperty(REFRESH_THREADS_PROPERTY, DEFAULT_REFRESH_THREADS);
+            int queue = getIntProperty(REFRESH_QUEUE_PROPERTY, DEFAULT_REFRESH_QUEUE);
+            refresher = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queue), r -> {
+                Thread thread = new Thread(r, "cache-refresher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            refresher.allowCoreThreadTimeOut(true);
+        }
+        return refresher;
+    }
+
+    /**
+     * Reads the settings used on every request from the configuration.
+     */
+    @PostConstruct
+    public void init() {
+        earlyRefreshBeta = getDoubleProperty(EARLY_REFRESH_BETA_PROPERTY, DEFAULT_EARLY_REFRESH_BETA);
+        staleIfError = getIntProperty(STALE_IF_ERROR_PROPERTY, DEFAULT_STALE_IF_ERROR);
+        admissionMinHits = getIntProperty(ADMISSION_MIN_HITS_PROPERTY, DEFAULT_ADMISSION_MIN_HITS);
+    }
+
+    /**
+     * Reads an integer property from the environment.
+     *
+     * @param name Name of the property
+     * @param defaultValue Value used when the property is not set
+     * @return int Value of the property
+     */
+    private int getIntProperty(String name, int defaultValue) {
+        if (env == null) return defaultValue;
+        return env.getProperty(name, Integer.class, defaultValue);
+    }
+
+    /**
+     * Reads a double property from the environment.
+     *
+     * @param name Name of the property
+     * @param defaultValue Value used when the property is not set
+     * @return double Value of the property
+     */
+    private double getDoubleProperty(String name, double defaultValue) {
+        if (env == null) return defaultValue;
+        return env.getProperty(name, Double.class, defaultValue);
+    }
+
+    /**
+     * Tries to return a cached Response based on a Request configuration.
+     * The request directives and the cached response directives are parsed once, and a single
+     * freshness decision drives whether the item is served, served stale or revalidated.
+     *
+     * @param request Incoming HTTP request
+     * @return response Cached response
+     * @throws CacheNotAvailableException Thrown when no Cache mechanism is available
+     */
+    public Response getCached(Request request) throws CacheNotAvailableException {
+        CacheDirectives directives = CacheDirectives.of(request.getHeaders());
+        if (directives.bypassesCache()) {
+            logger.debug("+++++Skipping cache via header: {}+++++", request.getHeader(CacheDirectives.CACHE_CONTROL));
+            request.setCacheStatus(CacheStatus.BYPASS);
+            return null;
+        }
+        CachePolicy policy = policyOf(findService(request));
+        if (!policy.isCacheable(request)) {
+            logger.debug("+++++Skipping cache via service policy+++++");
+            request.setCacheStatus(CacheStatus.BYPASS);
+            return null;
+        }
+        String hash = serializer.hashRequest(request, policy);
+        Response error = negativeCache.get(hash);
+        if (error != null) {
+            logger.debug("+++++Serving cached error {}: {}+++++", error.getStatus(), hash);
+            request.setCacheStatus(CacheStatus.NEGATIVE);
+            return error;
+        }
+        request.setCacheStatus(CacheStatus.MISS);
+        String value = lookup(request, hash);
+        if (value == null) return null;
+        if (isConditional(request)) {
+            Response notModified = getNotModified(request, directives, policy, value);
+            if (notModified != null) {
+                request.setCacheStatus(CacheStatus.NOT_MODIFIED);
+                return notModified;
             }
         }
-        return true;
+
+        CacheItem item = serializer.deserializeCacheItem(value);
+        Response response = item.getResponse();
+        response.setValidator(item.getEtag());
+        CacheFreshness freshness = CacheFreshness.evaluate(directives, item, policy);
+        logger.debug("+++++Cache Item has Age: {}s+++++", freshness.getAge());
+        if (freshness.isFresh()) {
+            request.setCacheStatus(CacheStatus.HIT);
+            double beta = earlyRefreshBeta;
+            //In (0, 1], as the logarithm of 0 is infinite
+            double random = 1 - ThreadLocalRandom.current().nextDouble();
+            if (freshness.isEarlyRefreshDue(item.getDelta(), beta, random)
+                    && refreshInBackground(request, hash, value, freshness)) {
+                earlyRefreshes.increment();
+                logger.debug("+++++Refreshing cache item before it expires: {}+++++", hash);
+            }
+            return response;
+        }
+        if (freshness.isWithinStaleWhileRevalidate(policy.getStaleWhileRevalidate())) {
+            if (refreshInBackground(request, hash, value, freshness)) {
+                logger.debug("+++++Serving stale cache item while revalidating: {}+++++", hash);
+            }
+            request.setCacheStatus(CacheStatus.STALE);
+            return response;
+        }
+        if (freshness.isWithinMaxStale()) {
+            logger.debug("+++++Serving stale cache item accepted by max-stale: {}+++++", hash);
+            request.setCacheStatus(CacheStatus.STALE);
+            return markStale(response, freshness.getAge());
+        }
+        return revalidate(request, hash, item, value, freshness);
     }
 
     /**
-     * Verifies if a response can be cached based on Cache Control headers
+     * Verifies if a request carries validators of the copy held by the client.
      *
-     * @param response Incoming HTTP response
-     * @return boolean True in case the response can be cached
+     * @param request Incoming HTTP request
+     * @return boolean True for GET and HEAD requests with If-None-Match or If-Modified-Since
      */
-    private boolean canCache(Response response) {
-        Map<String, String> headers = response.getHeaders();
-        if (headers != null) {
-            for (String header : headers.keySet()) {
-                String value = headers.get(header);
-                if (header != null && header.trim().equalsIgnoreCase("cache-control")) {
-                    String[] parts = value.split(",");
-                    for (String part : parts) {
-                        part = part.trim();
-                        if (part != null && (part.equalsIgnoreCase("no-cache")
-                                || part.equalsIgnoreCase("no-store")
-                                || part.equalsIgnoreCase("private"))) {
-                            logger.info("+++++Skipping cache store via response header: " + part + "+++++");
-                            return false;
-                        }
-                    }
-                }
+    private static boolean isConditional(Request request) {
+        String method = request.getMethod();
+        if (method != null && !method.equalsIgnoreCase("GET") && !method.equalsIgnoreCase("HEAD")) return false;
+        return request.getHeader(IF_NONE_MATCH) != null || request.getHeader(IF_MODIFIED_SINCE) != null;
+    }
+
+    /**
+     * Answers a conditional request with a 304 when the client copy matches a fresh cached item.
+     * Only the metadata of the item is read, the body is neither parsed nor sent.
+     *
+     * @param request Incoming HTTP request with validators
+     * @param directives Parsed directives of the request
+     * @param policy Cache policy of the Service
+     * @param value Serialized cached item
+     * @return Response 304 response or null in case the item must be served or revalidated as usual
+     */
+    private Response getNotModified(Request request, CacheDirectives directives, CachePolicy policy, String value) {
+        CacheItem meta = serializer.deserializeCacheMeta(value);
+        Response cached = meta.getResponse();
+        if (cached == null || cached.getStatus() != OK || !CacheFreshness.evaluate(directives, meta, policy).isFresh()) {
+            return null;
+        }
+        if (!matches(request, meta)) return null;
+        Headers headers = new Headers();
+        if (cached.getHeaders() != null) {
+            cached.getHeaders().forEach((name, header) -> {
+                if (NOT_MODIFIED_HEADERS.contains(name)) headers.add(name, header);
+            });
+        }
+        Response response = new Response(NOT_MODIFIED, null);
+        response.setHeaders(headers);
+        response.setValidator(meta.getEtag());
+        notModified.increment();
+        logger.debug("+++++Client copy not modified: {}+++++", meta.getUrl());
+        return response;
+    }
+
+    /**
+     * Verifies the validators of a request against a cached item, following RFC 7232:
+     * If-None-Match is compared (weakly) to the ETag of the origin and to the validator of the proxy,
+     * for the plain or the gzip encoded representation,
+     * and If-Modified-Since, only used without If-None-Match, to the Last-Modified date of the response.
+     *
+     * @param request Incoming HTTP request with validators
+     * @param meta Metadata of the cached item
+     * @return boolean True in case the client copy is still valid
+     */
+    private static boolean matches(Request request, CacheItem meta) {
+        String ifNoneMatch = request.getHeader(IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            String origin = opaqueTag(meta.getResponse().getHeader(ETAG));
+            String proxy = opaqueTag(meta.getEtag());
+            for (String tag : ifNoneMatch.split(",")) {
+                //The tag of the gzip encoded body validates the same cached item
+                String candidate = Compression.plainTag(opaqueTag(tag));
+                if (candidate.equals("*") || candidate.equals(origin) || candidate.equals(proxy)) return true;
             }
+            return false;
         }
-        return true;
+        long since = CacheFreshness.parseHttpDate(request.getHeader(IF_MODIFIED_SINCE));
+        long lastModified = CacheFreshness.parseHttpDate(meta.getResponse().getHeader(LAST_MODIFIED));
+        return since >= 0 && lastModified >= 0 && lastModified <= since;
     }
 
+    /**
+     * Strips the weakness indicator of an entity tag, for weak comparison.
+     *
+     * @param tag Entity tag, e.g. 'W/"abc"'
+     * @return String Opaque quoted tag or null in case there is no tag
+     */
+    private static String opaqueTag(String tag) {
+        if (tag == null) return null;
+        tag = tag.trim();
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
 
     /**
-     * Verifies if the age of the response respects the max-age limit of the request.
+     * Reads a cached item. Hot keys are served from the local near-cache while pinned, and keys that the
+     * KeyFilter tells are certainly not stored are not looked up.
      *
      * @param request Incoming HTTP request
-     * @param item    Object retrieved from cache
-     * @return boolean True if the object from cache is still valid under Request's configuration of Cache Control
+     * @param hash Cache key of the request
+     * @return String Serialized cached item or null in case it is not cached
+     * @throws CacheNotAvailableException Thrown when no Cache mechanism is available
      */
-    public boolean cacheItemIsValid(Request request, CacheItem item) {
-        Date now = new Date();
-        Date created = null;
-        try {
-            created = item.getCreated();
-        } catch (ParseException e) {
-            return false;
+    private String lookup(Request request, String hash) throws CacheNotAvailableException {
+        boolean hot = hotKeys.record(hash, request::getUrl);
+        if (hot) {
+            String pinned = hotKeys.get(hash);
+            if (pinned != null) return pinned;
         }
-        long ageInSeconds = (now.getTime() - created.getTime()) / 1000;
-        logger.info("+++++Cache Item has Age: " + ageInSeconds + "s+++++");
-        if (request.getHeaders() != null) {
-            for (String header : request.getHeaders().keySet()) {
-                String value = request.getHeaders().get(header);
-                if (header.trim().equalsIgnoreCase("cache-control")) {
-                    String[] parts = value.split(",");
-                    for (String part : parts) {
-                        part = part.trim();
-                        if (part.contains("max-age")) {
-                            long max = Long.parseLong(part.split("=")[1]);
-                            if (ageInSeconds >= max) {
-                                logger.info("+++++Skipping cache via header: " + part + "+++++");
-                                return false;
-                            }
-                        }
-                    }
-                }
-            }
+        if (!keyFilter.mightContain(hash)) return null;
+        String value = redisCache.get(hash);
+        if (value == null) {
+            keyFilter.falsePositive();
+        } else if (hot) {
+            hotKeys.put(hash, value);
         }
-        return true;
+        return value;
     }
 
     /**
-     * Tries to return a cached Response based on a Request configuration.
+     * Asks the origin whether a cached item that is too old is still up to date.
+     * The request is sent with the item's validators. On a 304 answer, the stored item
+     * has its creation date refreshed and is returned. On a server error, the stale item is served
+     * within its stale-if-error window, as when no Endpoint answers. On any other answer, the new
+     * response replaces the cached one.
      *
      * @param request Incoming HTTP request
-     * @return response Cached response
+     * @param hash Cache key of the request
+     * @param item Cached item that is not valid anymore
+     * @param value Serialized form of the cached item
+     * @param freshness Freshness decision of the cached item
+     * @return response Up to date response or null in case the item cannot be revalidated
      * @throws CacheNotAvailableException Thrown when no Cache mechanism is available
      */
-    public Response getCached(Request request) throws CacheNotAvailableException {
-        if (canGetFromCache(request)) {
-            String hash = serializer.hashRequest(request);
-            String value = redisCache.get(hash);
-            if (value != null) {
-                CacheItem item = serializer.deserializeCacheItem(value);
-                Response response = item.getResponse();
-                if (cacheItemIsValid(request, item)) {
-                    return response;
+    private Response revalidate(Request request, String hash, CacheItem item, String value, CacheFreshness freshness)
+            throws CacheNotAvailableException {
+        Response cached = item.getResponse();
+        String etag = cached.getHeader(ETAG);
+        String lastModified = cached.getHeader(LAST_MODIFIED);
+        if (proxy == null || (etag == null && lastModified == null)) return null;
+
+        Headers headers = new Headers(request.getHeaders().size() + 2);
+        request.getHeaders().forEach((name, header) -> {
+            if (!name.equalsIgnoreCase(IF_NONE_MATCH) && !name.equalsIgnoreCase(IF_MODIFIED_SINCE)) headers.add(name, header);
+        });
+        if (etag != null) headers.add(IF_NONE_MATCH, etag);
+        if (lastModified != null) headers.add(IF_MODIFIED_SINCE, lastModified);
+        Request conditional = new Request(request.getVersion(), request.getMethod(), request.getPath(), null, request.getBody());
+        conditional.setHeaders(headers);
+        conditional.setQuery(request.getQuery());
+
+        try {
+            logger.debug("+++++Revalidating cache item: {}+++++", hash);
+            Response response = proxy.processRequest(conditional);
+            if (response.getStatus() == NOT_MODIFIED) {
+                logger.debug("+++++Cache item not modified: {}+++++", hash);
+                item.refresh();
+                if (updateHeaders(cached, response)) {
+                    redisCache.put(hash, serializer.serializeCacheItem(item));
+                } else {
+                    redisCache.put(hash, serializer.refreshCacheItem(value, item));
                 }
+                hotKeys.remove(hash);
+                cached.setEndpoint(response.getEndpoint());
+                cached.setAttempts(response.getAttempts());
+                cached.setElapsed(response.getElapsed());
+                request.setCacheStatus(CacheStatus.REVALIDATED);
+                return cached;
             }
+            if (isServerError(response)) {
+                logger.info("+++++Could not revalidate cache item: the origin answered {}+++++", response.getStatus());
+                Response stale = serveStaleIfError(hash, freshness, item);
+                if (stale != null) {
+                    request.setCacheStatus(CacheStatus.STALE);
+                    return stale;
+                }
+            }
+            store(request, response);
+            request.setCacheStatus(CacheStatus.EXPIRED);
+            return response;
+        } catch (ServiceHostNotFoundException e) {
+            logger.info("+++++Could not revalidate cache item: {}+++++", e.getMessage());
+            return null;
+        } catch (NoAvailableEndpointsException e) {
+            logger.info("+++++Could not revalidate cache item: {}+++++", e.getMessage());
+            Response stale = serveStaleIfError(hash, freshness, item);
+            if (stale != null) request.setCacheStatus(CacheStatus.STALE);
+            return stale;
+        }
+    }
+
+    /**
+     * Updates the headers of a cached Response with the headers of a 304 answer (e.g. Date, Expires, Cache-Control),
+     * so the freshness of the revalidated item is calculated from the new values.
+     *
+     * @param cached Cached response being revalidated
+     * @param notModified 304 answer from the origin
+     * @return boolean True in case any header was updated
+     */
+    private boolean updateHeaders(Response cached, Response notModified) {
+        if (notModified.getHeaders() == null || notModified.getHeaders().isEmpty()) return false;
+        Headers headers = cached.getHeaders() != null ? cached.getHeaders() : new Headers();
+        //Every value of an updated header is replaced by the values of the 304 answer
+        Set<String> updated = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        for (Map.Entry<String, String> header : notModified.getHeaders()) {
+            String name = header.getKey();
+            if (NOT_UPDATED_HEADERS.contains(name)) continue;
+            if (updated.add(name)) headers.remove(name);
+            headers.add(name, header.getValue());
         }
-        return null;
+        cached.setHeaders(headers);
+        return !updated.isEmpty();
+    }
+
+    /**
+     * Returns the cached Response of a request when its Service cannot fulfil it.
+     * The cached item is used only while it is stale for less than the stale-if-error grace window.
+     *
+     * @param request Incoming HTTP request
+     * @return response Stale cached response or null in case there is no usable cached item
+     * @throws CacheNotAvailableException Thrown when no Cache mechanism is available
+     */
+    public Response getStaleIfError(Request request) throws CacheNotAvailableException {
+        CachePolicy policy = policyOf(findService(request));
+        if (!policy.isCacheable(request)) return null;
+        String hash = serializer.hashRequest(request, policy);
+        String value = lookup(request, hash);
+        if (value == null) return null;
+        CacheItem item = serializer.deserializeCacheItem(value);
+        return serveStaleIfError(hash, CacheFreshness.evaluate(CacheDirectives.of(request.getHeaders()), item, policy), item);
+    }
+
+    /**
+     * Marks a cached item as stale and returns its Response in case it is within the stale-if-error grace window.
+     * The window comes from the response's stale-if-error directive or from the configuration, whichever is larger.
+     *
+     * @param hash Cache key of the item
+     * @param freshness Freshness decision of the cached item
+     * @param item Object retrieved from cache
+     * @return response Stale cached response with Warning and Age headers or null in case the item is too old
+     */
+    private Response serveStaleIfError(String hash, CacheFreshness freshness, CacheItem item) {
+        if (!freshness.isWithinStaleIfError(staleIfError)) return null;
+        logger.debug("+++++Serving stale cache item on error: {}+++++", hash);
+        return markStale(item.getResponse(), freshness.getAge());
+    }
+
+    /**
+     * Adds the Warning and Age headers of a stale Response.
+     *
+     * @param response Stale cached response
+     * @param ageInSeconds Current age of the response
+     * @return response The same response, with the headers added
+     */
+    private Response markStale(Response response, long ageInSeconds) {
+        Headers headers = response.getHeaders() != null ? response.getHeaders() : new Headers();
+        headers.put(WARNING, STALE_WARNING);
+        headers.put(AGE, String.valueOf(ageInSeconds));
+        response.setHeaders(headers);
+        return response;
     }
 
     /**
@@ -190,14 +671,250 @@ public class CacheManager {
      *
      * @param request  The request that should be used as key
      * @param response The response that should be stored in cache
+     * @return boolean True in case the response was stored, false in case it cannot be cached or is an error,
+     * only kept in the negative cache
      * @throws CacheNotAvailableException Thrown when no Cache mechanism is available
      */
-    public void store(Request request, Response response) throws CacheNotAvailableException {
-        if (canCache(response)) {
-            String hash = serializer.hashRequest(request);
-            logger.info("+++++Caching response in hash: " + hash + "+++++");
-            redisCache.put(hash, serializer.serializeCacheItem(new CacheItem(response)));
+    public boolean store(Request request, Response response) throws CacheNotAvailableException {
+        Service service = findService(request);
+        if (canCache(request, response, policyOf(service))) {
+            String hash = serializer.hashRequest(request, policyOf(service));
+            if (isError(response)) {
+                negativeCache.put(hash, response, service);
+                return false;
+            }
+            logger.debug("+++++Caching response in hash: {}+++++", hash);
+            CacheItem item = new CacheItem(response);
+            item.setEtag(serializer.validatorOf(response));
+            item.setUrl(serializer.canonicalUrl(request));
+            redisCache.put(hash, serializer.serializeCacheItem(item));
+            hotKeys.remove(hash);
+            index.addAll(Collections.singletonMap(hash, item));
+            keyFilter.stored(Collections.singletonList(hash));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Stores a Response in the cache in background, under a key derived from the Request.
+     * The write is handed to the write-behind queue, so the caller never waits for the Cache.
+     * As this is the path of cache misses, the key must also pass the frequency admission.
+     *
+     * @param request  The request that should be used as key
+     * @param response The response that should be stored in cache
+     */
+    public void storeAsync(Request request, Response response) {
+        Service service = findService(request);
+        if (canCache(request, response, policyOf(service))) {
+            String hash = serializer.hashRequest(request, policyOf(service));
+            if (isError(response)) {
+                negativeCache.put(hash, response, service);
+                return;
+            }
+            if (!isFrequent(hash)) return;
+            logger.debug("+++++Queueing response for caching in hash: {}+++++", hash);
+            CacheItem item = new CacheItem(response);
+            item.setEtag(serializer.validatorOf(response));
+            item.setUrl(serializer.canonicalUrl(request));
+            hotKeys.remove(hash);
+            writer.enqueue(hash, item);
+        }
+    }
+
+    /**
+     * Caches the failure of a request whose Service had no available Endpoints, as a negative cache entry.
+     * Requests for the same key are answered with the same error until its TTL expires.
+     *
+     * @param request The request that failed
+     * @param message Description of the failure
+     * @return Response Error response that was cached
+     */
+    public Response storeFailure(Request request, String message) {
+        Response response = new Response(INTERNAL_SERVER_ERROR, message);
+        Service service = findService(request);
+        if (!CacheDirectives.of(request.getHeaders()).isNoStore() && policyOf(service).isCacheable(request)) {
+            negativeCache.put(serializer.hashRequest(request, policyOf(service)), response, service);
+        }
+        return response;
+    }
+
+    /**
+     * Verifies if a response is an error, which is only kept in the negative cache.
+     *
+     * @param response Incoming HTTP response
+     * @return boolean True for 4xx and 5xx responses
+     */
+    private static boolean isError(Response response) {
+        return response.getStatus() >= 400;
+    }
+
+    /**
+     * Verifies if a response is a server error, for which a stale cached item is preferred.
+     *
+     * @param response Incoming HTTP response
+     * @return boolean True for 5xx responses
+     */
+    public static boolean isServerError(Response response) {
+        return response.getStatus() >= INTERNAL_SERVER_ERROR;
+    }
+
+    /**
+     * Purges the cached item of a URL, i.e. the item a GET request to it would be served from.
+     *
+     * @param request Request targeting the URL to be purged, of any method
+     * @return int Number of purged keys
+     * @throws CacheNotAvailableException Thrown when no Cache mechanism is available
+     */
+    public int purge(Request request) throws CacheNotAvailableException {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("host", request.getHostHeader());
+        Request get = new Request(request.getVersion(), "GET", request.getPath(), headers, null);
+        get.setQuery(request.getQuery());
+        CachePolicy policy = policyOf(findService(get));
+        String hash = serializer.hashRequest(get, policy);
+        logger.info("+++++Purging cache item of {}: {}+++++", request.getUrl(), hash);
+        if (!policy.getKeyHeaders().isEmpty()) {
+            //The URL has one item per value of the key headers, all of them found in the path index
+            Set<String> keys = new HashSet<>(index.removeByUrl(serializer.canonicalUrl(get)));
+            keys.add(hash);
+            return purgeKeys(new ArrayList<>(keys));
+        }
+        List<String> keys = Collections.singletonList(hash);
+        redisCache.delete(keys);
+        index.remove(serializer.canonicalUrl(get), hash);
+        invalidator.publish(keys);
+        return keys.size();
+    }
+
+    /**
+     * Purges the cached items of all URLs starting with a prefix.
+     *
+     * @param prefix URL prefix, e.g. 'servicea.com/api/'
+     * @return int Number of purged keys
+     * @throws CacheNotAvailableException Thrown when no Cache mechanism is available
+     */
+    public int purgeByPrefix(String prefix) throws CacheNotAvailableException {
+        logger.info("+++++Purging cache items under {}+++++", prefix);
+        return purgeKeys(index.removeByPrefix(prefix));
+    }
+
+    /**
+     * Purges the cached items tagged with a surrogate key.
+     *
+     * @param tag Surrogate key
+     * @return int Number of purged keys
+     * @throws CacheNotAvailableException Thrown when no Cache mechanism is available
+     */
+    public int purgeByTag(String tag) throws CacheNotAvailableException {
+        logger.info("+++++Purging cache items tagged {}+++++", tag);
+        return purgeKeys(index.removeByTag(tag));
+    }
+
+    /**
+     * Removes keys from the Cache and from the local caches of every replica.
+     *
+     * @param keys Cache keys to be purged
+     * @return int Number of purged keys
+     * @throws CacheNotAvailableException Thrown when no Cache mechanism is available
+     */
+    private int purgeKeys(List<String> keys) throws CacheNotAvailableException {
+        if (keys.isEmpty()) return 0;
+        redisCache.delete(keys);
+        invalidator.publish(keys);
+        return keys.size();
+    }
+
+    /**
+     * Verifies if a response can be cached based on the cache policy of its Service
+     * and the Cache Control directives of the request and the response.
+     *
+     * @param request The request that originated the response
+     * @param response Incoming HTTP response
+     * @param policy Cache policy of the Service
+     * @return boolean True in case the response can be cached
+     */
+    private boolean canCache(Request request, Response response, CachePolicy policy) {
+        if (!policy.isCacheable(request)) {
+            logger.debug("+++++Skipping cache store via service policy+++++");
+            return false;
+        }
+        if (response.getStatus() == PARTIAL_CONTENT) {
+            //Keys ignore the Range header, so a part must never replace the full response
+            logger.debug("+++++Skipping cache store of partial content+++++");
+            return false;
+        }
+        if (!isError(response) && !policy.isCacheableStatus(response.getStatus())) {
+            logger.debug("+++++Skipping cache store of status {} via service policy+++++", response.getStatus());
+            return false;
+        }
+        if (CacheDirectives.of(request.getHeaders()).isNoStore()) {
+            logger.debug("+++++Skipping cache store via request header: no-store+++++");
+            return false;
+        }
+        if (!CacheDirectives.of(response.getHeaders()).isStorable()) {
+            logger.debug("+++++Skipping cache store via response header: {}+++++", response.getHeader(CacheDirectives.CACHE_CONTROL));
+            return false;
+        }
+        if (response.getStream() != null) {
+            logger.debug("+++++Skipping cache store of streamed response+++++");
+            tooLarge.increment();
+            return false;
+        }
+        long maxBodyBytes = policy.getMaxBodyBytes();
+        if (maxBodyBytes > 0 && getBodySize(response) > maxBodyBytes) {
+            logger.debug("+++++Skipping cache store of response larger than {} bytes+++++", maxBodyBytes);
+            tooLarge.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the size of a response body, from its 'Content-Length' header when present,
+     * otherwise from the bytes of the body, which may hold multi-byte characters.
+     *
+     * @param response Incoming HTTP response
+     * @return long Size of the body in bytes
+     */
+    private static long getBodySize(Response response) {
+        String contentLength = response.getHeader(CONTENT_LENGTH);
+        if (contentLength != null) {
+            try {
+                return Long.parseLong(contentLength.trim());
+            } catch (NumberFormatException e) {
+                //Falls back to the body itself
+            }
+        }
+        return response.getBody() == null ? 0 : Buffers.utf8Length(response.getBody());
+    }
+
+    /**
+     * Counts a cache miss of a key and verifies if the key is requested often enough to be cached,
+     * so keys requested only once do not take the place of popular ones.
+     *
+     * @param hash Cache key of the request
+     * @return boolean True in case the key reached the minimum number of misses
+     */
+    private boolean isFrequent(String hash) {
+        int minHits = admissionMinHits;
+        if (minHits <= 1) return true;
+        if (getFrequencies().increment(hash) >= minHits) return true;
+        logger.debug("+++++Skipping cache store of infrequent key: {}+++++", hash);
+        infrequent.increment();
+        return false;
+    }
+
+    /**
+     * Returns the frequency sketch of the cache misses, creating it on first use.
+     *
+     * @return CountMinSketch Frequencies of the missed keys
+     */
+    private synchronized CountMinSketch getFrequencies() {
+        if (frequencies == null) {
+            frequencies = new CountMinSketch(getIntProperty(ADMISSION_WIDTH_PROPERTY, DEFAULT_ADMISSION_WIDTH));
         }
+        return frequencies;
     }
 
     /**
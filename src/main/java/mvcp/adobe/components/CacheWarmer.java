@@ -0,0 +1,284 @@
+package mvcp.adobe.components;
+
+import mvcp.adobe.entities.Request;
+import mvcp.adobe.entities.Response;
+import mvcp.adobe.entities.Service;
+import mvcp.adobe.exceptions.CacheNotAvailableException;
+import mvcp.adobe.exceptions.NoAvailableEndpointsException;
+import mvcp.adobe.exceptions.ServiceHostNotFoundException;
+import mvcp.adobe.proxy.ReverseProxy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Warms up the Cache at startup, so the first minutes after a deploy do not miss the Cache and hammer the Services.
+ * <p>
+ * Warm-up flow:
+ * <ol>
+ * <li>Reads the file given by 'mvcp.adobe.warmup.file', one entry per line. Accepted entries are full URLs
+ * (e.g. the siege URL lists), paths, or access log lines (the GET requests of common/combined log format)</li>
+ * <li>Builds a GET request for each distinct entry. The 'Host' header is 'mvcp.adobe.warmup.host' when set,
+ * or the host of the URL otherwise</li>
+ * <li>Once the application is ready, requests are executed by a bounded pool of threads, at a limited rate,
+ * waiting for the target Service to have available Endpoints</li>
+ * <li>Entries already cached (e.g. by another replica) are skipped; the others are fetched through the Reverse Proxy
+ * and stored by the Cache Manager</li>
+ * </ol>
+ * As a HealthIndicator, the warm-up reports OUT_OF_SERVICE, so readiness probes on the health endpoint fail,
+ * until the configured percentage of entries has been processed, the warm-up ends or its timeout expires.
+ *
+ * @author      Marcelo Pereira
+ * @version     1.0.0
+ * @since       2019-06-14
+ */
+@Component
+public class CacheWarmer implements HealthIndicator {
+    public static final Logger logger = (Logger) LoggerFactory.getLogger(CacheWarmer.class);
+    private static final String FILE_PROPERTY = "mvcp.adobe.warmup.file";
+    private static final String HOST_PROPERTY = "mvcp.adobe.warmup.host";
+    private static final String THREADS_PROPERTY = "mvcp.adobe.warmup.threads";
+    private static final String RATE_PROPERTY = "mvcp.adobe.warmup.rate";
+    private static final String READY_PERCENT_PROPERTY = "mvcp.adobe.warmup.ready.percent";
+    private static final String TIMEOUT_PROPERTY = "mvcp.adobe.warmup.timeout.seconds";
+    private static final int DEFAULT_THREADS = 4;
+    private static final int DEFAULT_RATE = 50;
+    private static final int DEFAULT_READY_PERCENT = 80;
+    private static final int DEFAULT_TIMEOUT = 120;
+    private static final String HTTP_VERSION = "1.1";
+    private static final String GET = "GET";
+    //Interval for checking if a Service has available Endpoints again
+    private static final long ENDPOINT_WAIT_MILIS = 500;
+    //Request line of an access log entry, e.g. "GET /path HTTP/1.1"
+    private static final Pattern ACCESS_LOG_REQUEST = Pattern.compile("\"([A-Z]+) (\\S+) HTTP/[0-9.]+\"");
+
+    @Autowired
+    private Environment env;
+
+    @Autowired
+    private ReverseProxy proxy;
+
+    @Autowired
+    private CacheManager cache;
+
+    private List<Request> requests = Collections.emptyList();
+    private final AtomicInteger processed = new AtomicInteger();
+    private final AtomicInteger warmed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private volatile boolean finished = true;
+    private int readyPercent;
+    private long deadline;
+    private long intervalNanos;
+    private long nextSlot;
+
+    /**
+     * Loads the warm-up entries, so readiness is gated from the very start of the application.
+     */
+    @PostConstruct
+    public void init() {
+        String file = env.getProperty(FILE_PROPERTY, String.class, "");
+        if (file.trim().isEmpty()) return;
+        try {
+            List<String> lines = Files.readAllLines(Paths.get(file.trim()), StandardCharsets.UTF_8);
+            this.requests = parse(lines, env.getProperty(HOST_PROPERTY, String.class, ""));
+        } catch (IOException e) {
+            logger.info("+++++Could not read cache warm-up file {}: {}+++++", file, e.getMessage());
+            return;
+        }
+        int rate = env.getProperty(RATE_PROPERTY, Integer.class, DEFAULT_RATE);
+        this.intervalNanos = rate > 0 ? TimeUnit.SECONDS.toNanos(1) / rate : 0;
+        this.readyPercent = env.getProperty(READY_PERCENT_PROPERTY, Integer.class, DEFAULT_READY_PERCENT);
+        this.deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(env.getProperty(TIMEOUT_PROPERTY, Integer.class, DEFAULT_TIMEOUT));
+        this.finished = requests.isEmpty();
+        logger.info("+++++Loaded {} cache warm-up entries from {}+++++", requests.size(), file);
+    }
+
+    /**
+     * Starts the warm-up in background once the application is ready to forward requests.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (finished) return;
+        Thread thread = new Thread(this::warmUp, "cache-warmer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Parses warm-up entries into GET requests, ignoring blank lines, comments and duplicates.
+     *
+     * @param lines URLs, paths or access log lines
+     * @param host Value of the 'Host' header, or empty to use the host of each URL
+     * @return List Requests to be warmed up, in the order of the lines
+     */
+    public static List<Request> parse(List<String> lines, String host) {
+        List<Request> ret = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (String line : lines) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            String target = line;
+            Matcher matcher = ACCESS_LOG_REQUEST.matcher(line);
+            if (matcher.find()) {
+                if (!GET.equals(matcher.group(1))) continue;
+                target = matcher.group(2);
+            }
+            String entryHost = host;
+            String path;
+            String query = null;
+            if (target.startsWith("http://") || target.startsWith("https://")) {
+                try {
+                    URI uri = new URI(target);
+                    if (entryHost == null || entryHost.isEmpty()) entryHost = uri.getHost();
+                    path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+                    query = uri.getRawQuery();
+                } catch (URISyntaxException e) {
+                    continue;
+                }
+            } else if (target.startsWith("/")) {
+                int question = target.indexOf('?');
+                path = question < 0 ? target : target.substring(0, question);
+                if (question >= 0) query = target.substring(question + 1);
+            } else {
+                continue;
+            }
+            if (query != null && query.isEmpty()) query = null;
+            if (entryHost == null || entryHost.isEmpty() || !seen.add(entryHost + path + (query == null ? "" : "?" + query))) continue;
+            Map<String, String> headers = new HashMap<>();
+            headers.put("host", entryHost);
+            Request request = new Request(HTTP_VERSION, GET, path, headers, null);
+            request.setQuery(query);
+            ret.add(request);
+        }
+        return ret;
+    }
+
+    /**
+     * Executes all warm-up requests with bounded parallelism, then marks the warm-up as finished.
+     */
+    private void warmUp() {
+        int threads = Math.max(1, env.getProperty(THREADS_PROPERTY, Integer.class, DEFAULT_THREADS));
+        logger.info("+++++Warming up cache with {} entries on {} threads+++++", requests.size(), threads);
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "cache-warmer-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (Request request : requests) {
+            pool.execute(() -> warm(request));
+        }
+        pool.shutdown();
+        try {
+            if (!pool.awaitTermination(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+                pool.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        finished = true;
+        logger.info("+++++Cache warm-up finished: {} warmed, {} failed, {}/{} processed+++++",
+                warmed.get(), failed.get(), processed.get(), requests.size());
+    }
+
+    /**
+     * Warms up a single entry, waiting for its slot of the rate limit first.
+     *
+     * @param request Request to be warmed up
+     */
+    private void warm(Request request) {
+        try {
+            awaitEndpoints(proxy.discoverService(request));
+            long wait = reserveSlot();
+            if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+            if (cache.getCached(request) == null) {
+                Response response = proxy.processRequest(request);
+                //Only responses actually cached count: errors, no-store and oversized bodies are not warmed
+                if (cache.store(request, response)) {
+                    warmed.incrementAndGet();
+                } else if (CacheManager.isServerError(response)) {
+                    failed.incrementAndGet();
+                    logger.info("+++++Could not warm up {}: the origin answered {}+++++", request.getUrl(), response.getStatus());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (CacheNotAvailableException | ServiceHostNotFoundException | NoAvailableEndpointsException e) {
+            failed.incrementAndGet();
+            logger.info("+++++Could not warm up {}: {}+++++", request.getUrl(), e.getMessage());
+        } finally {
+            processed.incrementAndGet();
+        }
+    }
+
+    /**
+     * Waits until a Service has an Endpoint able to execute requests, e.g. while its Endpoints are suspended
+     * right after startup, so the entries are not failed before the polling reactivates them.
+     *
+     * @param service Service targeted by a warm-up request
+     * @throws InterruptedException Thrown in case the warm-up is stopped
+     */
+    private void awaitEndpoints(Service service) throws InterruptedException {
+        while (!service.getBaseLoadBalancer().hasEndpointCandidate() && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(ENDPOINT_WAIT_MILIS);
+        }
+    }
+
+    /**
+     * Reserves the next slot of the rate limit.
+     *
+     * @return long Nanoseconds to wait until the reserved slot
+     */
+    private synchronized long reserveSlot() {
+        long now = System.nanoTime();
+        long slot = Math.max(now, nextSlot);
+        nextSlot = slot + intervalNanos;
+        return slot - now;
+    }
+
+    /**
+     * Reports the warm-up progress, OUT_OF_SERVICE while it has not reached the ready percentage.
+     *
+     * @return Health Warm-up status and progress
+     */
+    @Override
+    public Health health() {
+        int total = requests.size();
+        int percent = total == 0 ? 100 : (int) (processed.get() * 100L / total);
+        boolean ready = finished || percent >= readyPercent || System.currentTimeMillis() > deadline;
+        return (ready ? Health.up() : Health.outOfService())
+                .withDetail("entries", total)
+                .withDetail("processed", processed.get())
+                .withDetail("warmed", warmed.get())
+                .withDetail("failed", failed.get())
+                .withDetail("percent", percent)
+                .build();
+    }
+}
@@ -0,0 +1,200 @@
+package mvcp.adobe.components;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import mvcp.adobe.abstractions.ICache;
+import mvcp.adobe.abstractions.ICacheInvalidationListener;
+import mvcp.adobe.abstractions.ISerializer;
+import mvcp.adobe.entities.CacheItem;
+import mvcp.adobe.exceptions.CacheNotAvailableException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind queue for storing items in the Cache without blocking the caller.
+ * <p>
+ * Items are kept in a bounded queue that a background worker drains in batches:
+ * <ol>
+ * <li>An item is enqueued under its cache key</li>
+ * <li>If the key is already waiting, only its item is replaced (writes to the same key are coalesced)</li>
+ * <li>If the queue is full, the write is dropped and counted</li>
+ * <li>The worker takes up to a batch of keys, serializes their items and stores them in a single pipelined call</li>
+ * <li>The stored keys are added to the KeyFilter, and the items are indexed by URL and surrogate keys, for purging</li>
+ * </ol>
+ * Purged keys that are still waiting in the queue are discarded, so a purge is not undone by a late write.
+ *
+ * @author      Marcelo Pereira
+ * @version     1.0.0
+ * @since       2019-06-12
+ */
+@Component
+public class CacheWriter implements ICacheInvalidationListener {
+    public static final Logger logger = (Logger) LoggerFactory.getLogger(CacheWriter.class);
+    private static final String QUEUE_PROPERTY = "mvcp.adobe.cache.write.queue";
+    private static final String BATCH_PROPERTY = "mvcp.adobe.cache.write.batch";
+    private static final int DEFAULT_QUEUE = 1000;
+    private static final int DEFAULT_BATCH = 100;
+    //Timeout for waiting new writes, so the worker can notice it was stopped
+    private static final long POLL_TIMEOUT_MILIS = 500;
+
+    @Autowired
+    @Qualifier("cache")
+    private ICache redisCache;
+
+    @Autowired
+    private ISerializer serializer;
+
+    @Autowired
+    private Environment env;
+
+    @Autowired
+    private CacheIndex index;
+
+    @Autowired
+    private KeyFilter keyFilter;
+
+    private final Map<String, CacheItem> pending = new ConcurrentHashMap<>();
+    private final Counter dropped = Metrics.counter("proxy.cache.writes.dropped");
+    private final Counter coalesced = Metrics.counter("proxy.cache.writes.coalesced");
+    private final Counter failed = Metrics.counter("proxy.cache.writes.failed");
+    private BlockingQueue<String> keys;
+    private int batchSize;
+    private volatile boolean running;
+    private Thread worker;
+
+    /**
+     * Creates the queue and starts the background worker.
+     */
+    @PostConstruct
+    public void start() {
+        this.keys = new ArrayBlockingQueue<>(env.getProperty(QUEUE_PROPERTY, Integer.class, DEFAULT_QUEUE));
+        this.batchSize = env.getProperty(BATCH_PROPERTY, Integer.class, DEFAULT_BATCH);
+        this.running = true;
+        this.worker = new Thread(this::drain, "cache-writer");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Stops the background worker, flushing the writes that are still waiting.
+     */
+    @PreDestroy
+    public void stop() {
+        this.running = false;
+        this.worker.interrupt();
+        flush();
+    }
+
+    /**
+     * Enqueues an item to be stored in the Cache. Never blocks.
+     *
+     * @param key Cache key of the item
+     * @param item Item to be stored
+     * @return boolean True in case the write was accepted, false in case it was dropped
+     */
+    public boolean enqueue(String key, CacheItem item) {
+        boolean[] accepted = {true};
+        //Atomic per key, so a key is pending only while it is queued and no concurrent write is lost or left behind
+        pending.compute(key, (k, waiting) -> {
+            if (waiting != null) {
+                coalesced.increment();
+                return item;
+            }
+            if (keys.offer(k)) return item;
+            accepted[0] = false;
+            return null;
+        });
+        if (!accepted[0]) {
+            dropped.increment();
+            logger.info("+++++Cache write queue is full, dropping write: {}+++++", key);
+        }
+        return accepted[0];
+    }
+
+    /**
+     * Discards the waiting writes of purged keys.
+     *
+     * @param keys Purged cache keys
+     */
+    @Override
+    public void invalidate(Collection<String> keys) {
+        pending.keySet().removeAll(keys);
+    }
+
+    /**
+     * Worker loop: waits for writes and flushes them in batches until stopped.
+     */
+    private void drain() {
+        while (running) {
+            try {
+                String key = keys.poll(POLL_TIMEOUT_MILIS, TimeUnit.MILLISECONDS);
+                if (key == null) continue;
+                List<String> batch = new ArrayList<>(batchSize);
+                batch.add(key);
+                keys.drainTo(batch, batchSize - 1);
+                write(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Writes all items that are still waiting in the queue.
+     */
+    public void flush() {
+        List<String> batch = new ArrayList<>(batchSize);
+        while (keys.drainTo(batch, batchSize) > 0) {
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Serializes and stores a batch of waiting items in a single call to the Cache.
+     *
+     * @param batch Cache keys of the items to be stored
+     */
+    private void write(List<String> batch) {
+        Map<String, CacheItem> items = new LinkedHashMap<>();
+        Map<String, String> values = new LinkedHashMap<>();
+        for (String key : batch) {
+            CacheItem item = pending.remove(key);
+            if (item == null) continue;
+            items.put(key, item);
+            values.put(key, serializer.serializeCacheItem(item));
+        }
+        if (values.isEmpty()) return;
+        try {
+            redisCache.putAll(values);
+        } catch (CacheNotAvailableException e) {
+            failed.increment(values.size());
+            logger.info("+++++Cache server not available, dropping {} writes+++++", values.size());
+            return;
+        }
+        try {
+            index.addAll(items);
+        } catch (CacheNotAvailableException e) {
+            logger.info("+++++Could not index {} cache items: {}+++++", items.size(), e.getMessage());
+        }
+        //Published last, as in CacheManager.store: once the filter lets lookups through, the items are indexed too
+        keyFilter.stored(values.keySet());
+    }
+}
@@ -0,0 +1,220 @@
+package mvcp.adobe.components;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import mvcp.adobe.abstractions.ICache;
+import mvcp.adobe.enums.CircuitState;
+import mvcp.adobe.exceptions.CacheNotAvailableException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Circuit breaker wrapping a Cache storage, so a Cache outage adds no latency to requests.
+ * <p>
+ * Circuit breaker flow:
+ * <ol>
+ * <li>While CLOSED, calls go through to the wrapped Cache and consecutive failures are counted</li>
+ * <li>After the configured number of consecutive failures, the circuit OPENS</li>
+ * <li>While OPEN, calls fail immediately with CacheNotAvailableException, without touching the Cache server</li>
+ * <li>A background task probes the Cache server at a fixed interval</li>
+ * <li>On the first successful probe, the circuit CLOSES again</li>
+ * </ol>
+ * The state is exported as the gauge 'proxy.cache.circuit.open' (1 when open) and short-circuited calls
+ * are counted in 'proxy.cache.circuit.rejected'.
+ *
+ * @author      Marcelo Pereira
+ * @version     1.0.0
+ * @since       2019-06-13
+ */
+public class CircuitBreakerCache implements ICache {
+    public static final Logger logger = (Logger) LoggerFactory.getLogger(CircuitBreakerCache.class);
+    //Key read by the probes. Its value does not matter, only that the Cache server answers.
+    private static final String PROBE_KEY = "mvcp:circuit:probe";
+
+    private final ICache cache;
+    private final int failureThreshold;
+    private final long probeMilis;
+    private final AtomicInteger failures = new AtomicInteger();
+    private final Counter rejected = Metrics.counter("proxy.cache.circuit.rejected");
+    private final ScheduledExecutorService prober = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "cache-circuit-prober");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile CircuitState state = CircuitState.CLOSED;
+    private ScheduledFuture<?> probe;
+
+    /**
+     * @param cache Cache storage to be protected
+     * @param failureThreshold Consecutive failures that open the circuit
+     * @param probeMilis Interval between probes while the circuit is open
+     */
+    public CircuitBreakerCache(ICache cache, int failureThreshold, long probeMilis) {
+        this.cache = cache;
+        this.failureThreshold = failureThreshold;
+        this.probeMilis = probeMilis;
+        Metrics.gauge("proxy.cache.circuit.open", this, breaker -> breaker.getState() == CircuitState.OPEN ? 1 : 0);
+    }
+
+    @Override
+    public void put(String key, String value) throws CacheNotAvailableException {
+        checkClosed();
+        try {
+            cache.put(key, value);
+            onSuccess();
+        } catch (CacheNotAvailableException e) {
+            onFailure(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public String get(String key) throws CacheNotAvailableException {
+        checkClosed();
+        try {
+            String value = cache.get(key);
+            onSuccess();
+            return value;
+        } catch (CacheNotAvailableException e) {
+            onFailure(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public void putAll(Map<String, String> values) throws CacheNotAvailableException {
+        checkClosed();
+        try {
+            cache.putAll(values);
+            onSuccess();
+        } catch (CacheNotAvailableException e) {
+            onFailure(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public Map<String, String> getAll(Collection<String> keys) throws CacheNotAvailableException {
+        checkClosed();
+        try {
+            Map<String, String> values = cache.getAll(keys);
+            onSuccess();
+            return values;
+        } catch (CacheNotAvailableException e) {
+            onFailure(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public void delete(Collection<String> keys) throws CacheNotAvailableException {
+        checkClosed();
+        try {
+            cache.delete(keys);
+            onSuccess();
+        } catch (CacheNotAvailableException e) {
+            onFailure(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public Set<String> missing(Collection<String> keys) throws CacheNotAvailableException {
+        checkClosed();
+        try {
+            Set<String> missing = cache.missing(keys);
+            onSuccess();
+            return missing;
+        } catch (CacheNotAvailableException e) {
+            onFailure(e);
+            throw e;
+        }
+    }
+
+    public CircuitState getState() {
+        return state;
+    }
+
+    /**
+     * Stops the background probes and closes the wrapped Cache when it holds connections.
+     */
+    public void close() {
+        prober.shutdownNow();
+        if (cache instanceof LettuceCache) ((LettuceCache) cache).close();
+        if (cache instanceof ShardedCache) ((ShardedCache) cache).close();
+    }
+
+    /**
+     * Fails fast in case the circuit is open.
+     *
+     * @throws CacheNotAvailableException Thrown when the circuit is open
+     */
+    private void checkClosed() throws CacheNotAvailableException {
+        if (state == CircuitState.OPEN) {
+            rejected.increment();
+            throw new CacheNotAvailableException("The cache circuit is open");
+        }
+    }
+
+    private void onSuccess() {
+        failures.set(0);
+    }
+
+    /**
+     * Counts a failure and opens the circuit when the threshold is reached.
+     *
+     * @param e Failure raised by the wrapped Cache
+     */
+    private void onFailure(CacheNotAvailableException e) {
+        if (failures.incrementAndGet() >= failureThreshold) {
+            open(e);
+        }
+    }
+
+    /**
+     * Opens the circuit and starts probing the Cache server in background.
+     *
+     * @param e Last failure raised by the wrapped Cache
+     */
+    private synchronized void open(CacheNotAvailableException e) {
+        if (state == CircuitState.OPEN) return;
+        logger.info("+++++Opening cache circuit after " + failures.get() + " failures: " + e.getMessage() + "+++++");
+        state = CircuitState.OPEN;
+        probe = prober.scheduleWithFixedDelay(this::probe, probeMilis, probeMilis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Tries the Cache server once, closing the circuit in case it answers.
+     */
+    private void probe() {
+        try {
+            cache.get(PROBE_KEY);
+            closeCircuit();
+        } catch (CacheNotAvailableException e) {
+            logger.info("+++++Cache circuit still open: " + e.getMessage() + "+++++");
+        } catch (RuntimeException e) {
+            logger.info("+++++Cache circuit probe failed: " + e.getMessage() + "+++++");
+        }
+    }
+
+    /**
+     * Closes the circuit and stops probing.
+     */
+    private synchronized void closeCircuit() {
+        if (state == CircuitState.CLOSED) return;
+        logger.info("+++++Closing cache circuit+++++");
+        failures.set(0);
+        state = CircuitState.CLOSED;
+        if (probe != null) probe.cancel(false);
+        probe = null;
+    }
+}
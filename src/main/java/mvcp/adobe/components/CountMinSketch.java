@@ -0,0 +1,166 @@
+package mvcp.adobe.components;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Count-Min Sketch estimating how often each cache key was requested, in a fixed amount of memory.
+ * <p>
+ * Each key increments one counter in each of the rows, chosen by a different hash per row, and its frequency
+ * is estimated as the smallest of its counters. Estimates may be too high (collisions), never too low.
+ * Only the smallest counters of a key are incremented (conservative update), which reduces the overestimation.
+ * <p>
+ * After a number of increments proportional to the width, all counters are halved, so old popularity fades
+ * and keys that were hot a long time ago do not keep their advantage forever.
+ * <p>
+ * The sketch is synchronized. Counting over fixed windows from many threads uses the lock-free variant, Concurrent.
+ *
+ * @author      Marcelo Pereira
+ * @version     1.0.0
+ * @since       2019-06-14
+ */
+public final class CountMinSketch {
+    private static final int DEPTH = 4;
+    private static final int[] SEEDS = {0x9e3779b9, 0x85ebca6b, 0xc2b2ae35, 0x27d4eb2f};
+    //Increments between two halvings, per counter of a row
+    private static final int SAMPLE_FACTOR = 10;
+
+    private final int[][] counters;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    /**
+     * @param width Counters per row, rounded up to a power of two
+     */
+    public CountMinSketch(int width) {
+        int size = size(width);
+        this.counters = new int[DEPTH][size];
+        this.mask = size - 1;
+        this.sampleSize = size * SAMPLE_FACTOR;
+    }
+
+    /**
+     * Counts one more occurrence of a key.
+     *
+     * @param key Cache key
+     * @return int Estimated frequency of the key, including this occurrence
+     */
+    public synchronized int increment(String key) {
+        int[] slots = slots(key);
+        int min = estimate(slots);
+        for (int row = 0; row < DEPTH; row++) {
+            if (counters[row][slots[row]] == min) counters[row][slots[row]]++;
+        }
+        if (++additions >= sampleSize) reset();
+        return min + 1;
+    }
+
+    /**
+     * Estimates the frequency of a key.
+     *
+     * @param key Cache key
+     * @return int Estimated frequency of the key
+     */
+    public synchronized int estimate(String key) {
+        return estimate(slots(key));
+    }
+
+    private int estimate(int[] slots) {
+        int min = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            min = Math.min(min, counters[row][slots[row]]);
+        }
+        return min;
+    }
+
+    /**
+     * Halves all counters.
+     */
+    private void reset() {
+        for (int[] row : counters) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] >>>= 1;
+            }
+        }
+        additions /= 2;
+    }
+
+    /**
+     * Chooses the counter of a key in each row.
+     */
+    private int[] slots(String key) {
+        int hash = key.hashCode();
+        int[] slots = new int[DEPTH];
+        for (int row = 0; row < DEPTH; row++) {
+            slots[row] = slot(hash, row, mask);
+        }
+        return slots;
+    }
+
+    /**
+     * Rounds a number of counters per row up to a power of two, so a slot is chosen with a mask.
+     */
+    private static int size(int width) {
+        return Integer.highestOneBit(Math.max(16, width) - 1) << 1;
+    }
+
+    /**
+     * Chooses the counter of a key hash in a row, with a different hash per row.
+     */
+    private static int slot(int hash, int row, int mask) {
+        int h = (hash ^ SEEDS[row]) * 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h & mask;
+    }
+
+    /**
+     * Lock-free variant of the sketch, made of atomic counters, for keys counted by many threads at once.
+     * Conservative update needs the counters of all rows at once, so every counter of a key is incremented,
+     * and counters are never halved: it counts over a fixed window, after which it is replaced by a new sketch.
+     */
+    public static final class Concurrent {
+        private final AtomicIntegerArray counters;
+        private final int mask;
+
+        /**
+         * @param width Counters per row, rounded up to a power of two
+         */
+        public Concurrent(int width) {
+            int size = size(width);
+            this.counters = new AtomicIntegerArray(DEPTH * size);
+            this.mask = size - 1;
+        }
+
+        /**
+         * Counts one more occurrence of a key.
+         *
+         * @param key Cache key
+         * @return int Estimated frequency of the key, including this occurrence
+         */
+        public int increment(String key) {
+            int hash = key.hashCode();
+            int min = Integer.MAX_VALUE;
+            for (int row = 0; row < DEPTH; row++) {
+                min = Math.min(min, counters.incrementAndGet(row * (mask + 1) + slot(hash, row, mask)));
+            }
+            return min;
+        }
+
+        /**
+         * Estimates the frequency of a key.
+         *
+         * @param key Cache key
+         * @return int Estimated frequency of the key
+         */
+        public int estimate(String key) {
+            int hash = key.hashCode();
+            int min = Integer.MAX_VALUE;
+            for (int row = 0; row < DEPTH; row++) {
+                min = Math.min(min, counters.get(row * (mask + 1) + slot(hash, row, mask)));
+            }
+            return min;
+        }
+    }
+}
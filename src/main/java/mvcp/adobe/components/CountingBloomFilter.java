@@ -0,0 +1,128 @@
+package mvcp.adobe.components;
+
+/**
+ * Counting Bloom filter of cache keys: tells whether a key may be stored, or is certainly not stored.
+ * <p>
+ * Each key increments one counter per hash function, chosen by double hashing, and a key may be stored only
+ * while all its counters are above zero. Unlike a plain Bloom filter, keys can be removed by decrementing
+ * their counters. Counters saturate at 255 and are never decremented afterwards, so a removal can never
+ * make another key look absent.
+ * <p>
+ * The number of counters and of hash functions are chosen from the expected number of keys and the target
+ * false positive probability. Lookups are not synchronized: a reader racing a writer may see a slightly
+ * outdated counter, which only matters for the key being written at that very moment.
+ *
+ * @author      Marcelo Pereira
+ * @version     1.0.0
+ * @since       2019-06-14
+ */
+public final class CountingBloomFilter {
+    private static final int SATURATED = 0xff;
+
+    private final byte[] counters;
+    private final int hashes;
+    private int size;
+
+    /**
+     * @param expectedKeys Expected number of keys
+     * @param fpp Target false positive probability, e.g. 0.01
+     */
+    public CountingBloomFilter(int expectedKeys, double fpp) {
+        long n = Math.max(1, expectedKeys);
+        double p = Math.min(0.5, Math.max(1e-9, fpp));
+        long m = (long) Math.ceil(-n * Math.log(p) / (Math.log(2) * Math.log(2)));
+        this.counters = new byte[(int) Math.min(Integer.MAX_VALUE - 8, Math.max(64, m))];
+        this.hashes = Math.max(1, (int) Math.round((double) counters.length / n * Math.log(2)));
+    }
+
+    /**
+     * Adds a key.
+     *
+     * @param key Cache key
+     */
+    public synchronized void add(String key) {
+        long h1 = hash(key);
+        long h2 = mix(h1 ^ 0x9e3779b97f4a7c15L) | 1;
+        for (int i = 0; i < hashes; i++) {
+            int slot = slot(h1, h2, i);
+            int count = counters[slot] & 0xff;
+            if (count < SATURATED) counters[slot] = (byte) (count + 1);
+        }
+        size++;
+    }
+
+    /**
+     * Removes a key, which must have been added before.
+     *
+     * @param key Cache key
+     * @return boolean True in case the key may have been present
+     */
+    public synchronized boolean remove(String key) {
+        if (!mightContain(key)) return false;
+        long h1 = hash(key);
+        long h2 = mix(h1 ^ 0x9e3779b97f4a7c15L) | 1;
+        for (int i = 0; i < hashes; i++) {
+            int slot = slot(h1, h2, i);
+            int count = counters[slot] & 0xff;
+            if (count < SATURATED) counters[slot] = (byte) (count - 1);
+        }
+        size = Math.max(0, size - 1);
+        return true;
+    }
+
+    /**
+     * Verifies if a key may be present.
+     *
+     * @param key Cache key
+     * @return boolean False in case the key was certainly not added, true in case it may have been
+     */
+    public boolean mightContain(String key) {
+        long h1 = hash(key);
+        long h2 = mix(h1 ^ 0x9e3779b97f4a7c15L) | 1;
+        for (int i = 0; i < hashes; i++) {
+            if (counters[slot(h1, h2, i)] == 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return int Number of keys added and not removed
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Estimates the false positive probability for the current number of keys.
+     *
+     * @return double Probability of a lookup of an absent key returning true
+     */
+    public double expectedFpp() {
+        return Math.pow(1 - Math.exp(-(double) hashes * size() / counters.length), hashes);
+    }
+
+    private int slot(long h1, long h2, int i) {
+        return (int) Math.floorMod(h1 + i * h2, (long) counters.length);
+    }
+
+    /**
+     * Hashes a key into 64 bits (FNV-1a followed by a final mix).
+     */
+    private static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,443 @@
+package mvcp.adobe.components;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import mvcp.adobe.abstractions.ICache;
+import mvcp.adobe.abstractions.ICacheInvalidationListener;
+import mvcp.adobe.exceptions.CacheNotAvailableException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Local disk tier in front of a Cache storage, for large items that are too expensive to hold in heap
+ * and too slow to pull from Redis on every hit.
+ * <p>
+ * Items whose serialized form has at least the configured size are written to an append-only store on local disk:
+ * <ul>
+ *     <li>The store is a sequence of fixed size segment files, memory-mapped, so reads come from the page cache</li>
+ *     <li>Each record has a header (key length, value length, CRC32) followed by the key and the value.
+ *     Deletes append a tombstone record (value length -1)</li>
+ *     <li>The location of the latest record of each key is kept in an off-heap DiskIndex</li>
+ *     <li>When the active segment is full, a new one is started. Beyond the maximum number of segments,
+ *     the oldest segment is evicted as a whole: its entries leave the index and its file is deleted</li>
+ *     <li>After a restart the index is rebuilt by scanning the segments: sealed segments only by record headers and keys,
+ *     the last one also verifying the checksums, since it may end in a torn write</li>
+ * </ul>
+ * Reads look up the disk first, then the wrapped Cache, copying large items found there to the disk.
+ * Writes go to the disk and to the wrapped Cache. Purges of any replica remove the keys from the disk.
+ *
+ * @author      Marcelo Pereira
+ * @version     1.0.0
+ * @since       2019-06-14
+ */
+public class DiskCache implements ICache, ICacheInvalidationListener {
+    public static final Logger logger = (Logger) LoggerFactory.getLogger(DiskCache.class);
+    private static final Pattern SEGMENT_FILE = Pattern.compile("segment-(\\d+)\\.dat");
+    //Key length, value length and CRC32 of a record
+    private static final int HEADER_BYTES = 12;
+    private static final int TOMBSTONE = -1;
+
+    private final ICache cache;
+    private final Path directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final int minBytes;
+    private final DiskIndex index = new DiskIndex(1024);
+    private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+    private final Counter hits = Metrics.counter("proxy.cache.disk.hits");
+    private final Counter evictions = Metrics.counter("proxy.cache.disk.evictions");
+    private Segment active;
+
+    /**
+     * @param cache Cache storage behind the disk tier
+     * @param directory Directory of the segment files, created if needed
+     * @param segmentBytes Size of each segment file
+     * @param maxSegments Maximum number of segments kept on disk
+     * @param minBytes Minimum serialized size of the items stored on disk
+     * @throws IOException Thrown in case the directory or the segments cannot be opened
+     */
+    public DiskCache(ICache cache, Path directory, int segmentBytes, int maxSegments, int minBytes) throws IOException {
+        this.cache = cache;
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = Math.max(1, maxSegments);
+        this.minBytes = minBytes;
+        Files.createDirectories(directory);
+        recover();
+        Metrics.gauge("proxy.cache.disk.entries", index, DiskIndex::size);
+        Metrics.gauge("proxy.cache.disk.segments", segments, Map::size);
+    }
+
+    @Override
+    public void put(String key, String value) throws CacheNotAvailableException {
+        store(key, value);
+        cache.put(key, value);
+    }
+
+    @Override
+    public void putAll(Map<String, String> values) throws CacheNotAvailableException {
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            store(entry.getKey(), entry.getValue());
+        }
+        cache.putAll(values);
+    }
+
+    @Override
+    public String get(String key) throws CacheNotAvailableException {
+        String value = read(key);
+        if (value != null) {
+            hits.increment();
+            return value;
+        }
+        value = cache.get(key);
+        if (value != null && isLarge(value)) store(key, value);
+        return value;
+    }
+
+    @Override
+    public Map<String, String> getAll(Collection<String> keys) throws CacheNotAvailableException {
+        Map<String, String> values = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String key : keys) {
+            String value = read(key);
+            if (value != null) {
+                hits.increment();
+                values.put(key, value);
+            } else {
+                missing.add(key);
+            }
+        }
+        if (missing.isEmpty()) return values;
+        Map<String, String> remote = cache.getAll(missing);
+        for (Map.Entry<String, String> entry : remote.entrySet()) {
+            if (isLarge(entry.getValue())) store(entry.getKey(), entry.getValue());
+        }
+        values.putAll(remote);
+        return values;
+    }
+
+    @Override
+    public void delete(Collection<String> keys) throws CacheNotAvailableException {
+        invalidate(keys);
+        cache.delete(keys);
+    }
+
+    /**
+     * Verifies keys, the ones kept on disk being stored whatever the Cache behind says.
+     *
+     * @param keys Keys to be verified
+     * @return Set Keys stored neither on disk nor in the Cache behind
+     * @throws CacheNotAvailableException Thrown when the Cache behind is not accessible
+     */
+    @Override
+    public Set<String> missing(Collection<String> keys) throws CacheNotAvailableException {
+        List<String> remote = new ArrayList<>();
+        for (String key : keys) {
+            if (index.get(hash(key)) == DiskIndex.NOT_FOUND) remote.add(key);
+        }
+        return remote.isEmpty() ? new HashSet<>() : cache.missing(remote);
+    }
+
+    /**
+     * Removes purged keys from the disk.
+     *
+     * @param keys Purged cache keys
+     */
+    @Override
+    public void invalidate(Collection<String> keys) {
+        for (String key : keys) {
+            if (index.get(hash(key)) != DiskIndex.NOT_FOUND) append(key, null);
+        }
+    }
+
+    /**
+     * Stores an item on disk in case it is large; otherwise drops an older large version of it.
+     *
+     * @param key Cache key
+     * @param value Serialized item
+     */
+    private void store(String key, String value) {
+        if (isLarge(value)) {
+            append(key, value);
+        } else if (index.get(hash(key)) != DiskIndex.NOT_FOUND) {
+            append(key, null);
+        }
+    }
+
+    private boolean isLarge(String value) {
+        return value != null && value.length() >= minBytes;
+    }
+
+    /**
+     * Appends a record to the active segment and points the index to it.
+     *
+     * @param key Cache key
+     * @param value Serialized item or null for a tombstone
+     */
+    private synchronized void append(String key, String value) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] valueBytes = value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+        int length = HEADER_BYTES + keyBytes.length + (valueBytes == null ? 0 : valueBytes.length);
+        if (length > segmentBytes) return;
+        try {
+            if (active == null || active.position + length > segmentBytes) roll();
+        } catch (IOException e) {
+            logger.info("+++++Could not open a new disk cache segment: " + e.getMessage() + "+++++");
+            return;
+        }
+        int offset = active.position;
+        ByteBuffer buffer = active.buffer.duplicate();
+        buffer.position(offset + HEADER_BYTES);
+        buffer.put(keyBytes);
+        if (valueBytes != null) buffer.put(valueBytes);
+        buffer.putInt(offset, keyBytes.length);
+        buffer.putInt(offset + 4, valueBytes == null ? TOMBSTONE : valueBytes.length);
+        buffer.putInt(offset + 8, checksum(keyBytes, valueBytes));
+        active.position += length;
+        if (valueBytes == null) {
+            index.remove(hash(key));
+        } else {
+            index.put(hash(key), DiskIndex.location(active.id, offset));
+        }
+    }
+
+    /**
+     * Reads the latest record of a key through the memory mapping of its segment.
+     *
+     * @param key Cache key
+     * @return String Serialized item or null in case the key is not on disk
+     */
+    private String read(String key) {
+        long location = index.get(hash(key));
+        if (location == DiskIndex.NOT_FOUND) return null;
+        Segment segment = segments.get(DiskIndex.segmentOf(location));
+        if (segment == null) return null;
+        ByteBuffer buffer = segment.buffer.duplicate();
+        int offset = DiskIndex.offsetOf(location);
+        int keyLength = buffer.getInt(offset);
+        int valueLength = buffer.getInt(offset + 4);
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        if (keyLength != keyBytes.length || valueLength < 0) return null;
+        buffer.position(offset + HEADER_BYTES);
+        for (byte b : keyBytes) {
+            if (buffer.get() != b) return null;
+        }
+        byte[] valueBytes = new byte[valueLength];
+        buffer.get(valueBytes);
+        return new String(valueBytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Seals the active segment and starts a new one, evicting the oldest segments beyond the limit.
+     *
+     * @throws IOException Thrown in case the new segment file cannot be created
+     */
+    private void roll() throws IOException {
+        int id = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        active = open(id);
+        segments.put(id, active);
+        while (segments.size() > maxSegments) {
+            evict(segments.firstEntry().getValue());
+        }
+    }
+
+    /**
+     * Evicts a whole segment: its entries leave the index and its file is deleted.
+     * Readers still holding its mapping can finish their reads, the mapping outlives the file.
+     *
+     * @param segment Segment to be evicted
+     */
+    private void evict(Segment segment) {
+        int removed = index.removeSegment(segment.id);
+        segments.remove(segment.id);
+        evictions.increment();
+        try {
+            segment.channel.close();
+            Files.deleteIfExists(segment.file);
+        } catch (IOException e) {
+            logger.info("+++++Could not delete disk cache segment " + segment.file + ": " + e.getMessage() + "+++++");
+        }
+        logger.info("+++++Evicted disk cache segment " + segment.id + " with " + removed + " entries+++++");
+    }
+
+    /**
+     * Opens and maps a segment file, creating it in case it does not exist.
+     *
+     * @param id Segment id
+     * @return Segment Mapped segment
+     * @throws IOException Thrown in case the file cannot be opened
+     */
+    private Segment open(int id) throws IOException {
+        Path file = directory.resolve("segment-" + id + ".dat");
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = Math.max(channel.size(), segmentBytes);
+        return new Segment(id, file, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+    }
+
+    /**
+     * Rebuilds the index from the segment files left by a previous run.
+     *
+     * @throws IOException Thrown in case a segment cannot be opened
+     */
+    private void recover() throws IOException {
+        TreeMap<Integer, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                Matcher matcher = SEGMENT_FILE.matcher(file.getFileName().toString());
+                if (matcher.matches()) files.put(Integer.parseInt(matcher.group(1)), file);
+            }
+        }
+        long start = System.currentTimeMillis();
+        for (Integer id : files.keySet()) {
+            Segment segment = open(id);
+            segments.put(id, segment);
+            scan(segment, id.equals(files.lastKey()));
+            active = segment;
+        }
+        while (segments.size() > maxSegments) {
+            evict(segments.firstEntry().getValue());
+        }
+        if (!files.isEmpty()) {
+            logger.info("+++++Recovered " + index.size() + " disk cache entries from " + segments.size()
+                    + " segments in " + (System.currentTimeMillis() - start) + "ms+++++");
+        }
+    }
+
+    /**
+     * Indexes the records of a segment, in the order they were appended.
+     * The scan stops at the end marker (a zero key length) or at the first invalid record,
+     * whose bytes are cleared so later appends are not mixed with them.
+     *
+     * @param segment Segment to be scanned
+     * @param verify Whether the checksums must be verified
+     */
+    private void scan(Segment segment, boolean verify) {
+        ByteBuffer buffer = segment.buffer.duplicate();
+        int limit = buffer.capacity();
+        int offset = 0;
+        while (offset + HEADER_BYTES <= limit) {
+            int keyLength = buffer.getInt(offset);
+            int valueLength = buffer.getInt(offset + 4);
+            if (keyLength == 0) break;
+            int length = HEADER_BYTES + keyLength + Math.max(valueLength, 0);
+            if (keyLength < 0 || valueLength < TOMBSTONE || length < 0 || offset + length > limit) {
+                clear(buffer, offset);
+                break;
+            }
+            byte[] keyBytes = new byte[keyLength];
+            buffer.position(offset + HEADER_BYTES);
+            buffer.get(keyBytes);
+            if (verify) {
+                byte[] valueBytes = null;
+                if (valueLength >= 0) {
+                    valueBytes = new byte[valueLength];
+                    buffer.get(valueBytes);
+                }
+                if (buffer.getInt(offset + 8) != checksum(keyBytes, valueBytes)) {
+                    clear(buffer, offset);
+                    break;
+                }
+            }
+            long hash = hash(new String(keyBytes, StandardCharsets.UTF_8));
+            if (valueLength == TOMBSTONE) {
+                index.remove(hash);
+            } else {
+                index.put(hash, DiskIndex.location(segment.id, offset));
+            }
+            offset += length;
+        }
+        segment.position = offset;
+    }
+
+    /**
+     * Zeroes a segment from an offset to its end.
+     */
+    private static void clear(ByteBuffer buffer, int offset) {
+        for (int i = offset; i < buffer.capacity(); i++) {
+            buffer.put(i, (byte) 0);
+        }
+    }
+
+    private static int checksum(byte[] key, byte[] value) {
+        CRC32 crc = new CRC32();
+        crc.update(key);
+        if (value != null) crc.update(value);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * 64 bit FNV-1a hash of a cache key.
+     */
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Flushes the segments to disk and closes them, as well as the wrapped Cache.
+     */
+    public synchronized void close() {
+        for (Segment segment : segments.values()) {
+            try {
+                segment.buffer.force();
+                segment.channel.close();
+            } catch (IOException e) {
+                logger.info("+++++Could not close disk cache segment " + segment.file + ": " + e.getMessage() + "+++++");
+            }
+        }
+        if (cache instanceof CircuitBreakerCache) ((CircuitBreakerCache) cache).close();
+    }
+
+    /**
+     * Segment file and its memory mapping.
+     */
+    private static final class Segment {
+        private final int id;
+        private final Path file;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        //Offset of the next record, only changed while holding the DiskCache lock
+        private int position;
+
+        private Segment(int id, Path file, FileChannel channel, MappedByteBuffer buffer) {
+            this.id = id;
+            this.file = file;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package mvcp.adobe.components;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Off-heap index of the DiskCache: maps the 64 bit hash of a cache key to the location of its latest record.
+ * <p>
+ * The index is an open addressing hash table with linear probing, stored in a direct ByteBuffer,
+ * so millions of entries add nothing to the heap nor to the garbage collection work.
+ * Each slot has 16 bytes: the key hash and the record location. A location packs the segment id
+ * (high 24 bits) and the offset of the record in the segment (low 40 bits).
+ * <p>
+ * Keys themselves are not kept: a lookup may return the location of another key with the same hash,
+ * so readers must compare the key stored in the record.
+ *
+ * @author      Marcelo Pereira
+ * @version     1.0.0
+ * @since       2019-06-14
+ */
+public final class DiskIndex {
+    public static final long NOT_FOUND = -1;
+    private static final int SLOT_BYTES = 16;
+    private static final int OFFSET_BITS = 40;
+    private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+    //Location of a free slot. Segment ids start at 1, so no record is ever located at 0.
+    private static final long FREE = 0;
+    //Location of a removed slot, which keeps probing sequences unbroken until the next resize
+    private static final long REMOVED = -1;
+    private static final double MAX_LOAD = 0.75;
+
+    private ByteBuffer table;
+    private int capacity;
+    private int size;
+    private int used;
+
+    /**
+     * @param initialCapacity Expected number of entries
+     */
+    public DiskIndex(int initialCapacity) {
+        allocate(Integer.highestOneBit(Math.max(16, (int) (initialCapacity / MAX_LOAD)) - 1) << 1);
+    }
+
+    /**
+     * Packs a segment id and an offset into a location.
+     *
+     * @param segment Segment id, from 1
+     * @param offset Offset of the record in the segment
+     * @return long Location of the record
+     */
+    public static long location(int segment, long offset) {
+        return ((long) segment << OFFSET_BITS) | offset;
+    }
+
+    public static int segmentOf(long location) {
+        return (int) (location >>> OFFSET_BITS);
+    }
+
+    public static int offsetOf(long location) {
+        return (int) (location & OFFSET_MASK);
+    }
+
+    /**
+     * Returns the location of the record of a key hash.
+     *
+     * @param hash Hash of the cache key
+     * @return long Location or NOT_FOUND
+     */
+    public synchronized long get(long hash) {
+        int slot = find(hash);
+        return slot < 0 ? NOT_FOUND : table.getLong(slot * SLOT_BYTES + 8);
+    }
+
+    /**
+     * Points a key hash to a new record.
+     *
+     * @param hash Hash of the cache key
+     * @param location Location of the record
+     */
+    public synchronized void put(long hash, long location) {
+        int slot = find(hash);
+        if (slot >= 0) {
+            table.putLong(slot * SLOT_BYTES + 8, location);
+            return;
+        }
+        if (used + 1 > capacity * MAX_LOAD) {
+            resize(size + 1 > capacity * MAX_LOAD / 2 ? capacity * 2 : capacity);
+        }
+        int mask = capacity - 1;
+        for (int i = mix(hash) & mask; ; i = (i + 1) & mask) {
+            long current = table.getLong(i * SLOT_BYTES + 8);
+            if (current == FREE || current == REMOVED) {
+                if (current == FREE) used++;
+                size++;
+                table.putLong(i * SLOT_BYTES, hash);
+                table.putLong(i * SLOT_BYTES + 8, location);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes a key hash.
+     *
+     * @param hash Hash of the cache key
+     * @return boolean True in case the hash was indexed
+     */
+    public synchronized boolean remove(long hash) {
+        int slot = find(hash);
+        if (slot < 0) return false;
+        table.putLong(slot * SLOT_BYTES + 8, REMOVED);
+        size--;
+        return true;
+    }
+
+    /**
+     * Removes all entries located in a segment, e.g. when the segment is evicted.
+     *
+     * @param segment Segment id
+     * @return int Number of removed entries
+     */
+    public synchronized int removeSegment(int segment) {
+        int removed = 0;
+        for (int i = 0; i < capacity; i++) {
+            long location = table.getLong(i * SLOT_BYTES + 8);
+            if (location != FREE && location != REMOVED && segmentOf(location) == segment) {
+                table.putLong(i * SLOT_BYTES + 8, REMOVED);
+                removed++;
+            }
+        }
+        size -= removed;
+        return removed;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Finds the slot of a key hash.
+     *
+     * @param hash Hash of the cache key
+     * @return int Slot or -1 in case the hash is not indexed
+     */
+    private int find(long hash) {
+        int mask = capacity - 1;
+        for (int i = mix(hash) & mask; ; i = (i + 1) & mask) {
+            long location = table.getLong(i * SLOT_BYTES + 8);
+            if (location == FREE) return -1;
+            if (location != REMOVED && table.getLong(i * SLOT_BYTES) == hash) return i;
+        }
+    }
+
+    /**
+     * Rebuilds the table with a new capacity, dropping the removed slots.
+     *
+     * @param newCapacity Number of slots, a power of two
+     */
+    private void resize(int newCapacity) {
+        ByteBuffer old = this.table;
+        int oldCapacity = this.capacity;
+        allocate(newCapacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < oldCapacity; i++) {
+            long location = old.getLong(i * SLOT_BYTES + 8);
+            if (location == FREE || location == REMOVED) continue;
+            long hash = old.getLong(i * SLOT_BYTES);
+            int slot = mix(hash) & mask;
+            while (table.getLong(slot * SLOT_BYTES + 8) != FREE) slot = (slot + 1) & mask;
+            table.putLong(slot * SLOT_BYTES, hash);
+            table.putLong(slot * SLOT_BYTES + 8, location);
+            size++;
+            used++;
+        }
+    }
+
+    private void allocate(int slots) {
+        this.capacity = slots;
+        this.table = ByteBuffer.allocateDirect(slots * SLOT_BYTES);
+        this.size = 0;
+        this.used = 0;
+    }
+
+    /**
+     * Spreads the bits of a key hash over the slot range.
+     */
+    private static int mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return (int) hash;
+    }
+}
@@ -0,0 +1,149 @@
+package mvcp.adobe.components;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import mvcp.adobe.abstractions.ICacheInvalidationListener;
+import mvcp.adobe.entities.HotKey;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Local near-cache of the hottest cache keys, so a few viral URLs do not saturate the Redis key they map to.
+ * <p>
+ * Lookups are counted by a HotKeyDetector. Keys requested at least 'mvcp.adobe.cache.hot.min.rate' times per second
+ * are hot: their serialized items are pinned in this replica for 'mvcp.adobe.cache.hot.ttl.millis', and served
+ * from memory meanwhile. The short TTL bounds how long a replica may serve an item already replaced by another one;
+ * purges and writes made through this replica remove the pinned item at once.
+ * <p>
+ * The top keys of the last window and their rates are listed by the admin endpoint.
+ *
+ * @author      Marcelo Pereira
+ * @version     1.0.0
+ * @since       2019-06-14
+ */
+@Component
+public class HotKeyCache implements ICacheInvalidationListener {
+    private static final String ENABLED_PROPERTY = "mvcp.adobe.cache.hot.enabled";
+    private static final String MIN_RATE_PROPERTY = "mvcp.adobe.cache.hot.min.rate";
+    private static final String WINDOW_PROPERTY = "mvcp.adobe.cache.hot.window.seconds";
+    private static final String TOP_PROPERTY = "mvcp.adobe.cache.hot.top";
+    private static final String TTL_PROPERTY = "mvcp.adobe.cache.hot.ttl.millis";
+    private static final String WIDTH_PROPERTY = "mvcp.adobe.cache.hot.width";
+    private static final double DEFAULT_MIN_RATE = 100;
+    private static final int DEFAULT_WINDOW = 10;
+    private static final int DEFAULT_TOP = 20;
+    private static final int DEFAULT_TTL = 1000;
+    private static final int DEFAULT_WIDTH = 16384;
+
+    @Autowired
+    private Environment env;
+
+    private final Map<String, Entry> pinned = new ConcurrentHashMap<>();
+    private final Counter hits = Metrics.counter("proxy.cache.hot.hits");
+    private HotKeyDetector detector;
+    private long ttl = DEFAULT_TTL;
+
+    public HotKeyCache() {
+        Metrics.gauge("proxy.cache.hot.pinned", pinned, Map::size);
+    }
+
+    /**
+     * Reads the configuration and creates the detector.
+     */
+    @PostConstruct
+    public void init() {
+        if (!env.getProperty(ENABLED_PROPERTY, Boolean.class, true)) return;
+        this.ttl = env.getProperty(TTL_PROPERTY, Integer.class, DEFAULT_TTL);
+        this.detector = new HotKeyDetector(env.getProperty(WIDTH_PROPERTY, Integer.class, DEFAULT_WIDTH),
+                env.getProperty(TOP_PROPERTY, Integer.class, DEFAULT_TOP),
+                env.getProperty(WINDOW_PROPERTY, Integer.class, DEFAULT_WINDOW) * 1000L,
+                env.getProperty(MIN_RATE_PROPERTY, Double.class, DEFAULT_MIN_RATE));
+    }
+
+    /**
+     * Counts a lookup of a key.
+     *
+     * @param key Cache key
+     * @param url Supplies the URL of the key, for listing it among the top keys
+     * @return boolean True in case the key is hot, i.e. its item should be pinned
+     */
+    public boolean record(String key, Supplier<String> url) {
+        return detector != null && detector.record(key, url, System.currentTimeMillis());
+    }
+
+    /**
+     * Returns the pinned item of a hot key.
+     *
+     * @param key Cache key
+     * @return String Serialized cached item or null in case it is not pinned or its TTL expired
+     */
+    public String get(String key) {
+        Entry entry = pinned.get(key);
+        if (entry == null) return null;
+        if (entry.expiresAt <= System.currentTimeMillis()) {
+            pinned.remove(key, entry);
+            return null;
+        }
+        hits.increment();
+        return entry.value;
+    }
+
+    /**
+     * Pins the item of a hot key for the TTL.
+     *
+     * @param key Cache key
+     * @param value Serialized cached item
+     */
+    public void put(String key, String value) {
+        if (ttl <= 0) return;
+        long now = System.currentTimeMillis();
+        //Keys stop being hot over time, so expired entries are dropped whenever a new one is pinned
+        pinned.values().removeIf(entry -> entry.expiresAt <= now);
+        pinned.put(key, new Entry(value, now + ttl));
+    }
+
+    /**
+     * Removes the pinned item of a key, e.g. when it is written again.
+     *
+     * @param key Cache key
+     */
+    public void remove(String key) {
+        pinned.remove(key);
+    }
+
+    /**
+     * Removes the pinned items of purged keys.
+     *
+     * @param keys Purged cache keys
+     */
+    @Override
+    public void invalidate(Collection<String> keys) {
+        pinned.keySet().removeAll(keys);
+    }
+
+    /**
+     * @return List Top keys of the last window and their rates
+     */
+    public List<HotKey> getTop() {
+        return detector == null ? Collections.emptyList() : detector.getTop();
+    }
+
+    private static final class Entry {
+        private final String value;
+        private final long expiresAt;
+
+        private Entry(String value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
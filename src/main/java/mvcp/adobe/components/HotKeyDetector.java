@@ -0,0 +1,178 @@
+package mvcp.adobe.components;
+
+import mvcp.adobe.entities.HotKey;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.function.Supplier;
+
+/**
+ * Streaming heavy-hitter detector of cache keys, over fixed time windows.
+ * <p>
+ * Every lookup of a key increments its counters in the lock-free Count-Min Sketch of the current window
+ * (CountMinSketch.Concurrent), so lookups do not take any lock. Only keys whose estimated count reaches half the minimum rate are candidates
+ * for the top keys of the window: the few lookups admitting a new candidate synchronize, the others just update
+ * the count of their candidate. A key is hot once its count in the current window reaches the minimum rate,
+ * and it stays hot during the next window when it was hot in the previous one.
+ * When a window ends, the rates of its top keys are kept as the reported top list, and a new sketch is started.
+ *
+ * @author      Marcelo Pereira
+ * @version     1.0.0
+ * @since       2019-06-14
+ */
+public final class HotKeyDetector {
+    private static final Comparator<Candidate> BY_COUNT = Comparator.comparingInt(candidate -> candidate.count);
+
+    private final int width;
+    private final int topSize;
+    private final long windowMillis;
+    private final int hotCount;
+    //Estimated count from which a key is a candidate for the top keys
+    private final int trackCount;
+    private volatile Window window;
+    private volatile Set<String> previousHot = Collections.emptySet();
+    private volatile List<HotKey> top = Collections.emptyList();
+
+    /**
+     * @param width Counters per row of the sketch, rounded up to a power of two
+     * @param topSize Number of top keys tracked
+     * @param windowMillis Length of a window
+     * @param minRate Requests per second from which a key is hot
+     */
+    public HotKeyDetector(int width, int topSize, long windowMillis, double minRate) {
+        this.width = width;
+        this.topSize = Math.max(1, topSize);
+        this.windowMillis = Math.max(1, windowMillis);
+        this.hotCount = (int) Math.max(1, Math.ceil(minRate * this.windowMillis / 1000));
+        this.trackCount = Math.max(1, hotCount / 2);
+        this.window = new Window(this.width, 0);
+    }
+
+    /**
+     * Counts a lookup of a key.
+     *
+     * @param key Cache key
+     * @param url Supplies the URL of the key, only called when the key enters the top keys
+     * @param now Current time in milliseconds
+     * @return boolean True in case the key is hot
+     */
+    public boolean record(String key, Supplier<String> url, long now) {
+        Window current = window;
+        if (now >= current.end) current = roll(now);
+        int count = current.sketch.increment(key);
+        if (count >= trackCount) current.track(key, url, count, topSize);
+        return count >= hotCount || previousHot.contains(key);
+    }
+
+    /**
+     * Returns the top keys of the last complete window, by descending rate.
+     *
+     * @return List Top keys and their rates
+     */
+    public List<HotKey> getTop() {
+        return top;
+    }
+
+    /**
+     * Ends the current window: keeps its top keys and rates, and starts counting from zero.
+     * Lookups still counting in the ended window are lost, which only lowers its rates slightly.
+     *
+     * @param now Current time in milliseconds
+     * @return Window The window including the current time
+     */
+    private synchronized Window roll(long now) {
+        Window ended = window;
+        if (now < ended.end) return ended;
+        //An idle period longer than a window leaves no rate to report
+        boolean consecutive = ended.end > 0 && now < ended.end + windowMillis;
+        List<Candidate> sorted = new ArrayList<>(ended.candidates.values());
+        sorted.sort(BY_COUNT.reversed());
+        List<HotKey> ret = new ArrayList<>(sorted.size());
+        Set<String> hot = new HashSet<>();
+        if (consecutive) {
+            for (Candidate candidate : sorted) {
+                boolean pinned = candidate.count >= hotCount;
+                if (pinned) hot.add(candidate.key);
+                ret.add(new HotKey(candidate.key, candidate.url, candidate.count * 1000.0 / windowMillis, pinned));
+            }
+        }
+        this.top = Collections.unmodifiableList(ret);
+        this.previousHot = hot;
+        this.window = new Window(width, now + windowMillis);
+        return window;
+    }
+
+    /**
+     * Counters and top keys of one window.
+     * The top keys are a map scanned for its smallest count on admission, rather than a heap: their counts
+     * rise without locks, and a heap would have to be locked and reordered on every update to stay ordered.
+     * Admissions are rare, as keys below the smallest count are turned away by the floor without locking.
+     */
+    private static final class Window {
+        private final CountMinSketch.Concurrent sketch;
+        private final long end;
+        private final Map<String, Candidate> candidates = new ConcurrentHashMap<>();
+        //Smallest count among the candidates once the top is full: lower counts cannot enter it
+        private volatile int floor;
+
+        private Window(int width, long end) {
+            this.sketch = new CountMinSketch.Concurrent(width);
+            this.end = end;
+        }
+
+        /**
+         * Updates the count of a candidate key, or admits it among the top keys when its count is above the smallest one.
+         */
+        private void track(String key, Supplier<String> url, int count, int topSize) {
+            if (update(candidates.get(key), count) || count <= floor) return;
+            synchronized (this) {
+                if (update(candidates.get(key), count)) return;
+                if (candidates.size() >= topSize) {
+                    Candidate smallest = Collections.min(candidates.values(), BY_COUNT);
+                    if (count <= smallest.count) {
+                        floor = smallest.count;
+                        return;
+                    }
+                    candidates.remove(smallest.key);
+                }
+                candidates.put(key, new Candidate(key, url.get(), count));
+                if (candidates.size() >= topSize) floor = Collections.min(candidates.values(), BY_COUNT).count;
+            }
+        }
+
+        /**
+         * Raises the count of a candidate, unless a racing lookup already stored a higher one.
+         *
+         * @return boolean True in case the key is a candidate
+         */
+        private static boolean update(Candidate candidate, int count) {
+            if (candidate == null) return false;
+            int previous;
+            while (count > (previous = candidate.count) && !Candidate.COUNT.compareAndSet(candidate, previous, count)) {
+                //Another lookup stored its count in between, compared again
+            }
+            return true;
+        }
+    }
+
+    private static final class Candidate {
+        private static final AtomicIntegerFieldUpdater<Candidate> COUNT = AtomicIntegerFieldUpdater.newUpdater(Candidate.class, "count");
+
+        private final String key;
+        private final String url;
+        private volatile int count;
+
+        private Candidate(String key, String url, int count) {
+            this.key = key;
+            this.url = url;
+            this.count = count;
+        }
+    }
+}
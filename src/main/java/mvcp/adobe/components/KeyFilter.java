@@ -0,0 +1,221 @@
+package mvcp.adobe.components;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import mvcp.adobe.abstractions.ICacheInvalidationListener;
+import mvcp.adobe.exceptions.CacheNotAvailableException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Local membership filter of the keys stored in the Cache, so lookups of keys that are certainly not stored
+ * skip the Redis round trip. Long-tail traffic is mostly made of such misses.
+ * <p>
+ * Keys are kept in a CountingBloomFilter, which answers "absent" only for keys that were not added
+ * (a purge of a key that was never stored may clear a few counters of others, until the next rebuild):
+ * <ul>
+ * <li>Stored keys are added, and published in a Redis pub/sub channel so the other replicas add them too</li>
+ * <li>Purged keys are removed, as notified by the CacheInvalidator</li>
+ * <li>Every 'mvcp.adobe.cache.filter.rebuild.seconds', the filter is rebuilt from the path index of CacheIndex,
+ * which recovers the keys whose publications were lost. The index only lists the keys still stored, as it checks
+ * them in batches while they are read and removes the evicted and expired ones, so the rebuild drops them too</li>
+ * </ul>
+ * Until the first rebuild succeeds, e.g. while Redis is not available at startup, every lookup goes to Redis.
+ * <p>
+ * Skipped lookups and false positives (lookups that went to Redis and missed) are exported as metrics,
+ * as well as the number of keys and the expected false positive probability.
+ *
+ * @author      Marcelo Pereira
+ * @version     1.0.0
+ * @since       2019-06-14
+ */
+@Component
+public class KeyFilter implements ICacheInvalidationListener, MessageListener {
+    public static final Logger logger = (Logger) LoggerFactory.getLogger(KeyFilter.class);
+    public static final String CHANNEL = "mvcp:stored";
+    private static final String ENABLED_PROPERTY = "mvcp.adobe.cache.filter.enabled";
+    private static final String CAPACITY_PROPERTY = "mvcp.adobe.cache.filter.capacity";
+    private static final String FPP_PROPERTY = "mvcp.adobe.cache.filter.fpp";
+    private static final String REBUILD_PROPERTY = "mvcp.adobe.cache.filter.rebuild.seconds";
+    private static final int DEFAULT_CAPACITY = 1000000;
+    private static final double DEFAULT_FPP = 0.01;
+    private static final int DEFAULT_REBUILD = 300;
+    //Maximum number of keys per published message
+    private static final int CHUNK_SIZE = 1000;
+    //Separates the id of the publishing replica from the keys
+    private static final String SEPARATOR = "|";
+    //Bound of the recently removed keys, which are forgotten when it is reached
+    private static final int MAX_REMOVED = 10000;
+
+    @Autowired
+    private Environment env;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private CacheIndex index;
+
+    //Identifies the messages published by this replica, which were already applied locally
+    private final String replicaId = UUID.randomUUID().toString();
+    //Keys removed since they were last added: purges are notified twice to the replica that made them
+    private final Set<String> removed = ConcurrentHashMap.newKeySet();
+    private final Counter skips = Metrics.counter("proxy.cache.filter.skips");
+    private final Counter falsePositives = Metrics.counter("proxy.cache.filter.false.positives");
+    private boolean enabled;
+    private int capacity = DEFAULT_CAPACITY;
+    private double fpp = DEFAULT_FPP;
+    private volatile CountingBloomFilter filter;
+    //Filter being rebuilt, which also receives the concurrent updates
+    private volatile CountingBloomFilter building;
+    private ScheduledExecutorService rebuilder;
+
+    public KeyFilter() {
+        Metrics.gauge("proxy.cache.filter.keys", this, f -> f.filter == null ? 0 : f.filter.size());
+        Metrics.gauge("proxy.cache.filter.fpp", this, f -> f.filter == null ? 0 : f.filter.expectedFpp());
+    }
+
+    /**
+     * Reads the configuration and schedules the rebuilds, the first one right away.
+     */
+    @PostConstruct
+    public void init() {
+        this.enabled = env.getProperty(ENABLED_PROPERTY, Boolean.class, false);
+        if (!enabled) return;
+        this.capacity = env.getProperty(CAPACITY_PROPERTY, Integer.class, DEFAULT_CAPACITY);
+        this.fpp = env.getProperty(FPP_PROPERTY, Double.class, DEFAULT_FPP);
+        int interval = env.getProperty(REBUILD_PROPERTY, Integer.class, DEFAULT_REBUILD);
+        this.rebuilder = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cache-filter-rebuilder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        rebuilder.scheduleWithFixedDelay(this::rebuild, 0, Math.max(1, interval), TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (rebuilder != null) rebuilder.shutdownNow();
+    }
+
+    /**
+     * Verifies if a key may be stored in the Cache. Counts the lookups that can skip the Cache.
+     *
+     * @param key Cache key
+     * @return boolean False in case the key is certainly not stored, true otherwise or while the filter is not ready
+     */
+    public boolean mightContain(String key) {
+        CountingBloomFilter current = filter;
+        if (current == null || current.mightContain(key)) return true;
+        skips.increment();
+        return false;
+    }
+
+    /**
+     * Counts a lookup the filter let through but missed the Cache.
+     */
+    public void falsePositive() {
+        if (filter != null) falsePositives.increment();
+    }
+
+    /**
+     * Adds keys just stored in the Cache, locally and in the other replicas.
+     *
+     * @param keys Stored cache keys
+     */
+    public void stored(Collection<String> keys) {
+        if (!enabled || keys.isEmpty()) return;
+        add(keys);
+        List<String> list = new ArrayList<>(keys);
+        try {
+            for (int i = 0; i < list.size(); i += CHUNK_SIZE) {
+                List<String> chunk = list.subList(i, Math.min(i + CHUNK_SIZE, list.size()));
+                stringRedisTemplate.convertAndSend(CHANNEL, replicaId + SEPARATOR + String.join(",", chunk));
+            }
+        } catch (RuntimeException e) {
+            logger.info("+++++Could not publish stored keys: " + e.getMessage() + "+++++");
+        }
+    }
+
+    /**
+     * Receives the keys stored by any replica, ignoring the ones published by this replica.
+     *
+     * @param message Id of the publishing replica and comma-separated cache keys
+     * @param pattern Channel pattern
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int separator = body.indexOf(SEPARATOR);
+        if (!enabled || separator < 0 || body.substring(0, separator).equals(replicaId)) return;
+        String keys = body.substring(separator + 1);
+        if (!keys.isEmpty()) add(Arrays.asList(keys.split(",")));
+    }
+
+    /**
+     * Removes purged keys. A key is only removed once until it is added again, so the purge notification
+     * received back from the pub/sub channel does not remove the counters of other keys.
+     *
+     * @param keys Purged cache keys
+     */
+    @Override
+    public void invalidate(Collection<String> keys) {
+        if (!enabled) return;
+        if (removed.size() > MAX_REMOVED) removed.clear();
+        for (String key : keys) {
+            if (!removed.add(key)) continue;
+            CountingBloomFilter current = filter;
+            if (current != null) current.remove(key);
+            CountingBloomFilter next = building;
+            if (next != null) next.remove(key);
+        }
+    }
+
+    private void add(Collection<String> keys) {
+        for (String key : keys) {
+            removed.remove(key);
+            CountingBloomFilter current = filter;
+            if (current != null) current.add(key);
+            CountingBloomFilter next = building;
+            if (next != null) next.add(key);
+        }
+    }
+
+    /**
+     * Rebuilds the filter from the keys of the path index still stored in the Cache and replaces the current one.
+     * On failure, the current filter is kept, or lookups keep going to the Cache if there is none.
+     */
+    public void rebuild() {
+        CountingBloomFilter next = new CountingBloomFilter(capacity, fpp);
+        building = next;
+        try {
+            index.forEachKey(next::add);
+            filter = next;
+            logger.info("+++++Cache key filter rebuilt with " + next.size() + " keys+++++");
+        } catch (CacheNotAvailableException | RuntimeException e) {
+            logger.info("+++++Could not rebuild cache key filter: " + e.getMessage() + "+++++");
+        } finally {
+            building = null;
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package mvcp.adobe.components;
+
+import io.lettuce.core.KeyValue;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisException;
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.api.StatefulRedisConnection;
+import mvcp.adobe.abstractions.IAsyncCache;
+import mvcp.adobe.abstractions.ICache;
+import mvcp.adobe.exceptions.CacheNotAvailableException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Implementation of a Cache storage using the asynchronous API of the Lettuce Redis client.
+ * <p>
+ * Single commands share one connection that flushes each command as soon as it is issued.
+ * Batches of commands go through a second connection: when pipelining is enabled its auto-flush is turned off,
+ * so the whole batch is written to the socket at once and all replies are awaited together.
+ * <p>
+ * Connections are opened on first use, so an unavailable Redis does not prevent the application from starting.
+ * The blocking ICache methods wait for the asynchronous results up to the command timeout.
+ *
+ * @author      Marcelo Pereira
+ * @version     1.0.0
+ * @since       2019-06-12
+ */
+public class LettuceCache implements ICache, IAsyncCache {
+    public static final Logger logger = (Logger) LoggerFactory.getLogger(LettuceCache.class);
+
+    private final RedisClient client;
+    private final long timeoutMilis;
+    private final boolean pipelining;
+    private StatefulRedisConnection<String, String> connection;
+    private StatefulRedisConnection<String, String> pipeline;
+
+    public LettuceCache(RedisClient client, long timeoutMilis, boolean pipelining) {
+        this.client = client;
+        this.timeoutMilis = timeoutMilis;
+        this.pipelining = pipelining;
+    }
+
+    /**
+     * Stores a string in a Hash key in the Cache.
+     *
+     * @param key String Hash key index to store
+     * @param value String Value to be store
+     * @throws CacheNotAvailableException Thrown when no Cache is set up
+     */
+    @Override
+    public void put(String key, String value) throws CacheNotAvailableException {
+        await(putAsync(key, value));
+    }
+
+    /**
+     * Retrieves a string from a Hash key in the Cache
+     *
+     * @param key String hashed index
+     * @return String Serialized cached object
+     * @throws CacheNotAvailableException Thrown in case Cache is not accessible
+     */
+    @Override
+    public String get(String key) throws CacheNotAvailableException {
+        return await(getAsync(key));
+    }
+
+    /**
+     * Stores several strings in the Cache in a single pipelined batch.
+     *
+     * @param values Map of Hash keys and values to be stored
+     * @throws CacheNotAvailableException Thrown when no Cache is set up
+     */
+    @Override
+    public void putAll(Map<String, String> values) throws CacheNotAvailableException {
+        await(putAllAsync(values));
+    }
+
+    /**
+     * Retrieves several strings from the Cache using a single MGET command.
+     *
+     * @param keys Hashed indexes
+     * @return Map Serialized cached objects found, by hashed index
+     * @throws CacheNotAvailableException Thrown in case Cache is not accessible
+     */
+    @Override
+    public Map<String, String> getAll(Collection<String> keys) throws CacheNotAvailableException {
+        return await(getAllAsync(keys));
+    }
+
+    /**
+     * Removes several keys from the Cache using a single DEL command.
+     *
+     * @param keys Hashed indexes to be removed
+     * @throws CacheNotAvailableException Thrown in case Cache is not accessible
+     */
+    @Override
+    public void delete(Collection<String> keys) throws CacheNotAvailableException {
+        if (keys.isEmpty()) return;
+        CompletableFuture<Long> future;
+        try {
+            future = getConnection().async().del(keys.toArray(new String[0])).toCompletableFuture();
+        } catch (RedisException re) {
+            future = failed(re);
+        }
+        await(future);
+    }
+
+    /**
+     * Verifies several keys with one EXISTS command per key, flushed together on the pipeline connection.
+     *
+     * @param keys Hashed indexes to be verified
+     * @return Set Hashed indexes that are not stored
+     * @throws CacheNotAvailableException Thrown in case Cache is not accessible
+     */
+    @Override
+    public Set<String> missing(Collection<String> keys) throws CacheNotAvailableException {
+        Set<String> missing = new HashSet<>();
+        if (keys.isEmpty()) return missing;
+        List<String> list = new ArrayList<>(keys);
+        List<CompletableFuture<Long>> futures = new ArrayList<>(list.size());
+        CompletableFuture<Void> all;
+        try {
+            StatefulRedisConnection<String, String> pipe = getPipeline();
+            synchronized (pipe) {
+                for (String key : list) {
+                    futures.add(pipe.async().exists(key).toCompletableFuture());
+                }
+                if (pipelining) pipe.flushCommands();
+            }
+            all = CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+        } catch (RedisException re) {
+            all = failed(re);
+        }
+        await(all);
+        for (int i = 0; i < list.size(); i++) {
+            if (futures.get(i).join() == 0) missing.add(list.get(i));
+        }
+        return missing;
+    }
+
+    @Override
+    public CompletableFuture<Void> putAsync(String key, String value) {
+        try {
+            return getConnection().async().set(key, value).toCompletableFuture().thenApply(ok -> null);
+        } catch (RedisException re) {
+            return failed(re);
+        }
+    }
+
+    @Override
+    public CompletableFuture<String> getAsync(String key) {
+        try {
+            return getConnection().async().get(key).toCompletableFuture();
+        } catch (RedisException re) {
+            return failed(re);
+        }
+    }
+
+    /**
+     * Issues one SET per entry on the pipeline connection and flushes them together.
+     *
+     * @param values Map of Hash keys and values to be stored
+     * @return CompletableFuture Completed when all entries were acknowledged
+     */
+    @Override
+    public CompletableFuture<Void> putAllAsync(Map<String, String> values) {
+        try {
+            List<CompletableFuture<String>> futures = new ArrayList<>(values.size());
+            StatefulRedisConnection<String, String> pipe = getPipeline();
+            synchronized (pipe) {
+                for (Map.Entry<String, String> entry : values.entrySet()) {
+                    futures.add(pipe.async().set(entry.getKey(), entry.getValue()).toCompletableFuture());
+                }
+                if (pipelining) pipe.flushCommands();
+            }
+            return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+        } catch (RedisException re) {
+            return failed(re);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Map<String, String>> getAllAsync(Collection<String> keys) {
+        try {
+            RedisFuture<List<KeyValue<String, String>>> future = getConnection().async().mget(keys.toArray(new String[0]));
+            return future.toCompletableFuture().thenApply(list -> {
+                Map<String, String> values = new HashMap<>();
+                for (KeyValue<String, String> keyValue : list) {
+                    if (keyValue.hasValue()) values.put(keyValue.getKey(), keyValue.getValue());
+                }
+                return values;
+            });
+        } catch (RedisException re) {
+            return failed(re);
+        }
+    }
+
+    /**
+     * Closes the open connections.
+     */
+    public synchronized void close() {
+        if (connection != null) connection.close();
+        if (pipeline != null) pipeline.close();
+        connection = null;
+        pipeline = null;
+    }
+
+    /**
+     * Returns the connection for single commands, opening it on first use.
+     *
+     * @return StatefulRedisConnection Connection flushing each command immediately
+     */
+    private synchronized StatefulRedisConnection<String, String> getConnection() {
+        if (connection == null) {
+            connection = client.connect();
+        }
+        return connection;
+    }
+
+    /**
+     * Returns the connection for batches of commands, opening it on first use.
+     *
+     * @return StatefulRedisConnection Connection with auto-flush disabled when pipelining is enabled
+     */
+    private synchronized StatefulRedisConnection<String, String> getPipeline() {
+        if (pipeline == null) {
+            pipeline = client.connect();
+            pipeline.setAutoFlushCommands(!pipelining);
+        }
+        return pipeline;
+    }
+
+    /**
+     * Waits for an asynchronous Cache operation up to the command timeout.
+     *
+     * @param future Pending operation
+     * @param <T> Type of the operation result
+     * @return T Result of the operation
+     * @throws CacheNotAvailableException Thrown when the operation fails or times out
+     */
+    private <T> T await(CompletableFuture<T> future) throws CacheNotAvailableException {
+        try {
+            return future.get(timeoutMilis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw new CacheNotAvailableException("The cache server is inaccessible: " + e.getCause().getMessage());
+        } catch (TimeoutException e) {
+            throw new CacheNotAvailableException("The cache server did not answer in " + timeoutMilis + "ms");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CacheNotAvailableException("Interrupted while waiting for the cache server");
+        }
+    }
+
+    /**
+     * Wraps a client failure into an already failed future.
+     *
+     * @param e Failure raised by the client
+     * @param <T> Type of the operation result
+     * @return CompletableFuture Failed future
+     */
+    private static <T> CompletableFuture<T> failed(RedisException e) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
+}
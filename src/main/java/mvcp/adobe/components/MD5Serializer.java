@@ -1,22 +1,37 @@
 package mvcp.adobe.components;
 
 import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
 import mvcp.adobe.abstractions.ISerializer;
 import mvcp.adobe.entities.CacheItem;
+import mvcp.adobe.entities.CachePolicy;
+import mvcp.adobe.entities.Compression;
+import mvcp.adobe.entities.Headers;
 import mvcp.adobe.entities.Request;
+import mvcp.adobe.entities.Response;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Component;
 
-import java.math.BigInteger;
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.StringReader;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.HashMap;
 
 /**
  * Utility class for serialization/deserialization of objects.
  * Applies MD5 hashing for "hash" methods.
  * For "serialize/deserialize" methods, encodes in JSON.
+ * Response bodies of at least 'mvcp.adobe.cache.compression.threshold' characters are stored gzip compressed,
+ * unless the upstream response is already content encoded or compression does not make it smaller.
+ * Deserialized items keep the compressed body, which is only decompressed when it is read.
+ * Query strings are canonicalized before hashing (see QueryCanonicalizer), so equivalent URLs share their cached items:
+ * parameters are sorted unless 'mvcp.adobe.cache.key.sort.params' is false, and the parameters listed in
+ * 'mvcp.adobe.cache.key.ignored.params' are left out of the key.
+ * The CachePolicy of the Service may add request headers to the key and prefix it with a namespace.
  *
  * @author      Marcelo Pereira
  * @version     1.0.0
@@ -25,9 +40,44 @@ import java.util.HashMap;
 @Component
 public class MD5Serializer implements ISerializer {
     public static final Logger logger = (Logger) LoggerFactory.getLogger(MD5Serializer.class);
+    //Leading characters of a serialized CacheItem, right before its creation date
+    private static final String CREATED_PREFIX = "{\"isoCreated\":\"";
+    private static final String COMPRESSION_THRESHOLD_PROPERTY = "mvcp.adobe.cache.compression.threshold";
+    private static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+    private static final String CONTENT_ENCODING = "Content-Encoding";
+    private static final String SORT_PARAMS_PROPERTY = "mvcp.adobe.cache.key.sort.params";
+    private static final String IGNORED_PARAMS_PROPERTY = "mvcp.adobe.cache.key.ignored.params";
+    //Gson instances are immutable and thread-safe, so one is shared instead of building its adapters on every call
+    private static final Gson GSON = new Gson();
+    //MessageDigest is not thread-safe: each thread reuses its own
+    private static final ThreadLocal<MessageDigest> MD5 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    });
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    @Autowired
+    private Environment env;
+
+    //Minimum body length for compressing it, 0 disables compression
+    private int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+    private QueryCanonicalizer canonicalizer = QueryCanonicalizer.DEFAULT;
 
     public MD5Serializer(){}
 
+    /**
+     * Reads the compression threshold and the cache key canonicalization from the configuration.
+     */
+    @PostConstruct
+    public void init() {
+        compressionThreshold = env.getProperty(COMPRESSION_THRESHOLD_PROPERTY, Integer.class, DEFAULT_COMPRESSION_THRESHOLD);
+        canonicalizer = new QueryCanonicalizer(env.getProperty(SORT_PARAMS_PROPERTY, Boolean.class, true),
+                env.getProperty(IGNORED_PARAMS_PROPERTY, String.class, QueryCanonicalizer.DEFAULT_IGNORED));
+    }
+
     /**
      * Encode a Request into a hash string
      *
@@ -36,13 +86,49 @@ public class MD5Serializer implements ISerializer {
      */
     @Override
     public String hashRequest(Request request) {
-        String s = new Gson().toJson(request);
-        Request clone = new Gson().fromJson(s, Request.class);
-        HashMap<String,String> headers = new HashMap<>();
-        headers.put("host", request.getHostHeader());
+        return hashRequest(request, CachePolicy.DEFAULT);
+    }
+
+    /**
+     * Encode a Request into a hash string, including the values of the key headers of the cache policy
+     * and prefixed by its namespace, if any.
+     *
+     * @param request Request to be serialized
+     * @param policy Cache policy of the Service
+     * @return String A hash representation of the request
+     */
+    @Override
+    public String hashRequest(Request request, CachePolicy policy) {
+        Request clone = new Request(request.getVersion(), request.getMethod(), request.getPath(), null, null);
+        Headers headers = new Headers(policy.getKeyHeaders().size() + 1);
+        headers.add("host", request.getHostHeader());
+        for (String name : policy.getKeyHeaders()) {
+            headers.add(name, request.getHeader(name));
+        }
         clone.setHeaders(headers);
-        s = new Gson().toJson(clone);
-        return getMd5(s);
+        //Requests without query string keep the same key, as Gson leaves null fields out
+        clone.setQuery(canonicalizer.canonicalize(request.getQuery()));
+        String s = GSON.toJson(clone);
+        //The raw body is keyed by its digest, bodyless requests keep the key of their JSON form
+        if (request.getBody() != null && request.getBody().length > 0) s += getMd5(request.getBody());
+        String hash = getMd5(s);
+        return policy.getNamespace() == null ? hash : policy.getNamespace() + ":" + hash;
+    }
+
+    /**
+     * Returns the URL of a request with its canonical query string, as used for its cache key.
+     *
+     * @param request Request whose URL is needed
+     * @return String Host header, path and canonical query string
+     */
+    @Override
+    public String canonicalUrl(Request request) {
+        String query = canonicalizer.canonicalize(request.getQuery());
+        return request.getHostHeader() + request.getPath() + (query == null ? "" : "?" + query);
+    }
+
+    public void setCanonicalizer(QueryCanonicalizer canonicalizer) {
+        this.canonicalizer = canonicalizer;
     }
 
 
@@ -54,7 +140,59 @@ public class MD5Serializer implements ISerializer {
      */
     @Override
     public CacheItem deserializeCacheItem(String hash) {
-        return new Gson().fromJson(hash, CacheItem.class);
+        return GSON.fromJson(hash, CacheItem.class);
+    }
+
+    /**
+     * Reads the metadata of a serialized CacheItem: its creation date, validator, URL and recompute time,
+     * and the headers, status and codec of its response. Reading stops at the body, which is left null,
+     * so answering a conditional request does not parse a large body.
+     *
+     * @param hash Serialized CacheItem
+     * @return CacheItem Item without the response body
+     */
+    @Override
+    public CacheItem deserializeCacheMeta(String hash) {
+        CacheItem item = new CacheItem();
+        Response response = new Response();
+        try (JsonReader reader = new JsonReader(new StringReader(hash))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("isoCreated")) item.setIsoCreated(reader.nextString());
+                else if (name.equals("etag")) item.setEtag(reader.nextString());
+                else if (name.equals("url")) item.setUrl(reader.nextString());
+                else if (name.equals("delta")) item.setDelta(reader.nextLong());
+                else if (name.equals("response")) {
+                    item.setResponse(response);
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        name = reader.nextName();
+                        if (name.equals("headers")) response.setHeaders(GSON.<Headers>fromJson(reader, Headers.class));
+                        else if (name.equals("status")) response.setStatus(reader.nextInt());
+                        else if (name.equals("body")) return item;
+                        else reader.skipValue();
+                    }
+                    return item;
+                } else reader.skipValue();
+            }
+        } catch (IOException | IllegalStateException e) {
+            logger.info("+++++Could not read cache item metadata: {}+++++", e.getMessage());
+            return deserializeCacheItem(hash);
+        }
+        return item;
+    }
+
+    /**
+     * Computes the strong validator of a Response, from its body.
+     *
+     * @param response Response to be cached
+     * @return String Quoted MD5 hash of the body or null in case there is no body
+     */
+    @Override
+    public String validatorOf(Response response) {
+        String body = response.getBody();
+        return body == null ? null : "\"" + getMd5(body) + "\"";
     }
 
     /**
@@ -65,10 +203,62 @@ public class MD5Serializer implements ISerializer {
      */
     @Override
     public String serializeCacheItem(CacheItem item) {
-        return new Gson().toJson(item);
+        Response response = item.getResponse();
+        if (shouldCompress(response)) {
+            String encoded = Compression.encode(response.getBody());
+            if (encoded.length() < response.getBody().length()) {
+                CacheItem compressed = new CacheItem();
+                compressed.setIsoCreated(item.getIsoCreated());
+                compressed.setEtag(item.getEtag());
+                compressed.setUrl(item.getUrl());
+                compressed.setDelta(item.getDelta());
+                compressed.setResponse(response.withEncodedBody(Compression.GZIP, encoded));
+                return GSON.toJson(compressed);
+            }
+        }
+        return GSON.toJson(item);
+    }
+
+    /**
+     * Verifies if the body of a Response should be compressed before being cached.
+     *
+     * @param response Response to be cached
+     * @return boolean True in case the body is plain, large enough and not content encoded by the upstream
+     */
+    private boolean shouldCompress(Response response) {
+        return compressionThreshold > 0
+                && response != null
+                && response.getCodec() == null
+                && response.getBody() != null
+                && response.getBody().length() >= compressionThreshold
+                && response.getHeader(CONTENT_ENCODING) == null;
+    }
+
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
     }
 
 
+    /**
+     * Updates the creation date of an already serialized CacheItem.
+     * The date is spliced in place, so the stored response is neither parsed nor re-encoded.
+     * Falls back to a full serialization when the string does not have the expected layout.
+     *
+     * @param serialized Serialized cached item, as previously returned by serializeCacheItem
+     * @param item Deserialized item holding the new creation date
+     * @return String Serialized item with the new creation date
+     */
+    @Override
+    public String refreshCacheItem(String serialized, CacheItem item) {
+        String created = item.getIsoCreated();
+        int end = CREATED_PREFIX.length() + created.length();
+        if (serialized != null && serialized.startsWith(CREATED_PREFIX)
+                && serialized.length() > end && serialized.charAt(end) == '"') {
+            return CREATED_PREFIX + created + serialized.substring(end);
+        }
+        return serializeCacheItem(item);
+    }
+
     /**
      * Hashes a string into a MD5 hex string
      * Ref: https://www.geeksforgeeks.org/md5-hash-in-java/
@@ -77,25 +267,25 @@ public class MD5Serializer implements ISerializer {
      * @return String A MD5 Hash representation of the string
      */
     public static String getMd5(String input) {
-        try {
-            // Static getInstance method is called with hashing MD5
-            MessageDigest md = MessageDigest.getInstance("MD5");
-            // digest() method is called to calculate message digest
-            //  of an input digest() return array of byte
-            byte[] messageDigest = md.digest(input.getBytes());
-            // Convert byte array into signum representation
-            BigInteger no = new BigInteger(1, messageDigest);
-            // Convert message digest into hex value
-            String hashtext = no.toString(16);
-            while (hashtext.length() < 32) {
-                hashtext = "0" + hashtext;
-            }
-            return hashtext;
-        }
+        return getMd5(input.getBytes());
+    }
 
-        // For specifying wrong message digest algorithms
-        catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
+    /**
+     * Hashes bytes into a MD5 hex string, with the MessageDigest of the current thread
+     *
+     * @param input Bytes to be hashed
+     * @return String A MD5 Hash representation of the bytes
+     */
+    public static String getMd5(byte[] input) {
+        MessageDigest md = MD5.get();
+        md.reset();
+        byte[] digest = md.digest(input);
+        //Lowercase and zero-padded to 32 characters
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            hex[2 * i] = HEX[(digest[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX[digest[i] & 0xf];
         }
+        return new String(hex);
     }
 }
@@ -0,0 +1,194 @@
+package mvcp.adobe.components;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import mvcp.adobe.abstractions.ICacheInvalidationListener;
+import mvcp.adobe.entities.Response;
+import mvcp.adobe.entities.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Short-lived local cache of error responses (negative caching), kept apart from the Redis cache.
+ * <p>
+ * Error responses are stored under the same cache key as a regular response, for a TTL chosen by status code:
+ * <ol>
+ * <li>The TTL of the exact status configured for the Service, e.g. 'negative-ttl-404=60'</li>
+ * <li>The TTL of the status class configured for the Service, e.g. 'negative-ttl-5xx=2'</li>
+ * <li>The global TTL of the exact status, from 'mvcp.adobe.cache.negative.ttls'</li>
+ * <li>The global TTL of the status class</li>
+ * </ol>
+ * A TTL of 0 (or no TTL at all) disables negative caching of the status.
+ * Repeated requests for a missing or failing resource are answered by the proxy for the TTL,
+ * so error storms are not forwarded to the Endpoints.
+ * <p>
+ * The number of entries is bounded; when it is exceeded, expired entries are evicted and, if still
+ * full, the new error is not cached.
+ *
+ * @author      Marcelo Pereira
+ * @version     1.0.0
+ * @since       2019-06-13
+ */
+@Component
+public class NegativeCache implements ICacheInvalidationListener {
+    public static final Logger logger = (Logger) LoggerFactory.getLogger(NegativeCache.class);
+    private static final String TTLS_PROPERTY = "mvcp.adobe.cache.negative.ttls";
+    private static final String MAX_ENTRIES_PROPERTY = "mvcp.adobe.cache.negative.max.entries";
+    private static final String DEFAULT_TTLS = "404=30,410=60,5xx=5";
+    private static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    @Autowired
+    private Environment env;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Counter hits = Metrics.counter("proxy.cache.negative.hits");
+    private Map<String, Integer> ttls = parseTtls(DEFAULT_TTLS);
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+
+    public NegativeCache() {
+        Metrics.gauge("proxy.cache.negative.size", entries, Map::size);
+    }
+
+    /**
+     * Reads the global TTLs and the maximum number of entries from the environment.
+     */
+    @PostConstruct
+    public void init() {
+        this.ttls = parseTtls(env.getProperty(TTLS_PROPERTY, String.class, DEFAULT_TTLS));
+        this.maxEntries = env.getProperty(MAX_ENTRIES_PROPERTY, Integer.class, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Parses a list of TTLs by status, e.g. '404=30,410=60,5xx=5'.
+     *
+     * @param spec Comma separated 'status=seconds' pairs, where status is a code or a class (4xx, 5xx)
+     * @return Map TTLs in seconds by status code or class
+     * @throws NumberFormatException Thrown in case a TTL is not a number
+     */
+    public static Map<String, Integer> parseTtls(String spec) {
+        Map<String, Integer> ret = new HashMap<>();
+        if (spec == null) return ret;
+        for (String pair : spec.split(",")) {
+            if (pair.trim().isEmpty()) continue;
+            String status = pair.split("=")[0].trim().toLowerCase();
+            ret.put(status, Integer.parseInt(pair.substring(pair.indexOf('=') + 1).trim()));
+        }
+        return ret;
+    }
+
+    /**
+     * Looks up the TTL of a status code, first by exact code and then by class.
+     *
+     * @param ttls TTLs by status code or class
+     * @param status HTTP status code
+     * @return Integer TTL in seconds or null in case none is configured
+     */
+    private static Integer lookup(Map<String, Integer> ttls, int status) {
+        Integer ttl = ttls.get(String.valueOf(status));
+        return ttl != null ? ttl : ttls.get((status / 100) + "xx");
+    }
+
+    /**
+     * Returns the TTL of an error response of a Service.
+     *
+     * @param status HTTP status code
+     * @param service Service that answered, or null in case it is unknown
+     * @return int TTL in seconds, 0 in case the status must not be cached
+     */
+    public int getTtl(int status, Service service) {
+        Integer ttl = service == null ? null : lookup(service.getNegativeTtls(), status);
+        if (ttl == null) ttl = lookup(ttls, status);
+        return ttl == null ? 0 : Math.max(ttl, 0);
+    }
+
+    /**
+     * Returns the cached error response of a key.
+     *
+     * @param key Cache key of the request
+     * @return Response Cached error response or null in case there is none or it expired
+     */
+    public Response get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) return null;
+        if (entry.isExpired(System.currentTimeMillis())) {
+            entries.remove(key, entry);
+            return null;
+        }
+        hits.increment();
+        return entry.response;
+    }
+
+    /**
+     * Caches an error response under a key, for the TTL of its status.
+     *
+     * @param key Cache key of the request
+     * @param response Error response
+     * @param service Service that answered, or null in case it is unknown
+     * @return boolean True in case the response was cached
+     */
+    public boolean put(String key, Response response, Service service) {
+        int ttl = getTtl(response.getStatus(), service);
+        if (ttl <= 0) return false;
+        if (entries.size() >= maxEntries && !entries.containsKey(key)) {
+            evictExpired();
+            if (entries.size() >= maxEntries) return false;
+        }
+        logger.debug("+++++Caching error {} for {}s in hash: {}+++++", response.getStatus(), ttl, key);
+        entries.put(key, new Entry(response, System.currentTimeMillis() + ttl * 1000L));
+        return true;
+    }
+
+    /**
+     * Removes the expired entries.
+     */
+    private void evictExpired() {
+        long now = System.currentTimeMillis();
+        entries.values().removeIf(entry -> entry.isExpired(now));
+    }
+
+    /**
+     * Removes purged keys, so a purge also clears the cached errors.
+     *
+     * @param keys Purged cache keys
+     */
+    @Override
+    public void invalidate(Collection<String> keys) {
+        for (String key : keys) {
+            entries.remove(key);
+        }
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public void setTtls(Map<String, Integer> ttls) {
+        this.ttls = ttls;
+    }
+
+    /**
+     * Cached error response and its expiration time.
+     */
+    private static final class Entry {
+        private final Response response;
+        private final long expiresAt;
+
+        private Entry(Response response, long expiresAt) {
+            this.response = response;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+}
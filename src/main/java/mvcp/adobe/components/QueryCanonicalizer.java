@@ -0,0 +1,136 @@
+package mvcp.adobe.components;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Canonicalizes query strings for cache keys, so equivalent URLs share the same cached item.
+ * <p>
+ * Canonicalization steps:
+ * <ol>
+ * <li>Parameters whose names are ignored are dropped, e.g. tracking parameters. Ignored names are
+ * matched ignoring their case, and a name ending with '*' matches any name starting with it ('utm_*')</li>
+ * <li>Names and values get a single percent-encoding: unreserved characters (letters, digits, '-', '.', '_', '~')
+ * are kept as they are, '+' is a space, and anything else is encoded with uppercase hex digits</li>
+ * <li>Parameters are sorted by name and then by value, keeping repeated parameters, unless sorting is disabled</li>
+ * </ol>
+ * Only cache keys are canonicalized: requests are forwarded with their original query string.
+ *
+ * @author      Marcelo Pereira
+ * @version     1.0.0
+ * @since       2019-06-14
+ */
+public final class QueryCanonicalizer {
+    public static final String DEFAULT_IGNORED = "utm_*,gclid,fbclid";
+    public static final QueryCanonicalizer DEFAULT = new QueryCanonicalizer(true, DEFAULT_IGNORED);
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    private static final Comparator<String[]> BY_NAME_AND_VALUE = Comparator
+            .comparing((String[] param) -> param[0])
+            .thenComparing(param -> param[1], Comparator.nullsFirst(Comparator.naturalOrder()));
+
+    private final boolean sort;
+    private final List<String> ignoredNames = new ArrayList<>();
+    private final List<String> ignoredPrefixes = new ArrayList<>();
+
+    /**
+     * @param sort Whether parameters are sorted
+     * @param ignored Comma separated names of the parameters to be dropped, possibly ending with '*'
+     */
+    public QueryCanonicalizer(boolean sort, String ignored) {
+        this.sort = sort;
+        if (ignored == null) return;
+        for (String name : ignored.split(",")) {
+            name = name.trim().toLowerCase();
+            if (name.isEmpty()) continue;
+            if (name.endsWith("*")) {
+                ignoredPrefixes.add(name.substring(0, name.length() - 1));
+            } else {
+                ignoredNames.add(name);
+            }
+        }
+    }
+
+    /**
+     * Canonicalizes a raw query string.
+     *
+     * @param query Query string, without the leading '?'
+     * @return String Canonical query string or null in case no parameter is left
+     */
+    public String canonicalize(String query) {
+        if (query == null || query.isEmpty()) return null;
+        List<String[]> params = new ArrayList<>();
+        for (String part : query.split("&")) {
+            if (part.isEmpty()) continue;
+            int equals = part.indexOf('=');
+            String name = normalize(equals < 0 ? part : part.substring(0, equals));
+            if (isIgnored(name)) continue;
+            params.add(new String[]{name, equals < 0 ? null : normalize(part.substring(equals + 1))});
+        }
+        if (params.isEmpty()) return null;
+        if (sort) params.sort(BY_NAME_AND_VALUE);
+        StringBuilder builder = new StringBuilder();
+        for (String[] param : params) {
+            if (builder.length() > 0) builder.append('&');
+            builder.append(param[0]);
+            if (param[1] != null) builder.append('=').append(param[1]);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Verifies if a parameter must be dropped.
+     *
+     * @param name Normalized parameter name
+     * @return boolean True in case the name is ignored
+     */
+    private boolean isIgnored(String name) {
+        String lower = name.toLowerCase();
+        if (ignoredNames.contains(lower)) return true;
+        for (String prefix : ignoredPrefixes) {
+            if (lower.startsWith(prefix)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Decodes a query component and encodes it again in a single, canonical form.
+     * Invalid escapes are kept as literal '%' characters.
+     *
+     * @param component Raw name or value
+     * @return String Normalized component
+     */
+    static String normalize(String component) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(component.length());
+        for (int i = 0; i < component.length(); i++) {
+            char c = component.charAt(i);
+            if (c == '%' && i + 2 < component.length()
+                    && Character.digit(component.charAt(i + 1), 16) >= 0 && Character.digit(component.charAt(i + 2), 16) >= 0) {
+                bytes.write(Character.digit(component.charAt(i + 1), 16) * 16 + Character.digit(component.charAt(i + 2), 16));
+                i += 2;
+            } else if (c == '+') {
+                bytes.write(' ');
+            } else {
+                byte[] encoded = String.valueOf(c).getBytes(StandardCharsets.UTF_8);
+                bytes.write(encoded, 0, encoded.length);
+            }
+        }
+        StringBuilder builder = new StringBuilder();
+        for (byte b : bytes.toByteArray()) {
+            int value = b & 0xff;
+            if (isUnreserved(value)) {
+                builder.append((char) value);
+            } else {
+                builder.append('%').append(HEX[value >> 4]).append(HEX[value & 0xf]);
+            }
+        }
+        return builder.toString();
+    }
+
+    private static boolean isUnreserved(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '-' || c == '.' || c == '_' || c == '~';
+    }
+}
@@ -7,10 +7,21 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.dao.QueryTimeoutException;
 import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 /**
  * Implementation of a Cache storage using Redis.
  *
@@ -38,7 +49,28 @@ public class RedisCache implements ICache {
     public void put(String key, String value) throws CacheNotAvailableException {
         try {
             stringRedisTemplate.opsForValue().set(key, value);
-        } catch (RedisConnectionException | RedisConnectionFailureException rce) {
+        } catch (RedisConnectionException | RedisConnectionFailureException | QueryTimeoutException rce) {
+            throw new CacheNotAvailableException("The cache server is inaccessible: " + rce.getMessage());
+        }
+    }
+
+    /**
+     * Stores several strings in the Cache using a single pipelined round trip.
+     *
+     * @param values Map of Hash keys and values to be stored
+     * @throws CacheNotAvailableException Thrown when no Cache is set up
+     */
+    @Override
+    public void putAll(Map<String, String> values) throws CacheNotAvailableException {
+        try {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection stringConnection = (StringRedisConnection) connection;
+                for (Map.Entry<String, String> entry : values.entrySet()) {
+                    stringConnection.set(entry.getKey(), entry.getValue());
+                }
+                return null;
+            });
+        } catch (RedisConnectionException | RedisConnectionFailureException | QueryTimeoutException rce) {
             throw new CacheNotAvailableException("The cache server is inaccessible: " + rce.getMessage());
         }
     }
@@ -53,9 +85,76 @@ public class RedisCache implements ICache {
     public String get(String key) throws CacheNotAvailableException {
         try {
             return stringRedisTemplate.opsForValue().get(key);
-        } catch (RedisConnectionException | RedisConnectionFailureException re) {
+        } catch (RedisConnectionException | RedisConnectionFailureException | QueryTimeoutException re) {
+            throw new CacheNotAvailableException("The cache server is inaccessible: " + re.getMessage());
+        }
+    }
+
+    /**
+     * Removes several keys from the Cache using a single DEL command.
+     *
+     * @param keys Hashed indexes to be removed
+     * @throws CacheNotAvailableException Thrown in case Cache is not accessible
+     */
+    @Override
+    public void delete(Collection<String> keys) throws CacheNotAvailableException {
+        if (keys.isEmpty()) return;
+        try {
+            stringRedisTemplate.delete(keys);
+        } catch (RedisConnectionException | RedisConnectionFailureException | QueryTimeoutException re) {
+            throw new CacheNotAvailableException("The cache server is inaccessible: " + re.getMessage());
+        }
+    }
+
+    /**
+     * Retrieves several strings from the Cache using a single MGET command.
+     *
+     * @param keys Hashed indexes
+     * @return Map Serialized cached objects found, by hashed index
+     * @throws CacheNotAvailableException Thrown in case Cache is not accessible
+     */
+    @Override
+    public Map<String, String> getAll(Collection<String> keys) throws CacheNotAvailableException {
+        List<String> list = new ArrayList<>(keys);
+        Map<String, String> values = new HashMap<>();
+        try {
+            List<String> found = stringRedisTemplate.opsForValue().multiGet(list);
+            if (found == null) return values;
+            for (int i = 0; i < list.size(); i++) {
+                if (found.get(i) != null) values.put(list.get(i), found.get(i));
+            }
+            return values;
+        } catch (RedisConnectionException | RedisConnectionFailureException | QueryTimeoutException re) {
             throw new CacheNotAvailableException("The cache server is inaccessible: " + re.getMessage());
         }
     }
-}
 
+    /**
+     * Verifies several keys using one EXISTS command per key, in a single pipelined round trip.
+     *
+     * @param keys Hashed indexes to be verified
+     * @return Set Hashed indexes that are not stored
+     * @throws CacheNotAvailableException Thrown in case Cache is not accessible
+     */
+    @Override
+    public Set<String> missing(Collection<String> keys) throws CacheNotAvailableException {
+        Set<String> missing = new HashSet<>();
+        if (keys.isEmpty()) return missing;
+        List<String> list = new ArrayList<>(keys);
+        try {
+            List<Object> found = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection stringConnection = (StringRedisConnection) connection;
+                for (String key : list) {
+                    stringConnection.exists(key);
+                }
+                return null;
+            });
+            for (int i = 0; i < list.size(); i++) {
+                if (Boolean.FALSE.equals(found.get(i))) missing.add(list.get(i));
+            }
+            return missing;
+        } catch (RedisConnectionException | RedisConnectionFailureException | QueryTimeoutException re) {
+            throw new CacheNotAvailableException("The cache server is inaccessible: " + re.getMessage());
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package mvcp.adobe.components;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Bounded lock-free queue with many producers and a single consumer.
+ * <p>
+ * Producers claim a sequence number with a compare-and-set on the tail, then publish their item in the slot of
+ * that sequence. The consumer takes items in sequence order, emptying each slot before moving the head past it,
+ * so a producer never claims a slot that still holds an item. An item claimed but not yet published stops
+ * the consumer until its producer sets it.
+ * <p>
+ * A full buffer rejects new items instead of blocking the producer.
+ *
+ * @param <T> Type of the items
+ * @author      Marcelo Pereira
+ * @version     1.0.0
+ * @since       2019-06-14
+ */
+public final class RingBuffer<T> {
+    private final AtomicReferenceArray<T> slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    //Only written by the consumer
+    private volatile long head;
+
+    /**
+     * @param capacity Minimum number of items held, rounded up to a power of two
+     */
+    public RingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Adds an item. Never blocks.
+     *
+     * @param item Item to be added, not null
+     * @return boolean True in case the item was added, false in case the buffer is full
+     */
+    public boolean offer(T item) {
+        while (true) {
+            long sequence = tail.get();
+            if (sequence - head >= slots.length()) return false;
+            if (tail.compareAndSet(sequence, sequence + 1)) {
+                slots.set((int) sequence & mask, item);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Takes the published items in their order. Must only be called by the consumer thread.
+     *
+     * @param consumer Receives each item
+     * @param max Maximum number of items taken
+     * @return int Number of items taken
+     */
+    public int drain(Consumer<T> consumer, int max) {
+        long sequence = head;
+        int ret = 0;
+        while (ret < max) {
+            int index = (int) sequence & mask;
+            T item = slots.get(index);
+            if (item == null) break;
+            slots.set(index, null);
+            head = ++sequence;
+            ret++;
+            consumer.accept(item);
+        }
+        return ret;
+    }
+
+    /**
+     * @return int Number of claimed items not yet taken
+     */
+    public int size() {
+        return (int) (tail.get() - head);
+    }
+
+    /**
+     * @return int Number of items the buffer holds
+     */
+    public int capacity() {
+        return slots.length();
+    }
+}
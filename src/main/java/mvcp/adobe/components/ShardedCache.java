@@ -0,0 +1,273 @@
+package mvcp.adobe.components;
+
+import mvcp.adobe.abstractions.ICache;
+import mvcp.adobe.exceptions.CacheNotAvailableException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Cache storage that spreads keys over several Cache nodes using consistent hashing.
+ * <p>
+ * Each node is placed many times on a hash ring (virtual nodes), and a key belongs to the first node found
+ * clockwise from the hash of the key. Adding or removing a node only moves the keys of its ring slices.
+ * <p>
+ * Each node keeps its own connections and health state. When a node fails, it is marked as down
+ * for a retry interval: reads of its keys become misses and writes are dropped, so a node outage
+ * never turns into an error for the caller. After the interval, the next operation probes the node again.
+ *
+ * @author      Marcelo Pereira
+ * @version     1.0.0
+ * @since       2019-06-12
+ */
+public class ShardedCache implements ICache {
+    public static final Logger logger = (Logger) LoggerFactory.getLogger(ShardedCache.class);
+    //Number of positions of each node in the hash ring
+    private static final int VIRTUAL_NODES = 160;
+    //A digest per thread: getInstance looks the provider up on every call, and ring lookups happen on every get and put
+    private static final ThreadLocal<MessageDigest> MD5 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    });
+
+    private final TreeMap<Long, Node> ring = new TreeMap<>();
+    private final List<Node> nodes = new ArrayList<>();
+    private final long retryMilis;
+
+    /**
+     * @param caches Cache of each node, by node name (e.g. 'host:port')
+     * @param retryMilis Time a failed node stays down before being probed again
+     */
+    public ShardedCache(Map<String, ICache> caches, long retryMilis) {
+        this.retryMilis = retryMilis;
+        for (Map.Entry<String, ICache> entry : caches.entrySet()) {
+            Node node = new Node(entry.getKey(), entry.getValue());
+            nodes.add(node);
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                ring.put(hash(node.name + "#" + i), node);
+            }
+        }
+    }
+
+    @Override
+    public void put(String key, String value) throws CacheNotAvailableException {
+        Node node = nodeFor(key);
+        if (!node.isAvailable()) return;
+        try {
+            node.cache.put(key, value);
+            node.markUp();
+        } catch (CacheNotAvailableException e) {
+            node.markDown(e);
+        }
+    }
+
+    @Override
+    public String get(String key) throws CacheNotAvailableException {
+        Node node = nodeFor(key);
+        if (!node.isAvailable()) return null;
+        try {
+            String value = node.cache.get(key);
+            node.markUp();
+            return value;
+        } catch (CacheNotAvailableException e) {
+            node.markDown(e);
+            return null;
+        }
+    }
+
+    @Override
+    public void putAll(Map<String, String> values) throws CacheNotAvailableException {
+        Map<Node, Map<String, String>> groups = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            groups.computeIfAbsent(nodeFor(entry.getKey()), n -> new LinkedHashMap<>()).put(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<Node, Map<String, String>> group : groups.entrySet()) {
+            Node node = group.getKey();
+            if (!node.isAvailable()) continue;
+            try {
+                node.cache.putAll(group.getValue());
+                node.markUp();
+            } catch (CacheNotAvailableException e) {
+                node.markDown(e);
+            }
+        }
+    }
+
+    @Override
+    public Map<String, String> getAll(Collection<String> keys) throws CacheNotAvailableException {
+        Map<Node, List<String>> groups = new LinkedHashMap<>();
+        for (String key : keys) {
+            groups.computeIfAbsent(nodeFor(key), n -> new ArrayList<>()).add(key);
+        }
+        Map<String, String> values = new HashMap<>();
+        for (Map.Entry<Node, List<String>> group : groups.entrySet()) {
+            Node node = group.getKey();
+            if (!node.isAvailable()) continue;
+            try {
+                values.putAll(node.cache.getAll(group.getValue()));
+                node.markUp();
+            } catch (CacheNotAvailableException e) {
+                node.markDown(e);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Verifies keys in their nodes. The keys of a node that is down or fails are not reported as missing,
+     * as the node may still hold them.
+     *
+     * @param keys Keys to be verified
+     * @return Set Keys their nodes reported as not stored
+     */
+    @Override
+    public Set<String> missing(Collection<String> keys) {
+        Map<Node, List<String>> groups = new LinkedHashMap<>();
+        for (String key : keys) {
+            groups.computeIfAbsent(nodeFor(key), n -> new ArrayList<>()).add(key);
+        }
+        Set<String> missing = new HashSet<>();
+        for (Map.Entry<Node, List<String>> group : groups.entrySet()) {
+            Node node = group.getKey();
+            if (!node.isAvailable()) continue;
+            try {
+                missing.addAll(node.cache.missing(group.getValue()));
+                node.markUp();
+            } catch (CacheNotAvailableException e) {
+                node.markDown(e);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Removes keys from their nodes. Unlike reads and writes, a failure is reported to the caller,
+     * so a purge is not silently lost.
+     *
+     * @param keys Keys to be removed
+     * @throws CacheNotAvailableException Thrown when a node holding some of the keys is not accessible
+     */
+    @Override
+    public void delete(Collection<String> keys) throws CacheNotAvailableException {
+        Map<Node, List<String>> groups = new LinkedHashMap<>();
+        for (String key : keys) {
+            groups.computeIfAbsent(nodeFor(key), n -> new ArrayList<>()).add(key);
+        }
+        CacheNotAvailableException failure = null;
+        for (Map.Entry<Node, List<String>> group : groups.entrySet()) {
+            Node node = group.getKey();
+            try {
+                node.cache.delete(group.getValue());
+                node.markUp();
+            } catch (CacheNotAvailableException e) {
+                node.markDown(e);
+                failure = e;
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    /**
+     * Closes the connections of the nodes that hold them.
+     */
+    public void close() {
+        for (Node node : nodes) {
+            if (node.cache instanceof LettuceCache) ((LettuceCache) node.cache).close();
+        }
+    }
+
+    /**
+     * Returns the name of the node responsible for a key.
+     *
+     * @param key Cache key
+     * @return String Name of the node
+     */
+    public String getNodeName(String key) {
+        return nodeFor(key).name;
+    }
+
+    /**
+     * Verifies if a node is currently considered healthy.
+     *
+     * @param name Name of the node
+     * @return boolean True in case the node is up or due to be probed again
+     */
+    public boolean isNodeAvailable(String name) {
+        for (Node node : nodes) {
+            if (node.name.equals(name)) return node.isAvailable();
+        }
+        return false;
+    }
+
+    /**
+     * Finds the node responsible for a key: the first node clockwise from the key's position in the ring.
+     *
+     * @param key Cache key
+     * @return Node Node that stores the key
+     */
+    private Node nodeFor(String key) {
+        SortedMap<Long, Node> tail = ring.tailMap(hash(key));
+        return tail.isEmpty() ? ring.firstEntry().getValue() : tail.get(tail.firstKey());
+    }
+
+    /**
+     * Calculates the position of a string in the hash ring, from the first 8 bytes of its MD5 digest.
+     *
+     * @param value String to be hashed
+     * @return long Position in the ring
+     */
+    private static long hash(String value) {
+        byte[] digest = MD5.get().digest(value.getBytes(StandardCharsets.UTF_8));
+        long hash = 0;
+        for (int i = 0; i < 8; i++) {
+            hash = (hash << 8) | (digest[i] & 0xff);
+        }
+        return hash;
+    }
+
+    /**
+     * A Cache node of the ring and its health state.
+     */
+    private class Node {
+        private final String name;
+        private final ICache cache;
+        private volatile long downUntil;
+
+        private Node(String name, ICache cache) {
+            this.name = name;
+            this.cache = cache;
+        }
+
+        private boolean isAvailable() {
+            return System.currentTimeMillis() >= downUntil;
+        }
+
+        private void markUp() {
+            if (downUntil != 0) {
+                logger.info("+++++Cache node " + name + " is back up+++++");
+                downUntil = 0;
+            }
+        }
+
+        private void markDown(CacheNotAvailableException e) {
+            logger.info("+++++Cache node " + name + " is down: " + e.getMessage() + "+++++");
+            downUntil = System.currentTimeMillis() + retryMilis;
+        }
+    }
+}
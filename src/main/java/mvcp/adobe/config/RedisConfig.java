@@ -1,15 +1,60 @@
 package mvcp.adobe.config;
 
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.resource.ClientResources;
+import io.lettuce.core.resource.DefaultClientResources;
+import mvcp.adobe.abstractions.ICache;
+import mvcp.adobe.abstractions.ICacheInvalidationListener;
+import mvcp.adobe.components.CacheInvalidator;
+import mvcp.adobe.components.CircuitBreakerCache;
+import mvcp.adobe.components.DiskCache;
+import mvcp.adobe.components.KeyFilter;
+import mvcp.adobe.components.LettuceCache;
+import mvcp.adobe.components.ShardedCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.env.Environment;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
 import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Initializes and controls connections to Redis cache.
+ * <p>
+ * Tunable client properties:
+ * <ul>
+ *     <li>mvcp.adobe.cache.redis.client: 'template' for the blocking Spring template or 'lettuce' for the asynchronous client</li>
+ *     <li>mvcp.adobe.cache.redis.pipelining: Flushes batches of commands at once instead of one by one</li>
+ *     <li>mvcp.adobe.cache.redis.timeout.milis: Timeout of each Redis command</li>
+ *     <li>mvcp.adobe.cache.redis.io.threads: Number of Netty I/O threads</li>
+ *     <li>mvcp.adobe.cache.redis.computation.threads: Number of threads completing command results</li>
+ *     <li>mvcp.adobe.cache.redis.nodes: Comma-separated 'host:port' list of Redis nodes to shard the Cache over</li>
+ *     <li>mvcp.adobe.cache.redis.node.retry.milis: Time a failed node is skipped before being probed again</li>
+ *     <li>mvcp.adobe.cache.breaker.failures: Consecutive Cache failures that open the circuit breaker</li>
+ *     <li>mvcp.adobe.cache.breaker.probe.milis: Interval between Cache probes while the circuit breaker is open</li>
+ *     <li>mvcp.adobe.cache.disk.path: Directory of the local disk tier for large items, empty to disable it</li>
+ *     <li>mvcp.adobe.cache.disk.segment.bytes: Size of each segment file of the disk tier</li>
+ *     <li>mvcp.adobe.cache.disk.segments: Number of segments kept by the disk tier before the oldest is evicted</li>
+ *     <li>mvcp.adobe.cache.disk.min.bytes: Minimum serialized size of the items kept by the disk tier</li>
+ * </ul>
  *
  * @author      Marcelo Pereira
  * @version     1.0.0
@@ -17,10 +62,49 @@ import org.springframework.data.redis.core.StringRedisTemplate;
  */
 @Configuration
 public class RedisConfig {
+    public static final Logger logger = (Logger) LoggerFactory.getLogger(RedisConfig.class);
+    private static final String CLIENT_PROPERTY = "mvcp.adobe.cache.redis.client";
+    private static final String PIPELINING_PROPERTY = "mvcp.adobe.cache.redis.pipelining";
+    private static final String TIMEOUT_PROPERTY = "mvcp.adobe.cache.redis.timeout.milis";
+    private static final String IO_THREADS_PROPERTY = "mvcp.adobe.cache.redis.io.threads";
+    private static final String COMPUTATION_THREADS_PROPERTY = "mvcp.adobe.cache.redis.computation.threads";
+    private static final String LETTUCE_CLIENT = "lettuce";
+    private static final String NODES_PROPERTY = "mvcp.adobe.cache.redis.nodes";
+    private static final String NODE_RETRY_PROPERTY = "mvcp.adobe.cache.redis.node.retry.milis";
+    private static final long DEFAULT_TIMEOUT_MILIS = 1000;
+    private static final long DEFAULT_NODE_RETRY_MILIS = 5000;
+    private static final String BREAKER_FAILURES_PROPERTY = "mvcp.adobe.cache.breaker.failures";
+    private static final String BREAKER_PROBE_PROPERTY = "mvcp.adobe.cache.breaker.probe.milis";
+    private static final int DEFAULT_BREAKER_FAILURES = 5;
+    private static final long DEFAULT_BREAKER_PROBE_MILIS = 1000;
+    private static final String DISK_PATH_PROPERTY = "mvcp.adobe.cache.disk.path";
+    private static final String DISK_SEGMENT_BYTES_PROPERTY = "mvcp.adobe.cache.disk.segment.bytes";
+    private static final String DISK_SEGMENTS_PROPERTY = "mvcp.adobe.cache.disk.segments";
+    private static final String DISK_MIN_BYTES_PROPERTY = "mvcp.adobe.cache.disk.min.bytes";
+    private static final int DEFAULT_DISK_SEGMENT_BYTES = 64 * 1024 * 1024;
+    private static final int DEFAULT_DISK_SEGMENTS = 16;
+    private static final int DEFAULT_DISK_MIN_BYTES = 64 * 1024;
 
     @Autowired
     private Environment env;
 
+    //Clients of the shard nodes, shut down with the application
+    private final List<RedisClient> nodeClients = new ArrayList<>();
+
+    /**
+     * Shared event loops and thread pools of the Lettuce client.
+     *
+     * @return ClientResources Resources sized from the configuration
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ClientResources clientResources() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        return DefaultClientResources.builder()
+                .ioThreadPoolSize(env.getProperty(IO_THREADS_PROPERTY, Integer.class, processors))
+                .computationThreadPoolSize(env.getProperty(COMPUTATION_THREADS_PROPERTY, Integer.class, processors))
+                .build();
+    }
+
     /**
      * Creates a factory for instancing connections to the target Redis instance.
      *
@@ -28,10 +112,13 @@ public class RedisConfig {
      */
     @Bean
     public RedisConnectionFactory redisConnectionFactory() {
-        LettuceConnectionFactory connectionFactory = new LettuceConnectionFactory();
-        connectionFactory.setHostName(env.getProperty("REDIS_HOST"));
-        connectionFactory.setPort(Integer.parseInt(env.getProperty("REDIS_PORT")));
-        return connectionFactory;
+        RedisStandaloneConfiguration server = new RedisStandaloneConfiguration(
+                env.getProperty("REDIS_HOST"), Integer.parseInt(env.getProperty("REDIS_PORT")));
+        LettuceClientConfiguration client = LettuceClientConfiguration.builder()
+                .clientResources(clientResources())
+                .commandTimeout(getTimeout())
+                .build();
+        return new LettuceConnectionFactory(server, client);
     }
 
     /**
@@ -45,4 +132,132 @@ public class RedisConfig {
         redisTemplate.setConnectionFactory(redisConnectionFactory());
         return redisTemplate;
     }
-}
\ No newline at end of file
+
+    /**
+     * Subscriptions to the cache invalidation channel, through which purges reach every proxy replica,
+     * and to the channel of stored keys, which keeps the KeyFilter of every replica up to date.
+     * They recover by themselves when Redis is not reachable.
+     * A Cache with a local tier is registered as one of the local caches to be notified.
+     *
+     * @param invalidator Listener notifying the local caches
+     * @param keyFilter Listener of the stored keys
+     * @param cache The configured Cache implementation
+     * @return RedisMessageListenerContainer Container of the subscription
+     */
+    @Bean
+    public RedisMessageListenerContainer invalidationListenerContainer(CacheInvalidator invalidator, KeyFilter keyFilter,
+                                                                       @Qualifier("cache") ICache cache) {
+        if (cache instanceof ICacheInvalidationListener) {
+            invalidator.addListener((ICacheInvalidationListener) cache);
+        }
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(redisConnectionFactory());
+        container.addMessageListener(invalidator, new ChannelTopic(CacheInvalidator.CHANNEL));
+        container.addMessageListener(keyFilter, new ChannelTopic(KeyFilter.CHANNEL));
+        return container;
+    }
+
+    /**
+     * Lettuce client for the asynchronous Cache. It only connects when a connection is requested.
+     *
+     * @return RedisClient Client targeting the Redis instance
+     */
+    @Bean(destroyMethod = "shutdown")
+    public RedisClient redisClient() {
+        RedisURI uri = RedisURI.builder()
+                .withHost(env.getProperty("REDIS_HOST"))
+                .withPort(Integer.parseInt(env.getProperty("REDIS_PORT")))
+                .withTimeout(getTimeout())
+                .build();
+        return RedisClient.create(clientResources(), uri);
+    }
+
+    /**
+     * Cache used by the Cache Manager.
+     * When 'mvcp.adobe.cache.redis.nodes' lists Redis nodes, keys are sharded over them.
+     * Otherwise the single Redis instance is used, through the client chosen by 'mvcp.adobe.cache.redis.client'.
+     * Either way, the Cache is wrapped by a circuit breaker that stops calling Redis while it is failing.
+     * When 'mvcp.adobe.cache.disk.path' is set, large items are also kept in a local disk tier in front of it.
+     *
+     * @param redisCache Cache based on the blocking String template
+     * @return ICache The configured Cache implementation
+     */
+    @Bean
+    @Qualifier("cache")
+    public ICache cache(@Qualifier("redis") ICache redisCache) {
+        ICache cache = new CircuitBreakerCache(selectCache(redisCache),
+                env.getProperty(BREAKER_FAILURES_PROPERTY, Integer.class, DEFAULT_BREAKER_FAILURES),
+                env.getProperty(BREAKER_PROBE_PROPERTY, Long.class, DEFAULT_BREAKER_PROBE_MILIS));
+        String path = env.getProperty(DISK_PATH_PROPERTY, "");
+        if (path.trim().isEmpty()) return cache;
+        try {
+            DiskCache disk = new DiskCache(cache, Paths.get(path.trim()),
+                    env.getProperty(DISK_SEGMENT_BYTES_PROPERTY, Integer.class, DEFAULT_DISK_SEGMENT_BYTES),
+                    env.getProperty(DISK_SEGMENTS_PROPERTY, Integer.class, DEFAULT_DISK_SEGMENTS),
+                    env.getProperty(DISK_MIN_BYTES_PROPERTY, Integer.class, DEFAULT_DISK_MIN_BYTES));
+            return disk;
+        } catch (IOException e) {
+            logger.error("+++++Could not open the disk cache at " + path + ", running without it: " + e.getMessage() + "+++++");
+            return cache;
+        }
+    }
+
+    /**
+     * Chooses the Cache implementation from the configuration.
+     *
+     * @param redisCache Cache based on the blocking String template
+     * @return ICache Sharded, Lettuce or template based Cache
+     */
+    private ICache selectCache(ICache redisCache) {
+        String nodes = env.getProperty(NODES_PROPERTY);
+        if (nodes != null && !nodes.trim().isEmpty()) {
+            return shardedCache(nodes);
+        }
+        if (LETTUCE_CLIENT.equalsIgnoreCase(env.getProperty(CLIENT_PROPERTY))) {
+            return new LettuceCache(redisClient(), getTimeout().toMillis(),
+                    env.getProperty(PIPELINING_PROPERTY, Boolean.class, true));
+        }
+        return redisCache;
+    }
+
+    /**
+     * Creates a Cache sharded over a list of Redis nodes, each one with its own client and connections.
+     *
+     * @param nodes Comma-separated 'host:port' list of Redis nodes
+     * @return ShardedCache Cache spreading keys over the nodes
+     */
+    private ShardedCache shardedCache(String nodes) {
+        boolean pipelining = env.getProperty(PIPELINING_PROPERTY, Boolean.class, true);
+        Map<String, ICache> caches = new LinkedHashMap<>();
+        for (String node : nodes.split(",")) {
+            if (node.trim().isEmpty()) continue;
+            String[] hostPort = node.trim().split(":");
+            RedisURI uri = RedisURI.builder()
+                    .withHost(hostPort[0])
+                    .withPort(Integer.parseInt(hostPort[1]))
+                    .withTimeout(getTimeout())
+                    .build();
+            RedisClient client = RedisClient.create(clientResources(), uri);
+            nodeClients.add(client);
+            caches.put(node.trim(), new LettuceCache(client, getTimeout().toMillis(), pipelining));
+        }
+        return new ShardedCache(caches, env.getProperty(NODE_RETRY_PROPERTY, Long.class, DEFAULT_NODE_RETRY_MILIS));
+    }
+
+    /**
+     * Shuts down the clients of the shard nodes.
+     */
+    @PreDestroy
+    public void shutdownNodeClients() {
+        nodeClients.forEach(RedisClient::shutdown);
+    }
+
+    /**
+     * Reads the Redis command timeout from the configuration.
+     *
+     * @return Duration Timeout of each Redis command
+     */
+    private Duration getTimeout() {
+        return Duration.ofMillis(env.getProperty(TIMEOUT_PROPERTY, Long.class, DEFAULT_TIMEOUT_MILIS));
+    }
+}
@@ -0,0 +1,147 @@
+package mvcp.adobe.connection;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Utility class for copying bodies through one reusable buffer per thread.
+ * Each request is handled by a single thread from start to end, so its copies never overlap, and copying a body
+ * no longer allocates a new chunk per call.
+ * Bodies of a known length are read straight into an array of that length, without any intermediate copy.
+ * Lengths announced by the other side are only trusted as a hint, up to MAX_PREALLOCATED bytes.
+ *
+ * @author      Marcelo Pereira
+ * @version     1.0.0
+ * @since       2019-06-14
+ */
+public final class Buffers {
+    public static final int BUFFER_SIZE = 8192;
+    public static final int MAX_PREALLOCATED = 1048576;
+    //Largest array size the JVM allocates
+    private static final int MAX_ARRAY = Integer.MAX_VALUE - 8;
+    private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+
+    private Buffers() {}
+
+    /**
+     * Returns the buffer of the current thread. It must not be kept beyond the current call.
+     *
+     * @return byte[] Buffer of BUFFER_SIZE bytes
+     */
+    public static byte[] get() {
+        return BUFFER.get();
+    }
+
+    /**
+     * Copies a stream until its end, through the buffer of the current thread.
+     *
+     * @param in Source stream
+     * @param out Target stream
+     * @return long Number of bytes copied
+     * @throws IOException Thrown in case a stream cannot be read or written
+     */
+    public static long copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = get();
+        long ret = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+            ret += read;
+        }
+        return ret;
+    }
+
+    /**
+     * Reads exactly length bytes of a stream.
+     *
+     * @param in Source stream
+     * @param length Number of bytes to read
+     * @return byte[] Bytes read
+     * @throws IOException Thrown in case the stream cannot be read or ends before length bytes
+     */
+    public static byte[] readFully(InputStream in, int length) throws IOException {
+        byte[] ret = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            int read = in.read(ret, offset, length - offset);
+            if (read < 0) throw new EOFException("Expected " + length + " bytes, got " + offset);
+            offset += read;
+        }
+        return ret;
+    }
+
+    /**
+     * Reads a stream until its end. The expected length only sizes the first array, so a stream shorter
+     * than announced (e.g. the empty body of a HEAD answer) or longer is read as it is.
+     * When the stream has exactly the expected length, the array is returned without any copy.
+     *
+     * @param in Source stream
+     * @param expected Expected number of bytes, -1 when unknown. At most MAX_PREALLOCATED bytes are allocated upfront.
+     * @return byte[] Bytes read
+     * @throws IOException Thrown in case the stream cannot be read
+     */
+    public static byte[] readToEnd(InputStream in, long expected) throws IOException {
+        return readToEnd(in, expected, -1);
+    }
+
+    /**
+     * Reads a stream until its end or until more than limit bytes were read, whichever comes first.
+     * The caller can tell both cases apart from the length of the result, and keep reading the rest of the stream.
+     *
+     * @param in Source stream
+     * @param expected Expected number of bytes, -1 when unknown. At most MAX_PREALLOCATED bytes are allocated upfront.
+     * @param limit Number of bytes past which the read stops, -1 for no limit
+     * @return byte[] Bytes read: all of them, or more than limit bytes in case the stream is longer
+     * @throws IOException Thrown in case the stream cannot be read
+     */
+    public static byte[] readToEnd(InputStream in, long expected, long limit) throws IOException {
+        byte[] ret = new byte[expected < 0 ? BUFFER_SIZE : (int) Math.min(expected, MAX_PREALLOCATED)];
+        int size = 0;
+        while (true) {
+            if (limit >= 0 && size > limit) return size == ret.length ? ret : Arrays.copyOf(ret, size);
+            if (size == ret.length) {
+                //Probes for more bytes before growing, so a stream of the expected length needs no copy
+                byte[] buffer = get();
+                int read = in.read(buffer);
+                if (read < 0) return ret;
+                if (size > MAX_ARRAY - read) throw new IOException("Body too large to be read: more than " + size + " bytes");
+                ret = Arrays.copyOf(ret, Math.max(size + read, (int) Math.min(MAX_ARRAY, Math.max(BUFFER_SIZE, 2L * size))));
+                System.arraycopy(buffer, 0, ret, size, read);
+                size += read;
+                continue;
+            }
+            int read = in.read(ret, size, ret.length - size);
+            if (read < 0) return size == ret.length ? ret : Arrays.copyOf(ret, size);
+            size += read;
+        }
+    }
+
+    /**
+     * Counts the bytes of the UTF-8 encoding of a text body, without encoding it.
+     * Unpaired surrogates count as one byte, as String.getBytes replaces them with '?'.
+     *
+     * @param text Text body
+     * @return long Number of bytes of its UTF-8 encoding
+     */
+    public static long utf8Length(String text) {
+        int length = text.length();
+        long ret = length;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) continue;
+            if (c < 0x800) {
+                ret++;
+            } else if (!Character.isSurrogate(c)) {
+                ret += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                //Four bytes for the two chars of the pair
+                ret += 2;
+                i++;
+            }
+        }
+        return ret;
+    }
+}
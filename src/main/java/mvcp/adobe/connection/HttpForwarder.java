@@ -1,23 +1,28 @@
 package mvcp.adobe.connection;
 
 import mvcp.adobe.entities.Endpoint;
+import mvcp.adobe.entities.Headers;
 import mvcp.adobe.entities.Request;
 import mvcp.adobe.entities.Response;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.nio.charset.StandardCharsets;
 /**
  * Executes HTTP requests from a Request object targeting a specific Endpoint.
  * It forwards all request's contents, then returns the HTTP Response back to the caller.
+ * The request body is sent as opaque bytes: buffered bodies with a fixed length, streamed bodies with their
+ * announced length or chunked.
+ * Error answers (4xx and 5xx) are returned as responses, read in full with their status and headers (e.g. 'Retry-After'):
+ * the Load Balancer decides whether a server error fails over to another Endpoint.
+ * Answers that never have a body (to HEAD requests, 1xx, 204 and 304) are not read, whatever their 'Content-Length'.
  *
  * @author      Marcelo Pereira
  * @version     1.0.0
@@ -25,6 +30,11 @@ import java.util.Map;
  */
 public class HttpForwarder {
     public static final Logger logger = (Logger) LoggerFactory.getLogger(HttpForwarder.class);
+    private static final String CONTENT_LENGTH = "Content-Length";
+    private static final String CONNECTION = "Connection";
+    private static final String HEAD = "HEAD";
+    private static final int NO_CONTENT = 204;
+    private static final int NOT_MODIFIED = 304;
 
     /**
      * Executes any HTTP request types by converting the internal Request object into a real HTTP request.
@@ -35,49 +45,162 @@ public class HttpForwarder {
      * @throws IOException Thrown when there is a problem for executing the HTTP request
      */
     public static Response execute(Request r, Endpoint e) throws IOException {
+        return execute(r, e, 0);
+    }
+
+    /**
+     * Executes any HTTP request types by converting the internal Request object into a real HTTP request.
+     * Successful responses announcing a 'Content-Length' above the given size are not read:
+     * their body is left as a stream, to be copied straight to the client without buffering.
+     * Those of unknown length (chunked) are read until they cross the given size, and then streamed too:
+     * the bytes already read are sent first, followed by the rest of the body.
+     *
+     * @param r Request that should be executed
+     * @param e Endpoint that should receive the HTTP request
+     * @param streamAbove Body size above which the response is streamed, 0 to always read it
+     * @return Response HTTP response received from the endpoint.
+     * @throws IOException Thrown when there is a problem for executing the HTTP request
+     */
+    public static Response execute(Request r, Endpoint e, long streamAbove) throws IOException {
         //Request
-        String url = "http://" + e.getIp() + ":" + e.getPort() + r.getPath();
+        String url = e.getBaseUrl() + r.getTarget();
         URL urlObj = new URL(url);
         HttpURLConnection con = (HttpURLConnection) urlObj.openConnection();
         con.setRequestMethod(r.getMethod());
-        logger.info(r.getMethod() + " " + url);
+        logger.debug("{} {}", r.getMethod(), url);
 
-        //Request headers
-        for (String key : r.getHeaders().keySet()) {
-            con.setRequestProperty(key, r.getHeaders().get(key));
-        }
+        //Request headers, every value of multi-valued ones
+        if (r.getHeaders() != null) r.getHeaders().forEach(con::addRequestProperty);
 
-        //Request Body
-        if (r.getBody() != null && r.getBody().size() > 0) {
-            logger.info(r.stringifyBody());
+        //Request Body, forwarded as is along with its original Content-Type
+        if (r.getBody() != null && r.getBody().length > 0) {
+            logger.debug("Forwarding {} body bytes", r.getBody().length);
+            con.setDoOutput(true);
+            con.setFixedLengthStreamingMode(r.getBody().length);
+            try (OutputStream out = con.getOutputStream()) {
+                out.write(r.getBody());
+            }
+        } else if (r.isStreamed()) {
+            long length = getContentLength(r);
+            if (length < 0) logger.debug("Streaming body of unknown length");
+            else logger.debug("Streaming body of {} bytes", length);
             con.setDoOutput(true);
-            DataOutputStream wr = new DataOutputStream(con.getOutputStream());
-            wr.writeBytes(r.jsonBody());
-            wr.flush();
-            wr.close();
+            if (length >= 0) con.setFixedLengthStreamingMode(length);
+            else con.setChunkedStreamingMode(Buffers.BUFFER_SIZE);
+            try (OutputStream out = con.getOutputStream()) {
+                Buffers.copy(r.getBodyStream(), out);
+            }
         }
 
-        //Response Body
-        BufferedReader in = new BufferedReader(new InputStreamReader(con.getInputStream()));
-        String inputLine;
-        StringBuffer response = new StringBuffer();
-        while ((inputLine = in.readLine()) != null) {
-            response.append(inputLine);
+        //Bodyless answers may announce the length of the representation, which must not be read
+        int status = con.getResponseCode();
+        if (!hasBody(r, status)) {
+            logger.debug("Response {}: no body", status);
+            Response s = new Response();
+            s.setStatus(status);
+            s.setHeaders(getHeaders(con));
+            s.setBody("");
+            return s;
+        }
+
+        //Large responses are streamed
+        if (streamAbove > 0 && status < 400 && con.getContentLengthLong() > streamAbove) {
+            logger.debug("Response {}: streaming {} bytes", status, con.getContentLengthLong());
+            Response s = new Response();
+            s.setStatus(status);
+            s.setHeaders(getHeaders(con));
+            s.setStream(con.getInputStream());
+            return s;
         }
-        in.close();
-        logger.info("Response " + con.getResponseCode() + ": " + response.toString());
 
-        //Response Headers
-        Map<String,String> headers = new HashMap<>();
-        for (String key : con.getHeaderFields().keySet()) {
-            List<String> values = con.getHeaderFields().get(key);
-            headers.put(key, String.join(",", values));
+        //Response Body
+        //Error answers are read from the error stream, getInputStream throws on them
+        InputStream stream = status >= 400 ? con.getErrorStream() : con.getInputStream();
+        long limit = streamAbove > 0 && status < 400 ? streamAbove : -1;
+        //Read as bytes, so the body keeps its line breaks
+        byte[] body = stream == null ? new byte[0] : readBody(stream, con.getContentLengthLong(), limit);
+        if (limit >= 0 && body.length > limit) {
+            logger.debug("Response {}: streaming body crossing {} bytes", status, limit);
+            Response s = new Response();
+            s.setStatus(status);
+            s.setHeaders(getHeaders(con));
+            s.setStream(new SequenceInputStream(new ByteArrayInputStream(body), stream));
+            return s;
         }
+        logger.debug("Response {}: {} bytes", status, body.length);
 
         Response s = new Response();
-        s.setStatus(con.getResponseCode());
-        s.setHeaders(headers);
-        s.setBody(response.toString());
+        s.setStatus(status);
+        s.setHeaders(getHeaders(con));
+        s.setBody(new String(body, StandardCharsets.UTF_8));
         return s;
     }
+
+    /**
+     * Reads the announced length of a request body.
+     *
+     * @param r Request with a body
+     * @return long Value of the Content-Length header or -1 in case it is absent or invalid
+     */
+    private static long getContentLength(Request r) {
+        String value = r.getHeader(CONTENT_LENGTH);
+        if (value == null) return -1;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Verifies if a response may have a body (RFC 7230, section 3.3.3).
+     *
+     * @param r Request that was executed
+     * @param status Status of the response
+     * @return boolean False for answers to HEAD requests and for 1xx, 204 and 304 answers
+     */
+    private static boolean hasBody(Request r, int status) {
+        return !HEAD.equalsIgnoreCase(r.getMethod()) && status >= 200 && status != NO_CONTENT && status != NOT_MODIFIED;
+    }
+
+    /**
+     * Reads a response body until its end, or until it crosses the limit. The announced length only sizes the first buffer
+     * (up to Buffers.MAX_PREALLOCATED), so a wrong or huge 'Content-Length' neither fails the read nor allocates its size upfront.
+     *
+     * @param stream Body stream, closed once read, left open when the body crosses the limit
+     * @param length Value of the Content-Length header, -1 when unknown
+     * @param limit Number of bytes past which the read stops, -1 for no limit
+     * @return byte[] Body bytes, more than limit bytes in case the rest of the body is still in the stream
+     * @throws IOException Thrown in case the body cannot be read
+     */
+    private static byte[] readBody(InputStream stream, long length, long limit) throws IOException {
+        byte[] ret;
+        try {
+            ret = Buffers.readToEnd(stream, length, limit);
+        } catch (IOException e) {
+            stream.close();
+            throw e;
+        }
+        if (limit < 0 || ret.length <= limit) stream.close();
+        return ret;
+    }
+
+    /**
+     * Reads the response headers of a connection, in their received order.
+     * The status line (which has no name) and the hop-by-hop headers are left out, and each value of
+     * a repeated header (e.g. 'Set-Cookie') is kept on its own.
+     *
+     * @param con Connection that received the response
+     * @return Headers Response headers
+     */
+    private static Headers getHeaders(HttpURLConnection con) {
+        Headers headers = new Headers();
+        String connection = con.getHeaderField(CONNECTION);
+        String name;
+        for (int i = 0; (name = con.getHeaderFieldKey(i)) != null || con.getHeaderField(i) != null; i++) {
+            if (name == null || Headers.isHopByHop(name, connection)) continue;
+            headers.add(name, con.getHeaderField(i));
+        }
+        return headers;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,162 @@
+package mvcp.adobe.controllers;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import mvcp.adobe.components.CacheManager;
+import mvcp.adobe.components.HotKeyCache;
+import mvcp.adobe.entities.Request;
+import mvcp.adobe.exceptions.CacheNotAvailableException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletRequest;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Administration endpoints of the Reverse Proxy, mapped under 'mvcp.adobe.admin.path' (default '/_proxy').
+ * <p>
+ * Endpoints:
+ * <ul>
+ *     <li>DELETE {admin path}/cache?url=host/path: Purges the cached item of a URL</li>
+ *     <li>DELETE {admin path}/cache?prefix=host/path: Purges the cached items of all URLs starting with a prefix</li>
+ *     <li>DELETE {admin path}/cache?tag=name: Purges the cached items tagged with a surrogate key</li>
+ *     <li>GET {admin path}/cache/hot: Lists the most requested cache keys of the last window, with their rates</li>
+ * </ul>
+ * Requests must send the token set in 'mvcp.adobe.admin.token' in the 'X-Admin-Token' header.
+ * While no token is set, the administration endpoints (and PURGE requests) are disabled and answered with a 403.
+ *
+ * @author      Marcelo Pereira
+ * @version     1.0.0
+ * @since       2019-06-13
+ */
+@RestController
+@RequestMapping("${mvcp.adobe.admin.path:/_proxy}")
+public class AdminController {
+    public static final Logger logger = (Logger) LoggerFactory.getLogger(AdminController.class);
+    private static final Gson GSON = new GsonBuilder().disableHtmlEscaping().create();
+    static final String TOKEN_HEADER = "X-Admin-Token";
+    private static final String TOKEN_PROPERTY = "mvcp.adobe.admin.token";
+    //Protocol version of the purged items, as cached from HTTP/1.1 requests
+    private static final String HTTP_VERSION = "1.1";
+
+    @Autowired
+    private Environment env;
+
+    @Autowired
+    private CacheManager cache;
+
+    @Autowired
+    private HotKeyCache hotKeys;
+
+    /**
+     * Purges cached items by URL, URL prefix or surrogate key.
+     *
+     * @param url URL ('host/path') of the item to be purged
+     * @param prefix URL prefix of the items to be purged
+     * @param tag Surrogate key of the items to be purged
+     * @param r HTTPServletRequest Context object containing information about the HTTP request
+     * @return ResponseEntity Number of purged items, in JSON
+     */
+    @RequestMapping(value = "/cache", method = RequestMethod.DELETE)
+    public ResponseEntity<Object> purge(@RequestParam(value = "url", required = false) String url,
+                                        @RequestParam(value = "prefix", required = false) String prefix,
+                                        @RequestParam(value = "tag", required = false) String tag,
+                                        HttpServletRequest r) {
+        if (!isAuthorized(r, env)) return forbidden(env);
+        try {
+            int purged;
+            if (url != null) {
+                int question = url.indexOf('?');
+                String target = question < 0 ? url : url.substring(0, question);
+                int slash = target.indexOf('/');
+                Map<String, String> headers = new HashMap<>();
+                headers.put("host", slash < 0 ? target : target.substring(0, slash));
+                Request request = new Request(HTTP_VERSION, "GET", slash < 0 ? "/" : target.substring(slash), headers, null);
+                if (question >= 0) request.setQuery(url.substring(question + 1));
+                purged = cache.purge(request);
+            } else if (prefix != null) {
+                //An empty prefix would match, and purge, every cached item
+                if (prefix.trim().isEmpty()) {
+                    return new ResponseEntity<>("'prefix' must not be empty", null, HttpStatus.BAD_REQUEST);
+                }
+                purged = cache.purgeByPrefix(prefix);
+            } else if (tag != null) {
+                if (tag.trim().isEmpty()) {
+                    return new ResponseEntity<>("'tag' must not be empty", null, HttpStatus.BAD_REQUEST);
+                }
+                purged = cache.purgeByTag(tag);
+            } else {
+                return new ResponseEntity<>("One of 'url', 'prefix' or 'tag' is required", null, HttpStatus.BAD_REQUEST);
+            }
+            return purged(purged);
+        } catch (CacheNotAvailableException e) {
+            return new ResponseEntity<>(e.getMessage(), null, HttpStatus.SERVICE_UNAVAILABLE);
+        }
+    }
+
+    /**
+     * Lists the top cache keys of this replica, with their request rates and whether they are pinned locally.
+     *
+     * @param r HTTPServletRequest Context object containing information about the HTTP request
+     * @return ResponseEntity Top keys, in JSON
+     */
+    @RequestMapping(value = "/cache/hot", method = RequestMethod.GET)
+    public ResponseEntity<Object> hotKeys(HttpServletRequest r) {
+        if (!isAuthorized(r, env)) return forbidden(env);
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        return new ResponseEntity<>(GSON.toJson(hotKeys.getTop()), headers, HttpStatus.OK);
+    }
+
+    /**
+     * Builds the answer of a purge.
+     *
+     * @param purged Number of purged items
+     * @return ResponseEntity Number of purged items, in JSON
+     */
+    static ResponseEntity<Object> purged(int purged) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        return new ResponseEntity<>("{\"purged\":" + purged + "}", headers, HttpStatus.OK);
+    }
+
+    /**
+     * Builds the answer of a request denied by isAuthorized.
+     *
+     * @param env Environment holding the configured token
+     * @return ResponseEntity 403 telling whether the token is wrong or the administration endpoints are disabled
+     */
+    static ResponseEntity<Object> forbidden(Environment env) {
+        String token = env.getProperty(TOKEN_PROPERTY);
+        if (token == null || token.trim().isEmpty()) {
+            return new ResponseEntity<>("Administration is disabled: no admin token is configured", null, HttpStatus.FORBIDDEN);
+        }
+        return new ResponseEntity<>("Invalid admin token", null, HttpStatus.FORBIDDEN);
+    }
+
+    /**
+     * Verifies the admin token of a request. Every request is denied while no token is configured.
+     *
+     * @param r HTTPServletRequest Context object containing information about the HTTP request
+     * @param env Environment holding the configured token
+     * @return boolean True in case a token is configured and the request sends it
+     */
+    static boolean isAuthorized(HttpServletRequest r, Environment env) {
+        String token = env.getProperty(TOKEN_PROPERTY);
+        if (token == null || token.trim().isEmpty()) return false;
+        String sent = r.getHeader(TOKEN_HEADER);
+        return sent != null && MessageDigest.isEqual(sent.getBytes(), token.getBytes());
+    }
+}
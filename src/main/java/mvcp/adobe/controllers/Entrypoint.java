@@ -1,7 +1,14 @@
 package mvcp.adobe.controllers;
 
+import mvcp.adobe.components.AccessLog;
 import mvcp.adobe.components.CacheManager;
+import mvcp.adobe.connection.Buffers;
+import mvcp.adobe.entities.AccessLogRecord;
+import mvcp.adobe.entities.ByteRange;
+import mvcp.adobe.entities.CacheFreshness;
+import mvcp.adobe.entities.Compression;
 import mvcp.adobe.entities.Request;
+import mvcp.adobe.enums.CacheStatus;
 import mvcp.adobe.exceptions.CacheNotAvailableException;
 import mvcp.adobe.exceptions.NoAvailableEndpointsException;
 import mvcp.adobe.proxy.ReverseProxy;
@@ -11,13 +18,21 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.env.Environment;
+import org.springframework.core.io.InputStreamResource;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import javax.annotation.PostConstruct;
 import javax.servlet.http.HttpServletRequest;
-import java.util.Map;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Entrypoint is the unique controller of the Reverse Proxy application.
@@ -34,9 +49,21 @@ import java.util.Map;
  * <li>Askes if Cache Manager can handle it.
  * <li>In case yes, asks Cache Manager for the cached data.
  * <li>In case no, asks Reverse Proxy to fetch the data.
- * <li>If proxy returns data, asks Cache to store it
+ * <li>If proxy returns data, asks Cache to store it in background
+ * <li>If proxy has no available endpoints, asks Cache for a stale copy of the data
  * <li>Returns the response from Cache or Proxy
  * </ol>
+ * <p>
+ * A request with the PURGE method is not forwarded: it purges the cached item of its URL instead.
+ * <p>
+ * Cached responses carry the ETag of the origin or, when it gave none, the validator computed by the proxy.
+ * Gzip encoded responses carry that tag with a '-gzip' suffix, as they are a different representation.
+ * Conditional requests matching a fresh cached response are answered with a 304, without a body.
+ * <p>
+ * Range requests hitting a cached response are answered with the requested bytes of its body (206), honoring If-Range.
+ * <p>
+ * Cached responses kept gzip compressed are sent without decompression to clients accepting gzip.
+ * Responses too large to be cached are copied from the Service to the client as a stream.
  *
  * @author      Marcelo Pereira
  * @version     1.0.0
@@ -46,6 +73,11 @@ import java.util.Map;
 @RestController
 public class Entrypoint {
     public static final Logger logger = (Logger) LoggerFactory.getLogger(Entrypoint.class);
+    private static final String PURGE = "PURGE";
+    private static final String REQUEST_BUFFER_PROPERTY = "mvcp.adobe.proxy.request.buffer.bytes";
+    private static final int DEFAULT_REQUEST_BUFFER = 1048576;
+    //Character decoded in place of bytes that are not valid UTF-8
+    private static final char REPLACEMENT_CHARACTER = '\uFFFD';
 
     /**
      * Injection for getting environment variables
@@ -65,44 +97,108 @@ public class Entrypoint {
     @Autowired
     private CacheManager cache;
 
+    /**
+     * Access log receiving one record per request
+     */
+    @Autowired
+    private AccessLog accessLog;
+
+    private int requestBuffer = DEFAULT_REQUEST_BUFFER;
+
+    /**
+     * Reads the largest buffered request body from the configuration, once instead of on every request.
+     */
+    @PostConstruct
+    public void init() {
+        requestBuffer = env.getProperty(REQUEST_BUFFER_PROPERTY, Integer.class, DEFAULT_REQUEST_BUFFER);
+    }
+
 
     /**
      * Captures all incoming HTTP requests.
      * The requests are processed into internal structure, then forwarded to the target Service where it will be
      * load-balaced. Finally, receives and returns back the response to the caller.
      *
-     * This endpoint captures all HTTP method requests.
+     * This endpoint captures all HTTP method requests. The body is read as raw bytes, whatever its content type,
+     * and forwarded as is; bodies above 'mvcp.adobe.proxy.request.buffer.bytes' are streamed to the Service.
+     *
+     * Each request adds one record to the access log, once its response is ready.
      *
-     * @param body Map  Payload of the request
      * @param r HTTPServletRequest Context object containing information about the HTTP request
      * @return ResponseEntity HTTP response
      */
     @RequestMapping(value = "**")
-    public ResponseEntity<String> get(@RequestBody(required = false) Map<String, String> body, HttpServletRequest r) {
+    public ResponseEntity<Object> get(HttpServletRequest r) {
+        long start = System.nanoTime();
+        AccessLogRecord record = new AccessLogRecord(System.currentTimeMillis());
+        ResponseEntity<Object> ret = process(r, record);
+        record.setTotalMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        record.setStatus(ret == null ? HttpStatus.INTERNAL_SERVER_ERROR.value() : ret.getStatusCodeValue());
+        record.setSize(ret == null ? -1 : sizeOf(ret.getBody()));
+        accessLog.log(record);
+        return ret;
+    }
+
+    /**
+     * Handles a request, filling its access log record.
+     *
+     * @param r HTTPServletRequest Context object containing information about the HTTP request
+     * @param record Access log record of the request
+     * @return ResponseEntity HTTP response
+     */
+    private ResponseEntity<Object> process(HttpServletRequest r, AccessLogRecord record) {
+        Request req = null;
         try {
-            Request req = Request.fromContextRequest(r, body);
+            req = Request.fromContextRequest(r, requestBuffer);
+            if (PURGE.equalsIgnoreCase(req.getMethod())) {
+                req.setCacheStatus(CacheStatus.PURGE);
+                return purge(req, r);
+            }
             Response response = null;
+            boolean hit = false;
+            long lookup = System.nanoTime();
             try {
                 response = cache.getCached(req);
+                record.setCacheMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lookup));
                 if (response != null) {
-                    logger.info("+++++CACHE HIT+++++");
+                    hit = true;
+                    logger.debug("+++++CACHE HIT+++++");
                 } else {
-                    logger.info("+++++CACHE MISS+++++");
-                    response = proxy.processRequest(req);
-                    cache.store(req, response);
+                    logger.debug("+++++CACHE MISS+++++");
+                    response = fetch(req);
                 }
             } catch (CacheNotAvailableException cnae) {
-                logger.info("+++++Cache server not available.+++++");
-                logger.info("+++++TRACE: (" + cnae.getMessage() + ")+++++");
+                record.setCacheMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lookup));
+                logger.info("+++++Cache server not available: {}+++++", cnae.getMessage());
+                req.setCacheStatus(CacheStatus.UNAVAILABLE);
                 response = proxy.processRequest(req);
             }
+            record.setResponse(response);
 
             HttpHeaders headers = new HttpHeaders();
-            if (response.getHeaders() != null) {
-                for (String key : response.getHeaders().keySet()) {
-                    String value = response.getHeaders().get(key);
-                    if (key == null) continue;
-                    headers.set(key, value);
+            if (response.getHeaders() != null) response.getHeaders().forEach(headers::add);
+            if (response.getValidator() != null && headers.getETag() == null) {
+                headers.setETag(response.getValidator());
+            }
+            if (response.getStatus() == HttpStatus.NOT_MODIFIED.value() && isGzipTagRequested(req, headers.getETag())) {
+                headers.set(HttpHeaders.ETAG, Compression.gzipTag(headers.getETag()));
+            }
+            if (hit && response.getStatus() == HttpStatus.OK.value() && response.getBody() != null) {
+                headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+                ResponseEntity<Object> partial = ranged(req, response, headers);
+                if (partial != null) return partial;
+            }
+            if (response.getStream() != null) {
+                return new ResponseEntity<>(new InputStreamResource(response.getStream()), headers, HttpStatus.resolve(response.getStatus()));
+            }
+            if (response.getCodec() != null) {
+                headers.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+                byte[] encoded = acceptsGzip(req) ? response.getEncodedBody(Compression.GZIP) : null;
+                if (encoded != null) {
+                    headers.set(HttpHeaders.CONTENT_ENCODING, Compression.GZIP);
+                    if (headers.getETag() != null) headers.set(HttpHeaders.ETAG, Compression.gzipTag(headers.getETag()));
+                    headers.remove(HttpHeaders.CONTENT_LENGTH);
+                    return new ResponseEntity<>(encoded, headers, HttpStatus.resolve(response.getStatus()));
                 }
             }
             return new ResponseEntity<>(response.getBody(), headers, HttpStatus.resolve(response.getStatus()));
@@ -112,7 +208,218 @@ public class Entrypoint {
             return new ResponseEntity<>(e.getMessage(), null, HttpStatus.NOT_FOUND);
         } catch (NoAvailableEndpointsException e) {
             return new ResponseEntity<>(e.getMessage(), null, HttpStatus.INTERNAL_SERVER_ERROR);
+        } finally {
+            if (req != null) record.setRequest(req);
         }
         return null;
     }
+
+    /**
+     * Returns the size of a response body for the access log.
+     *
+     * @param body Body of the response entity
+     * @return long Bytes of the body, as sent in UTF-8 for text bodies, 0 without body and -1 for streamed bodies
+     */
+    private static long sizeOf(Object body) {
+        if (body == null) return 0;
+        if (body instanceof byte[]) return ((byte[]) body).length;
+        if (body instanceof String) return Buffers.utf8Length((String) body);
+        return -1;
+    }
+
+    /**
+     * Purges the cached item of the URL of a PURGE request.
+     *
+     * @param req Incoming request
+     * @param r HTTPServletRequest Context object containing information about the HTTP request
+     * @return ResponseEntity Number of purged items, in JSON
+     */
+    private ResponseEntity<Object> purge(Request req, HttpServletRequest r) {
+        if (!AdminController.isAuthorized(r, env)) return AdminController.forbidden(env);
+        try {
+            return AdminController.purged(cache.purge(req));
+        } catch (CacheNotAvailableException e) {
+            return new ResponseEntity<>(e.getMessage(), null, HttpStatus.SERVICE_UNAVAILABLE);
+        }
+    }
+
+    /**
+     * Answers a Range request from the body of a cached response (RFC 7233).
+     * A single range is sent as a 206 with its Content-Range, several ranges as a 206 'multipart/byteranges' body,
+     * and ranges beyond the body as a 416. Ranges are sliced from the plain body, never from its gzip encoding.
+     * The body is kept as text, so ranges are only sent when its bytes are the ones received from the origin:
+     * a body that was not valid UTF-8 is sent in full.
+     *
+     * @param req Incoming request
+     * @param response Cached response with status 200
+     * @param headers Headers of the cached response
+     * @return ResponseEntity Partial response or null in case the full response must be sent
+     */
+    private ResponseEntity<Object> ranged(Request req, Response response, HttpHeaders headers) {
+        if (!req.getMethod().equalsIgnoreCase(HttpMethod.GET.name()) || !isRangeCurrent(req, response)) return null;
+        byte[] body = response.getBody().getBytes(StandardCharsets.UTF_8);
+        if (!isVerbatim(response, body)) return null;
+        List<ByteRange> ranges = ByteRange.parse(req.getHeader(HttpHeaders.RANGE), body.length);
+        if (ranges == null) return null;
+        headers.remove(HttpHeaders.CONTENT_LENGTH);
+        if (ranges.isEmpty()) {
+            headers.set(HttpHeaders.CONTENT_RANGE, "bytes */" + body.length);
+            return new ResponseEntity<>(new byte[0], headers, HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+        }
+        if (ranges.size() == 1) {
+            ByteRange range = ranges.get(0);
+            headers.set(HttpHeaders.CONTENT_RANGE, range.toContentRange(body.length));
+            return new ResponseEntity<>(slice(body, range), headers, HttpStatus.PARTIAL_CONTENT);
+        }
+        String boundary = UUID.randomUUID().toString().replace("-", "");
+        String contentType = headers.getFirst(HttpHeaders.CONTENT_TYPE);
+        ByteArrayOutputStream multipart = new ByteArrayOutputStream();
+        for (ByteRange range : ranges) {
+            String part = "\r\n--" + boundary + "\r\n"
+                    + (contentType != null ? HttpHeaders.CONTENT_TYPE + ": " + contentType + "\r\n" : "")
+                    + HttpHeaders.CONTENT_RANGE + ": " + range.toContentRange(body.length) + "\r\n\r\n";
+            multipart.write(part.getBytes(StandardCharsets.US_ASCII), 0, part.length());
+            multipart.write(body, (int) range.getFirst(), (int) range.getLength());
+        }
+        String end = "\r\n--" + boundary + "--\r\n";
+        multipart.write(end.getBytes(StandardCharsets.US_ASCII), 0, end.length());
+        headers.set(HttpHeaders.CONTENT_TYPE, "multipart/byteranges; boundary=" + boundary);
+        return new ResponseEntity<>(multipart.toByteArray(), headers, HttpStatus.PARTIAL_CONTENT);
+    }
+
+    /**
+     * Verifies if the bytes of a body are the ones received from the origin. Bytes that were not valid UTF-8
+     * were decoded into replacement characters, and the origin 'Content-Length' no longer matches.
+     *
+     * @param response Cached response
+     * @param body UTF-8 bytes of its body
+     * @return boolean True in case offsets in the body are offsets in the origin representation
+     */
+    private static boolean isVerbatim(Response response, byte[] body) {
+        if (response.getBody().indexOf(REPLACEMENT_CHARACTER) >= 0) return false;
+        String length = response.getHeader(HttpHeaders.CONTENT_LENGTH);
+        return length == null || length.trim().equals(Integer.toString(body.length));
+    }
+
+    private static byte[] slice(byte[] body, ByteRange range) {
+        return Arrays.copyOfRange(body, (int) range.getFirst(), (int) range.getLast() + 1);
+    }
+
+    /**
+     * Verifies the If-Range header of a request: ranges are only sent when the client copy is the cached one.
+     * An entity tag is compared strongly to the ETag of the origin and to the validator of the proxy,
+     * and a date must be exactly the Last-Modified date of the response. Ranges are sliced from the plain body,
+     * so the tag of the gzip encoded representation does not match and the full response is sent.
+     *
+     * @param req Incoming request
+     * @param response Cached response
+     * @return boolean True in case there is no If-Range or it matches the cached response
+     */
+    private boolean isRangeCurrent(Request req, Response response) {
+        String ifRange = req.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) return true;
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("W/")) return false;
+        if (ifRange.startsWith("\"")) {
+            return ifRange.equals(response.getHeader(HttpHeaders.ETAG)) || ifRange.equals(response.getValidator());
+        }
+        long date = CacheFreshness.parseHttpDate(ifRange);
+        return date >= 0 && date == CacheFreshness.parseHttpDate(response.getHeader(HttpHeaders.LAST_MODIFIED));
+    }
+
+    /**
+     * Verifies if a client revalidated the gzip encoded representation of a response, so its 304 carries the same tag.
+     *
+     * @param req Incoming request
+     * @param etag Entity tag of the plain representation
+     * @return boolean True in case If-None-Match lists the tag of the gzip encoded representation
+     */
+    private static boolean isGzipTagRequested(Request req, String etag) {
+        String ifNoneMatch = req.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch == null || etag == null) return false;
+        String gzipTag = weakless(Compression.gzipTag(etag));
+        for (String tag : ifNoneMatch.split(",")) {
+            if (weakless(tag.trim()).equals(gzipTag)) return true;
+        }
+        return false;
+    }
+
+    private static String weakless(String tag) {
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+
+    /**
+     * Verifies if the client accepts gzip encoded responses, from its 'Accept-Encoding' header.
+     *
+     * @param req Incoming request
+     * @return boolean True in case gzip (or any coding) is accepted with a non-zero quality
+     */
+    private boolean acceptsGzip(Request req) {
+        String accept = req.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        if (accept == null) return false;
+        for (String coding : accept.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim();
+            if (!name.equalsIgnoreCase(Compression.GZIP) && !name.equals("*")) continue;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        if (Double.parseDouble(param.substring(2)) == 0) return false;
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Fetches a response from the Reverse Proxy and queues it for storage in the Cache.
+     * In case the target Service has no available Endpoints or answers with a server error, falls back to a stale
+     * cached response. Without one, the failure is cached in the negative cache.
+     *
+     * @param req Request to be executed
+     * @return Response Response from the Proxy or stale response from Cache
+     * @throws ServiceHostNotFoundException Thrown when the request does not specify the target domain
+     * @throws NoAvailableEndpointsException Thrown when no Endpoint is available and there is no usable stale response
+     * @throws CacheNotAvailableException Thrown when no Cache mechanism is available
+     */
+    private Response fetch(Request req) throws ServiceHostNotFoundException, NoAvailableEndpointsException, CacheNotAvailableException {
+        try {
+            Response response = proxy.processRequest(req);
+            if (CacheManager.isServerError(response)) {
+                Response stale = getStale(req);
+                if (stale != null) return stale;
+            }
+            //Server errors keep the status and headers of the origin, and are negative-cached with the TTL of their status
+            cache.storeAsync(req, response);
+            return response;
+        } catch (NoAvailableEndpointsException e) {
+            Response stale = getStale(req);
+            if (stale == null) {
+                cache.storeFailure(req, e.getMessage());
+                throw e;
+            }
+            return stale;
+        }
+    }
+
+    /**
+     * Returns a stale cached copy of a request whose Service failed, within its stale-if-error window.
+     *
+     * @param req Incoming request
+     * @return Response Stale cached response or null in case there is none
+     * @throws CacheNotAvailableException Thrown when no Cache mechanism is available
+     */
+    private Response getStale(Request req) throws CacheNotAvailableException {
+        Response stale = cache.getStaleIfError(req);
+        if (stale != null) {
+            logger.info("+++++Service unavailable, serving stale cache item+++++");
+            req.setCacheStatus(CacheStatus.STALE);
+        }
+        return stale;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,182 @@
+package mvcp.adobe.entities;
+
+import mvcp.adobe.enums.CacheStatus;
+
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * AccessLogRecord is the access log entry of one request.
+ * It is filled on the request thread with references only, and formatted later by the access log writer.
+ * <p>
+ * Formatted as one line of tab-separated fields, '-' standing for missing values:
+ * <ol>
+ *     <li>time: ISO-8601 UTC time the request arrived</li>
+ *     <li>method, host and target ('path?query') of the request</li>
+ *     <li>status: HTTP status sent to the client</li>
+ *     <li>cache: Cache outcome (see CacheStatus)</li>
+ *     <li>endpoint: 'ip:port' of the Endpoint that answered, if any</li>
+ *     <li>attempts: Number of Endpoints tried, retries included</li>
+ *     <li>total, cache and upstream: Milliseconds spent handling the request, looking up the Cache and
+ *     waiting for the Endpoint</li>
+ *     <li>size: Length of the body sent, in bytes (characters for text bodies), '-' for streamed bodies</li>
+ * </ol>
+ *
+ * @author      Marcelo Pereira
+ * @version     1.0.0
+ * @since       2019-06-14
+ */
+public class AccessLogRecord {
+    private static final char SEPARATOR = '\t';
+    private static final char MISSING = '-';
+
+    private final long time;
+    private String method;
+    private String host;
+    private String path;
+    private String query;
+    private int status;
+    private CacheStatus cacheStatus;
+    private Endpoint endpoint;
+    private int attempts;
+    private long totalMillis;
+    private long cacheMillis;
+    private long upstreamMillis;
+    private long size = -1;
+
+    /**
+     * @param time Epoch milliseconds the request arrived
+     */
+    public AccessLogRecord(long time) {
+        this.time = time;
+    }
+
+    /**
+     * Copies the request line and cache outcome of a request.
+     *
+     * @param request Incoming request
+     */
+    public void setRequest(Request request) {
+        this.method = request.getMethod();
+        this.host = request.getHostHeader();
+        this.path = request.getPath();
+        this.query = request.getQuery();
+        this.cacheStatus = request.getCacheStatus();
+    }
+
+    /**
+     * Copies the Endpoint, attempts and upstream time of a response.
+     *
+     * @param response Response sent to the client
+     */
+    public void setResponse(Response response) {
+        this.endpoint = response.getEndpoint();
+        this.attempts = response.getAttempts();
+        this.upstreamMillis = response.getElapsed();
+    }
+
+    /**
+     * Appends the record as a line, without its line break.
+     *
+     * @param line Target of the formatted record
+     * @return StringBuilder The given line
+     */
+    public StringBuilder format(StringBuilder line) {
+        DateTimeFormatter.ISO_INSTANT.formatTo(Instant.ofEpochMilli(time), line);
+        line.append(SEPARATOR);
+        append(line, method).append(SEPARATOR);
+        append(line, host).append(SEPARATOR);
+        if (path == null) line.append(MISSING);
+        else append(line, query == null || query.isEmpty() ? path : path + "?" + query);
+        line.append(SEPARATOR).append(status).append(SEPARATOR);
+        if (cacheStatus == null) line.append(MISSING);
+        else line.append(cacheStatus.name());
+        line.append(SEPARATOR);
+        if (endpoint == null) line.append(MISSING);
+        else append(line, endpoint.toString());
+        line.append(SEPARATOR).append(attempts)
+                .append(SEPARATOR).append(totalMillis)
+                .append(SEPARATOR).append(cacheMillis)
+                .append(SEPARATOR).append(upstreamMillis)
+                .append(SEPARATOR);
+        if (size < 0) line.append(MISSING);
+        else line.append(size);
+        return line;
+    }
+
+    /**
+     * Appends a value, replacing control characters so a value never splits a field or a line.
+     */
+    private static StringBuilder append(StringBuilder line, String value) {
+        if (value == null || value.isEmpty()) return line.append(MISSING);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            line.append(c < ' ' || c == 127 ? '?' : c);
+        }
+        return line;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    public CacheStatus getCacheStatus() {
+        return cacheStatus;
+    }
+
+    public void setCacheStatus(CacheStatus cacheStatus) {
+        this.cacheStatus = cacheStatus;
+    }
+
+    public Endpoint getEndpoint() {
+        return endpoint;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public long getTotalMillis() {
+        return totalMillis;
+    }
+
+    public void setTotalMillis(long totalMillis) {
+        this.totalMillis = totalMillis;
+    }
+
+    public long getCacheMillis() {
+        return cacheMillis;
+    }
+
+    public void setCacheMillis(long cacheMillis) {
+        this.cacheMillis = cacheMillis;
+    }
+
+    public long getUpstreamMillis() {
+        return upstreamMillis;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+}
@@ -0,0 +1,126 @@
+package mvcp.adobe.entities;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * ByteRange is one range of a 'Range: bytes=...' request header (RFC 7233), resolved against the length
+ * of a representation.
+ * Contains the first and the last byte positions, both inclusive.
+ * <p>
+ * Range specifications:
+ * <ul>
+ *     <li>'first-last': bytes from first to last, the last position being capped to the length</li>
+ *     <li>'first-': bytes from first to the end</li>
+ *     <li>'-suffix': the last suffix bytes</li>
+ * </ul>
+ * Overlapping and adjacent ranges are coalesced, so a response never sends the same bytes twice and
+ * its ranges never add up to more than the representation.
+ *
+ * @author      Marcelo Pereira
+ * @version     1.0.0
+ * @since       2019-06-14
+ */
+public class ByteRange {
+    private static final String BYTES_UNIT = "bytes=";
+    //Above this number of ranges, the header is ignored and the full representation is sent
+    public static final int MAX_RANGES = 32;
+
+    private final long first;
+    private final long last;
+
+    public ByteRange(long first, long last) {
+        this.first = first;
+        this.last = last;
+    }
+
+    /**
+     * Parses a Range header against the length of a representation.
+     *
+     * @param header Value of the Range header
+     * @param length Length of the representation in bytes
+     * @return List Satisfiable ranges, coalesced, empty in case none is satisfiable, or null in case the header
+     * is absent, invalid, not in bytes or has too many ranges, i.e. it must be ignored
+     */
+    public static List<ByteRange> parse(String header, long length) {
+        if (header == null) return null;
+        header = header.trim();
+        if (!header.regionMatches(true, 0, BYTES_UNIT, 0, BYTES_UNIT.length())) return null;
+        String[] specs = header.substring(BYTES_UNIT.length()).split(",");
+        if (specs.length > MAX_RANGES) return null;
+        List<ByteRange> ret = new ArrayList<>();
+        for (String spec : specs) {
+            spec = spec.trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0) return null;
+            try {
+                String start = spec.substring(0, dash).trim();
+                String end = spec.substring(dash + 1).trim();
+                if (start.isEmpty()) {
+                    long suffix = Long.parseLong(end);
+                    if (suffix < 0) return null;
+                    if (suffix > 0 && length > 0) ret.add(new ByteRange(Math.max(0, length - suffix), length - 1));
+                    continue;
+                }
+                long first = Long.parseLong(start);
+                long last = end.isEmpty() ? Long.MAX_VALUE : Long.parseLong(end);
+                if (first < 0 || last < first) return null;
+                if (first < length) ret.add(new ByteRange(first, Math.min(last, length - 1)));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return coalesce(ret);
+    }
+
+    /**
+     * Merges the ranges that overlap or are adjacent (RFC 7233, section 4.1).
+     *
+     * @param ranges Satisfiable ranges, in the requested order
+     * @return List The same ranges when none can be merged, otherwise the merged ranges by ascending position
+     */
+    private static List<ByteRange> coalesce(List<ByteRange> ranges) {
+        if (ranges.size() < 2) return ranges;
+        List<ByteRange> sorted = new ArrayList<>(ranges);
+        sorted.sort(Comparator.comparingLong(ByteRange::getFirst));
+        List<ByteRange> ret = new ArrayList<>(sorted.size());
+        ByteRange current = sorted.get(0);
+        for (int i = 1; i < sorted.size(); i++) {
+            ByteRange next = sorted.get(i);
+            if (next.first <= current.last + 1) {
+                current = new ByteRange(current.first, Math.max(current.last, next.last));
+            } else {
+                ret.add(current);
+                current = next;
+            }
+        }
+        ret.add(current);
+        return ret.size() == ranges.size() ? ranges : ret;
+    }
+
+    public long getFirst() {
+        return first;
+    }
+
+    public long getLast() {
+        return last;
+    }
+
+    /**
+     * @return long Number of bytes of the range
+     */
+    public long getLength() {
+        return last - first + 1;
+    }
+
+    /**
+     * Formats the Content-Range header of this range.
+     *
+     * @param length Length of the representation in bytes
+     * @return String Value of the Content-Range header, e.g. 'bytes 0-99/1000'
+     */
+    public String toContentRange(long length) {
+        return "bytes " + first + "-" + last + "/" + length;
+    }
+}
@@ -0,0 +1,228 @@
+package mvcp.adobe.entities;
+
+import java.util.Map;
+
+/**
+ * CacheDirectives is the parsed, immutable form of the Cache-Control headers of a request or response.
+ * Header names are matched ignoring their case, and repeated Cache-Control headers are combined.
+ * When there is no Cache-Control header, 'Pragma: no-cache' is honored as 'no-cache'.
+ * <p>
+ * Supported directives:
+ * <ul>
+ *     <li>no-cache, no-store, private, public, must-revalidate, proxy-revalidate</li>
+ *     <li>max-age, s-maxage, min-fresh, max-stale (with or without a value)</li>
+ *     <li>stale-while-revalidate, stale-if-error</li>
+ * </ul>
+ * Numeric directives that are absent or invalid are reported as -1.
+ *
+ * @author      Marcelo Pereira
+ * @version     1.0.0
+ * @since       2019-06-13
+ */
+public final class CacheDirectives {
+    public static final String CACHE_CONTROL = "Cache-Control";
+    private static final String PRAGMA = "Pragma";
+    //Value of max-stale when no limit is given
+    public static final long UNLIMITED = Long.MAX_VALUE;
+    public static final CacheDirectives EMPTY = parse(null);
+
+    private final boolean noCache;
+    private final boolean noStore;
+    private final boolean isPrivate;
+    private final boolean isPublic;
+    private final boolean mustRevalidate;
+    private final boolean proxyRevalidate;
+    private final long maxAge;
+    private final long sMaxAge;
+    private final long minFresh;
+    private final long maxStale;
+    private final long staleWhileRevalidate;
+    private final long staleIfError;
+
+    private CacheDirectives(boolean noCache, boolean noStore, boolean isPrivate, boolean isPublic,
+                            boolean mustRevalidate, boolean proxyRevalidate, long maxAge, long sMaxAge,
+                            long minFresh, long maxStale, long staleWhileRevalidate, long staleIfError) {
+        this.noCache = noCache;
+        this.noStore = noStore;
+        this.isPrivate = isPrivate;
+        this.isPublic = isPublic;
+        this.mustRevalidate = mustRevalidate;
+        this.proxyRevalidate = proxyRevalidate;
+        this.maxAge = maxAge;
+        this.sMaxAge = sMaxAge;
+        this.minFresh = minFresh;
+        this.maxStale = maxStale;
+        this.staleWhileRevalidate = staleWhileRevalidate;
+        this.staleIfError = staleIfError;
+    }
+
+    /**
+     * Parses the Cache-Control headers of Request or Response headers.
+     *
+     * @param headers Request or response headers
+     * @return CacheDirectives Parsed directives
+     */
+    public static CacheDirectives of(Headers headers) {
+        if (headers == null) return EMPTY;
+        String cacheControl = headers.getJoined(CACHE_CONTROL);
+        String pragma = headers.get(PRAGMA);
+        if (cacheControl == null && pragma != null && pragma.toLowerCase().contains("no-cache")) {
+            cacheControl = "no-cache";
+        }
+        return parse(cacheControl);
+    }
+
+    /**
+     * Parses the Cache-Control headers of a header map.
+     *
+     * @param headers Request or response headers
+     * @return CacheDirectives Parsed directives
+     */
+    public static CacheDirectives of(Map<String, String> headers) {
+        if (headers == null) return EMPTY;
+        String cacheControl = null;
+        String pragma = null;
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            String name = header.getKey();
+            if (name == null || header.getValue() == null) continue;
+            name = name.trim();
+            if (name.equalsIgnoreCase(CACHE_CONTROL)) {
+                cacheControl = cacheControl == null ? header.getValue() : cacheControl + "," + header.getValue();
+            } else if (name.equalsIgnoreCase(PRAGMA)) {
+                pragma = header.getValue();
+            }
+        }
+        if (cacheControl == null && pragma != null && pragma.toLowerCase().contains("no-cache")) {
+            cacheControl = "no-cache";
+        }
+        return parse(cacheControl);
+    }
+
+    /**
+     * Parses a Cache-Control header value, e.g. 'public, max-age=60'.
+     *
+     * @param cacheControl Value of a Cache-Control header
+     * @return CacheDirectives Parsed directives
+     */
+    public static CacheDirectives parse(String cacheControl) {
+        boolean noCache = false, noStore = false, isPrivate = false, isPublic = false;
+        boolean mustRevalidate = false, proxyRevalidate = false;
+        long maxAge = -1, sMaxAge = -1, minFresh = -1, maxStale = -1, staleWhileRevalidate = -1, staleIfError = -1;
+        if (cacheControl != null) {
+            for (String part : cacheControl.split(",")) {
+                int equals = part.indexOf('=');
+                String name = (equals < 0 ? part : part.substring(0, equals)).trim().toLowerCase();
+                String value = equals < 0 ? null : part.substring(equals + 1).trim();
+                switch (name) {
+                    case "no-cache": noCache = true; break;
+                    case "no-store": noStore = true; break;
+                    case "private": isPrivate = true; break;
+                    case "public": isPublic = true; break;
+                    case "must-revalidate": mustRevalidate = true; break;
+                    case "proxy-revalidate": proxyRevalidate = true; break;
+                    case "max-age": maxAge = toSeconds(value); break;
+                    case "s-maxage": sMaxAge = toSeconds(value); break;
+                    case "min-fresh": minFresh = toSeconds(value); break;
+                    case "max-stale": maxStale = value == null ? UNLIMITED : toSeconds(value); break;
+                    case "stale-while-revalidate": staleWhileRevalidate = toSeconds(value); break;
+                    case "stale-if-error": staleIfError = toSeconds(value); break;
+                    default: break;
+                }
+            }
+        }
+        return new CacheDirectives(noCache, noStore, isPrivate, isPublic, mustRevalidate, proxyRevalidate,
+                maxAge, sMaxAge, minFresh, maxStale, staleWhileRevalidate, staleIfError);
+    }
+
+    /**
+     * Converts the value of a numeric directive into seconds.
+     *
+     * @param value Value of the directive, possibly quoted
+     * @return long Seconds or -1 in case the value is absent or invalid
+     */
+    private static long toSeconds(String value) {
+        if (value == null) return -1;
+        try {
+            long seconds = Long.parseLong(value.replace("\"", "").trim());
+            return seconds < 0 ? -1 : seconds;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Verifies if a request with these directives must skip the cached responses.
+     *
+     * @return boolean True for no-cache, no-store and private requests
+     */
+    public boolean bypassesCache() {
+        return noCache || noStore || isPrivate;
+    }
+
+    /**
+     * Verifies if a response with these directives may be stored in the shared cache.
+     *
+     * @return boolean False for no-cache, no-store and private responses
+     */
+    public boolean isStorable() {
+        return !noCache && !noStore && !isPrivate;
+    }
+
+    /**
+     * Verifies if a stale response with these directives must not be served without revalidation.
+     * For a shared cache, s-maxage implies proxy-revalidate.
+     *
+     * @return boolean True for must-revalidate, proxy-revalidate and s-maxage responses
+     */
+    public boolean requiresRevalidation() {
+        return mustRevalidate || proxyRevalidate || sMaxAge >= 0;
+    }
+
+    public boolean isNoCache() {
+        return noCache;
+    }
+
+    public boolean isNoStore() {
+        return noStore;
+    }
+
+    public boolean isPrivate() {
+        return isPrivate;
+    }
+
+    public boolean isPublic() {
+        return isPublic;
+    }
+
+    public boolean isMustRevalidate() {
+        return mustRevalidate;
+    }
+
+    public boolean isProxyRevalidate() {
+        return proxyRevalidate;
+    }
+
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    public long getSMaxAge() {
+        return sMaxAge;
+    }
+
+    public long getMinFresh() {
+        return minFresh;
+    }
+
+    public long getMaxStale() {
+        return maxStale;
+    }
+
+    public long getStaleWhileRevalidate() {
+        return staleWhileRevalidate;
+    }
+
+    public long getStaleIfError() {
+        return staleIfError;
+    }
+}
@@ -0,0 +1,253 @@
+package mvcp.adobe.entities;
+
+import java.text.ParseException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * CacheFreshness is the caching decision for one cached item against one request, following RFC 7234.
+ * <p>
+ * The current age of the item is the initial age it had when it was stored (the larger of its 'Age' header
+ * and the time elapsed between its 'Date' header and its storage), plus the time it has been in the cache.
+ * <p>
+ * The freshness lifetime comes from the response, in order of precedence:
+ * <ol>
+ * <li>s-maxage</li>
+ * <li>max-age</li>
+ * <li>Expires minus Date (an invalid Expires means already expired)</li>
+ * <li>Without any of them the item does not expire, and stays in the cache until it is replaced</li>
+ * </ol>
+ * The CachePolicy of the Service may give a default lifetime to responses without expiration information,
+ * and bound the lifetime of every response.
+ * The request narrows the decision with max-age and min-fresh, and may accept stale items with max-stale.
+ * Stale items are never served without revalidation when the response has must-revalidate,
+ * proxy-revalidate or s-maxage.
+ *
+ * @author      Marcelo Pereira
+ * @version     1.0.0
+ * @since       2019-06-13
+ */
+public final class CacheFreshness {
+    //Freshness lifetime of responses without expiration information
+    public static final long UNLIMITED = Long.MAX_VALUE;
+    private static final String AGE = "Age";
+    private static final String DATE = "Date";
+    private static final String EXPIRES = "Expires";
+
+    private final CacheDirectives request;
+    private final CacheDirectives response;
+    private final long age;
+    private final long lifetime;
+
+    private CacheFreshness(CacheDirectives request, CacheDirectives response, long age, long lifetime) {
+        this.request = request;
+        this.response = response;
+        this.age = age;
+        this.lifetime = lifetime;
+    }
+
+    /**
+     * Evaluates a cached item against the directives of a request, at the current time.
+     *
+     * @param request Parsed directives of the incoming request
+     * @param item Object retrieved from cache
+     * @return CacheFreshness Decision for the item
+     */
+    public static CacheFreshness evaluate(CacheDirectives request, CacheItem item) {
+        return evaluate(request, item, System.currentTimeMillis());
+    }
+
+    /**
+     * Evaluates a cached item against the directives of a request, at a given time.
+     *
+     * @param request Parsed directives of the incoming request
+     * @param item Object retrieved from cache
+     * @param now Current time in milliseconds
+     * @return CacheFreshness Decision for the item
+     */
+    public static CacheFreshness evaluate(CacheDirectives request, CacheItem item, long now) {
+        return evaluate(request, item, CachePolicy.DEFAULT, now);
+    }
+
+    /**
+     * Evaluates a cached item against the directives of a request and the cache policy of its Service, at the current time.
+     *
+     * @param request Parsed directives of the incoming request
+     * @param item Object retrieved from cache
+     * @param policy Cache policy of the Service, providing its default and maximum TTLs
+     * @return CacheFreshness Decision for the item
+     */
+    public static CacheFreshness evaluate(CacheDirectives request, CacheItem item, CachePolicy policy) {
+        return evaluate(request, item, policy, System.currentTimeMillis());
+    }
+
+    /**
+     * Evaluates a cached item against the directives of a request and the cache policy of its Service, at a given time.
+     *
+     * @param request Parsed directives of the incoming request
+     * @param item Object retrieved from cache
+     * @param policy Cache policy of the Service, providing its default and maximum TTLs
+     * @param now Current time in milliseconds
+     * @return CacheFreshness Decision for the item
+     */
+    public static CacheFreshness evaluate(CacheDirectives request, CacheItem item, CachePolicy policy, long now) {
+        Response cached = item.getResponse();
+        CacheDirectives response = CacheDirectives.of(cached.getHeaders());
+        long stored;
+        try {
+            stored = item.getCreated().getTime();
+        } catch (ParseException | NullPointerException e) {
+            return new CacheFreshness(request, response, -1, 0);
+        }
+        long date = parseHttpDate(cached.getHeader(DATE));
+        long apparentAge = date < 0 ? 0 : Math.max(0, (stored - date) / 1000);
+        long initialAge = Math.max(apparentAge, parseSeconds(cached.getHeader(AGE)));
+        long residentTime = (now - stored) / 1000;
+        long age = residentTime < 0 ? -1 : initialAge + residentTime;
+        long lifetime = policy.applyTtls(getLifetime(response, cached, date < 0 ? stored : date));
+        return new CacheFreshness(request, response, age, lifetime);
+    }
+
+    /**
+     * Calculates the freshness lifetime of a response.
+     *
+     * @param directives Parsed directives of the response
+     * @param response Cached response
+     * @param date Date the response was generated, in milliseconds
+     * @return long Lifetime in seconds or UNLIMITED in case the response has no expiration information
+     */
+    private static long getLifetime(CacheDirectives directives, Response response, long date) {
+        if (directives.getSMaxAge() >= 0) return directives.getSMaxAge();
+        if (directives.getMaxAge() >= 0) return directives.getMaxAge();
+        String expires = response.getHeader(EXPIRES);
+        if (expires != null) {
+            long expiresAt = parseHttpDate(expires);
+            return expiresAt < 0 ? 0 : Math.max(0, (expiresAt - date) / 1000);
+        }
+        return UNLIMITED;
+    }
+
+    /**
+     * Parses a HTTP date, e.g. 'Thu, 13 Jun 2019 10:00:00 GMT'.
+     *
+     * @param value Value of a date header
+     * @return long Date in milliseconds or -1 in case it is absent or invalid
+     */
+    public static long parseHttpDate(String value) {
+        if (value == null) return -1;
+        try {
+            return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Parses a header holding a number of seconds, e.g. 'Age: 30'.
+     *
+     * @param value Value of the header
+     * @return long Seconds or 0 in case it is absent or invalid
+     */
+    private static long parseSeconds(String value) {
+        if (value == null) return 0;
+        try {
+            return Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Verifies if the item respects the max-age limit of the request.
+     *
+     * @return boolean True in case the age is known and below the request max-age
+     */
+    public boolean isAcceptedByRequest() {
+        return age >= 0 && (request.getMaxAge() < 0 || age < request.getMaxAge());
+    }
+
+    /**
+     * Verifies if the item can be served without contacting the origin.
+     *
+     * @return boolean True in case the item is accepted by the request and will stay fresh for its min-fresh
+     */
+    public boolean isFresh() {
+        if (!isAcceptedByRequest()) return false;
+        if (lifetime == UNLIMITED) return true;
+        return age + Math.max(request.getMinFresh(), 0) < lifetime;
+    }
+
+    /**
+     * Verifies if a stale item is accepted by the max-stale directive of the request.
+     *
+     * @return boolean True in case the request accepts the item's staleness
+     */
+    public boolean isWithinMaxStale() {
+        if (!isAcceptedByRequest() || response.requiresRevalidation() || request.getMaxStale() < 0) return false;
+        return request.getMaxStale() == CacheDirectives.UNLIMITED || getStaleness() <= request.getMaxStale();
+    }
+
+    /**
+     * Verifies if a stale item may still be served while it is refreshed in background.
+     * The window comes from the response's stale-while-revalidate directive or from the given default,
+     * whichever is larger.
+     *
+     * @param defaultWindow Window in seconds used when it is larger than the response's directive
+     * @return boolean True in case the item is stale for less than the window
+     */
+    public boolean isWithinStaleWhileRevalidate(long defaultWindow) {
+        if (!isAcceptedByRequest() || response.requiresRevalidation() || lifetime == UNLIMITED) return false;
+        return getStaleness() < Math.max(response.getStaleWhileRevalidate(), defaultWindow);
+    }
+
+    /**
+     * Verifies if a stale item may be served when the origin cannot be reached.
+     * The window comes from the response's stale-if-error directive or from the given default,
+     * whichever is larger.
+     *
+     * @param defaultWindow Window in seconds used when it is larger than the response's directive
+     * @return boolean True in case the item is stale for no more than the window
+     */
+    public boolean isWithinStaleIfError(long defaultWindow) {
+        if (age < 0 || response.requiresRevalidation()) return false;
+        return getStaleness() <= Math.max(response.getStaleIfError(), defaultWindow);
+    }
+
+    /**
+     * Decides whether a fresh item should be refreshed before it expires, following the XFetch algorithm
+     * (probabilistic early expiration): the item is refreshed when {@code -delta * beta * ln(random)}
+     * reaches its remaining lifetime. The probability rises as expiry nears and with the recompute time,
+     * so refreshes of a popular item spread out over the requests of all replicas without any coordination.
+     *
+     * @param deltaMillis Time the origin took to produce the item, in milliseconds
+     * @param beta Scale of the early refreshes, larger values refresh earlier; 0 disables them
+     * @param random Uniform random number in (0, 1]
+     * @return boolean True in case the item is fresh, expires and should be refreshed now
+     */
+    public boolean isEarlyRefreshDue(long deltaMillis, double beta, double random) {
+        if (deltaMillis <= 0 || beta <= 0 || lifetime == UNLIMITED || !isFresh()) return false;
+        return -deltaMillis * beta * Math.log(random) >= (lifetime - age) * 1000.0;
+    }
+
+    /**
+     * Returns how long the item has been stale.
+     *
+     * @return long Seconds since the item became stale, negative while it is fresh
+     */
+    public long getStaleness() {
+        return lifetime == UNLIMITED ? Long.MIN_VALUE : age - lifetime;
+    }
+
+    public long getAge() {
+        return age;
+    }
+
+    public long getLifetime() {
+        return lifetime;
+    }
+
+    public CacheDirectives getResponseDirectives() {
+        return response;
+    }
+}
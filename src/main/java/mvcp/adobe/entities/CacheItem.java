@@ -9,7 +9,15 @@ import java.util.Date;
 
 /**
  * Object wrapper for a Response stored in Cache.
- * Contains the response and the cache creation date (in ISO-8601 format)
+ * Contains the response, the cache creation date (in ISO-8601 format), the URL ('host/path') it was cached for
+ * and the time in milliseconds the origin took to produce the response (its recompute time)
+ * <p>
+ * It also holds a strong validator computed by the proxy when the item is stored (see ISerializer.validatorOf),
+ * so clients can revalidate their copies against the proxy even when the origin gives no ETag.
+ * <p>
+ * The creation date is declared first so it leads the serialized form of the item,
+ * allowing it to be refreshed without re-encoding the response. The response is declared last, and its body
+ * last within it, so the metadata of the item can be read without reading the body.
  *
  * @author      Marcelo Pereira
  * @version     1.0.0
@@ -17,14 +25,18 @@ import java.util.Date;
  */
 public class CacheItem {
     public static final Logger logger = (Logger) LoggerFactory.getLogger(CacheItem.class);
-    private Response response;
     private String isoCreated;
+    private String etag;
+    private String url;
+    private long delta;
+    private Response response;
     private static final String DATE_FORMAT = "yyyy-MM-dd HH:mm:ss";
 
     public CacheItem () {}
 
     public CacheItem(Response response) {
         this.response = response;
+        this.delta = response.getElapsed();
         this.isoCreated = (new SimpleDateFormat(DATE_FORMAT)).format(new Date());
     }
 
@@ -36,6 +48,36 @@ public class CacheItem {
         this.response = response;
     }
 
+    public String getUrl() {
+        return url;
+    }
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    /**
+     * @return String Strong validator of the cached response
+     */
+    public String getEtag() {
+        return etag;
+    }
+
+    public void setEtag(String etag) {
+        this.etag = etag;
+    }
+
+    /**
+     * @return long Milliseconds the origin took to produce the cached response, 0 when unknown
+     */
+    public long getDelta() {
+        return delta;
+    }
+
+    public void setDelta(long delta) {
+        this.delta = delta;
+    }
+
     public String getIsoCreated() {
         return isoCreated;
     }
@@ -44,6 +86,13 @@ public class CacheItem {
         this.isoCreated = created;
     }
 
+    /**
+     * Resets the creation date of this item to now, e.g. after the origin confirmed it is still valid.
+     */
+    public void refresh() {
+        this.isoCreated = (new SimpleDateFormat(DATE_FORMAT)).format(new Date());
+    }
+
     /**
      * Transforms the ISO 8601 date representation into a Java Date object
      *
@@ -0,0 +1,200 @@
+package mvcp.adobe.entities;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * CachePolicy holds the cache configuration of a Service, compiled once from the options of its property string,
+ * so each request is checked against ready-made sets instead of parsing any configuration.
+ * <p>
+ * Options (list values are separated by '|', since ',' separates the parts of a Service definition):
+ * <ul>
+ *     <li>cache: 'true' or 'false', enables or disables caching for the Service (default true)</li>
+ *     <li>default-ttl: Freshness lifetime in seconds of responses without expiration information (default: no expiration)</li>
+ *     <li>max-ttl: Upper bound in seconds of the freshness lifetime of any response (default: no bound)</li>
+ *     <li>max-body-bytes: Largest response body that is cached, larger responses are streamed (0 for no limit)</li>
+ *     <li>cache-methods: Cacheable request methods, e.g. 'GET|HEAD' (default: all)</li>
+ *     <li>cache-statuses: Cacheable response statuses below 400, e.g. '200|301' (default: all)</li>
+ *     <li>cache-key-headers: Request headers whose values are part of the cache key, e.g. 'Accept-Language'</li>
+ *     <li>cache-namespace: Prefix of the cache keys of the Service, e.g. 'static'</li>
+ *     <li>stale-while-revalidate: Seconds a stale cached response may still be served while it is refreshed</li>
+ *     <li>negative-ttl-{status}: Seconds an error response is cached, by status code or class (e.g. '404', '5xx')</li>
+ * </ul>
+ * Error responses (4xx and 5xx) are never stored in the Cache; their caching is ruled by the negative TTLs.
+ *
+ * @author      Marcelo Pereira
+ * @version     1.0.0
+ * @since       2019-06-14
+ */
+public class CachePolicy {
+    //Policy of requests not targeting any Service: caching enabled, without restrictions
+    public static final CachePolicy DEFAULT = new CachePolicy();
+    public static final long UNSET = -1;
+    private static final String NEGATIVE_TTL_PREFIX = "negative-ttl-";
+    private static final String LIST_SEPARATOR = "\\|";
+
+    private boolean enabled = true;
+    private long defaultTtl = UNSET;
+    private long maxTtl = UNSET;
+    //Negative until configured, either by the 'max-body-bytes' option or by the global default
+    private long maxBodyBytes = UNSET;
+    //Null for all methods or statuses
+    private Set<String> methods;
+    private Set<Integer> statuses;
+    private List<String> keyHeaders = Collections.emptyList();
+    private String namespace;
+    private int staleWhileRevalidate;
+    private Map<String, Integer> negativeTtls = new HashMap<>();
+
+    public CachePolicy() {}
+
+    /**
+     * Applies a 'key=value' option of a Service definition.
+     *
+     * @param key Name of the option
+     * @param value Value of the option
+     * @return boolean True in case the option is a cache option, false in case it is unknown
+     * @throws NumberFormatException Thrown in case a numeric value is invalid
+     */
+    public boolean applyOption(String key, String value) {
+        switch (key.toLowerCase()) {
+            case "cache":
+                this.enabled = !value.equalsIgnoreCase("false") && !value.equalsIgnoreCase("off");
+                return true;
+            case "default-ttl":
+                this.defaultTtl = Long.parseLong(value);
+                return true;
+            case "max-ttl":
+                this.maxTtl = Long.parseLong(value);
+                return true;
+            case "max-body-bytes":
+                this.maxBodyBytes = Long.parseLong(value);
+                return true;
+            case "cache-methods":
+                this.methods = new HashSet<>();
+                for (String method : split(value)) methods.add(method.toUpperCase());
+                return true;
+            case "cache-statuses":
+                this.statuses = new HashSet<>();
+                for (String status : split(value)) statuses.add(Integer.parseInt(status));
+                return true;
+            case "cache-key-headers":
+                List<String> headers = new ArrayList<>();
+                for (String header : split(value)) headers.add(header.toLowerCase());
+                //Sorted, so the key does not depend on the order of the option
+                Collections.sort(headers);
+                this.keyHeaders = Collections.unmodifiableList(headers);
+                return true;
+            case "cache-namespace":
+                this.namespace = value.isEmpty() ? null : value;
+                return true;
+            case "stale-while-revalidate":
+                this.staleWhileRevalidate = Integer.parseInt(value);
+                return true;
+            default:
+                if (key.toLowerCase().startsWith(NEGATIVE_TTL_PREFIX)) {
+                    this.negativeTtls.put(key.substring(NEGATIVE_TTL_PREFIX.length()).toLowerCase(), Integer.parseInt(value));
+                    return true;
+                }
+                return false;
+        }
+    }
+
+    private static List<String> split(String value) {
+        List<String> ret = new ArrayList<>();
+        for (String item : value.split(LIST_SEPARATOR)) {
+            if (!item.trim().isEmpty()) ret.add(item.trim());
+        }
+        return ret;
+    }
+
+    /**
+     * Verifies if responses to a request may be cached, or served from the Cache.
+     * Requests whose body was too large to be buffered cannot be keyed by their body, so they are never cached.
+     *
+     * @param request Incoming HTTP request
+     * @return boolean True in case caching is enabled, the body is buffered and the method is cacheable
+     */
+    public boolean isCacheable(Request request) {
+        return enabled && !request.isStreamed() && (methods == null || (request.getMethod() != null && methods.contains(request.getMethod().toUpperCase())));
+    }
+
+    /**
+     * Verifies if a successful response status may be stored in the Cache.
+     *
+     * @param status Response status
+     * @return boolean True in case the status is cacheable
+     */
+    public boolean isCacheableStatus(int status) {
+        return statuses == null || statuses.contains(status);
+    }
+
+    /**
+     * Applies the default and maximum TTLs to the freshness lifetime of a response.
+     *
+     * @param lifetime Lifetime from the response headers, CacheFreshness.UNLIMITED without expiration information
+     * @return long Lifetime in seconds
+     */
+    public long applyTtls(long lifetime) {
+        if (lifetime == CacheFreshness.UNLIMITED && defaultTtl >= 0) lifetime = defaultTtl;
+        if (maxTtl >= 0) lifetime = Math.min(lifetime, maxTtl);
+        return lifetime;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getDefaultTtl() {
+        return defaultTtl;
+    }
+
+    public long getMaxTtl() {
+        return maxTtl;
+    }
+
+    public long getMaxBodyBytes() {
+        return maxBodyBytes;
+    }
+
+    public void setMaxBodyBytes(long maxBodyBytes) {
+        this.maxBodyBytes = maxBodyBytes;
+    }
+
+    public Set<String> getMethods() {
+        return methods;
+    }
+
+    public Set<Integer> getStatuses() {
+        return statuses;
+    }
+
+    public List<String> getKeyHeaders() {
+        return keyHeaders;
+    }
+
+    public String getNamespace() {
+        return namespace;
+    }
+
+    public int getStaleWhileRevalidate() {
+        return staleWhileRevalidate;
+    }
+
+    public void setStaleWhileRevalidate(int staleWhileRevalidate) {
+        this.staleWhileRevalidate = staleWhileRevalidate;
+    }
+
+    public Map<String, Integer> getNegativeTtls() {
+        return negativeTtls;
+    }
+
+    public void setNegativeTtls(Map<String, Integer> negativeTtls) {
+        this.negativeTtls = negativeTtls;
+    }
+}
@@ -0,0 +1,104 @@
+package mvcp.adobe.entities;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Utility class for compressing cached bodies.
+ * Compressed bodies are kept as Base64 strings, so they fit in the JSON representation of a CacheItem.
+ * Supported codecs:
+ * <ul>
+ *     <li>gzip: Same format as the HTTP 'gzip' content coding, so it can be sent to clients as is</li>
+ * </ul>
+ * A gzip encoded representation is a different representation than the plain one, so it is sent with its own
+ * entity tag: the tag of the plain body with a '-gzip' suffix.
+ *
+ * @author      Marcelo Pereira
+ * @version     1.0.0
+ * @since       2019-06-13
+ */
+public final class Compression {
+    public static final String GZIP = "gzip";
+    private static final String GZIP_TAG_SUFFIX = "-gzip\"";
+
+    private Compression() {}
+
+    /**
+     * Compresses a text with gzip.
+     *
+     * @param plain Text to be compressed, encoded as UTF-8
+     * @return String Base64 representation of the compressed bytes
+     */
+    public static String encode(String plain) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(plain.length() / 4 + 32);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+                gzip.write(plain.getBytes(StandardCharsets.UTF_8));
+            }
+            return Base64.getEncoder().encodeToString(bytes.toByteArray());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Decompresses a text previously compressed by encode.
+     *
+     * @param codec Codec used for compressing the text
+     * @param encoded Base64 representation of the compressed bytes
+     * @return String Original text
+     */
+    public static String decode(String codec, String encoded) {
+        if (!GZIP.equalsIgnoreCase(codec)) {
+            throw new IllegalArgumentException("Unsupported codec: " + codec);
+        }
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(toBytes(encoded)))) {
+            ByteArrayOutputStream plain = new ByteArrayOutputStream(encoded.length() * 4);
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = gzip.read(buffer)) != -1) {
+                plain.write(buffer, 0, read);
+            }
+            return new String(plain.toByteArray(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the compressed bytes of an encoded text, without decompressing them.
+     *
+     * @param encoded Base64 representation of the compressed bytes
+     * @return byte[] Compressed bytes
+     */
+    public static byte[] toBytes(String encoded) {
+        return Base64.getDecoder().decode(encoded);
+    }
+
+    /**
+     * Derives the entity tag of the gzip encoded representation from the tag of the plain one.
+     *
+     * @param etag Entity tag of the plain body, e.g. '"abc"' or 'W/"abc"'
+     * @return String Tag of the gzip encoded body, e.g. '"abc-gzip"', or the given tag in case it is not quoted
+     */
+    public static String gzipTag(String etag) {
+        if (etag == null || etag.length() < 2 || !etag.endsWith("\"")) return etag;
+        return etag.substring(0, etag.length() - 1) + GZIP_TAG_SUFFIX;
+    }
+
+    /**
+     * Returns the entity tag of the plain representation from a tag that may be of the gzip encoded one.
+     *
+     * @param etag Entity tag sent by a client
+     * @return String Tag without the gzip suffix
+     */
+    public static String plainTag(String etag) {
+        if (etag == null || !etag.endsWith(GZIP_TAG_SUFFIX)) return etag;
+        return etag.substring(0, etag.length() - GZIP_TAG_SUFFIX.length()) + "\"";
+    }
+}
@@ -16,6 +16,8 @@ public class Endpoint {
     private String ip;
     private int port;
     private EndpointStatus status = EndpointStatus.PENDING;
+    //'http://ip:port', built once instead of on every forwarded request
+    private transient String baseUrl;
 
     public Endpoint(String ip, int port) {
         this.ip = ip;
@@ -28,6 +30,7 @@ public class Endpoint {
 
     public void setIp(String ip) {
         this.ip = ip;
+        this.baseUrl = null;
     }
 
     public int getPort() {
@@ -36,6 +39,21 @@ public class Endpoint {
 
     public void setPort(int port) {
         this.port = port;
+        this.baseUrl = null;
+    }
+
+    /**
+     * Returns the URL prefix of the requests forwarded to this Endpoint.
+     *
+     * @return String 'http://ip:port'
+     */
+    public String getBaseUrl() {
+        String ret = baseUrl;
+        if (ret == null) {
+            ret = "http://" + this.ip + ":" + this.port;
+            baseUrl = ret;
+        }
+        return ret;
     }
 
     /**
@@ -0,0 +1,400 @@
+package mvcp.adobe.entities;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.BiConsumer;
+
+/**
+ * Headers is the header container of Requests and Responses.
+ * <p>
+ * Names are case-insensitive, and a name may have several values (e.g. 'Set-Cookie'), kept in their received order.
+ * Names and values are held in two arrays, which are scanned on lookup: messages have few headers, so this is
+ * faster and much smaller than a hash map. Common header names are interned, so the names of received headers
+ * share the same String instances.
+ * <p>
+ * Hop-by-hop headers (RFC 7230, section 6.1) are only meaningful for one connection: copyEndToEnd drops them,
+ * as well as the headers listed in 'Connection', in a single pass.
+ * <p>
+ * Headers are serialized by Gson as a JSON object, a name with several values holding an array.
+ *
+ * @author      Marcelo Pereira
+ * @version     1.0.0
+ * @since       2019-06-14
+ */
+@JsonAdapter(Headers.GsonAdapter.class)
+public final class Headers implements Iterable<Map.Entry<String, String>> {
+    private static final String CONNECTION = "Connection";
+    private static final int DEFAULT_CAPACITY = 8;
+    private static final Map<String, String> COMMON_NAMES = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private static final Set<String> HOP_BY_HOP = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+    static {
+        for (String name : Arrays.asList("Accept", "Accept-Encoding", "Accept-Language", "Accept-Ranges", "Age",
+                "Authorization", "Cache-Control", "Connection", "Content-Encoding", "Content-Length", "Content-Range",
+                "Content-Type", "Cookie", "Date", "ETag", "Expires", "Host", "If-Match", "If-Modified-Since",
+                "If-None-Match", "If-Range", "Keep-Alive", "Last-Modified", "Location", "Pragma", "Range", "Referer",
+                "Server", "Set-Cookie", "Surrogate-Key", "Transfer-Encoding", "User-Agent", "Vary", "Via", "Warning",
+                "X-Forwarded-For", "X-Forwarded-Host", "X-Forwarded-Proto")) {
+            COMMON_NAMES.put(name, name);
+        }
+        HOP_BY_HOP.addAll(Arrays.asList("Connection", "Keep-Alive", "Proxy-Authenticate", "Proxy-Authorization",
+                "Proxy-Connection", "TE", "Trailer", "Transfer-Encoding", "Upgrade"));
+    }
+
+    private String[] names;
+    private String[] values;
+    private int size;
+
+    public Headers() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public Headers(int capacity) {
+        this.names = new String[Math.max(1, capacity)];
+        this.values = new String[names.length];
+    }
+
+    /**
+     * Copies the entries of a map, e.g. headers built by hand.
+     *
+     * @param map Header values by name
+     * @return Headers Copy of the map or null in case it is null
+     */
+    public static Headers of(Map<String, String> map) {
+        if (map == null) return null;
+        Headers ret = new Headers(map.size());
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            ret.add(entry.getKey(), entry.getValue());
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the shared instance of a common header name.
+     *
+     * @param name Header name
+     * @return String Interned name in case it is a common one, the given name otherwise
+     */
+    public static String intern(String name) {
+        String common = COMMON_NAMES.get(name);
+        return common != null ? common : name;
+    }
+
+    /**
+     * Verifies if a header is hop-by-hop, i.e. must not be forwarded.
+     *
+     * @param name Header name
+     * @return boolean True for hop-by-hop headers
+     */
+    public static boolean isHopByHop(String name) {
+        return HOP_BY_HOP.contains(name);
+    }
+
+    /**
+     * Verifies if a header is hop-by-hop or listed in the 'Connection' header of its message.
+     *
+     * @param name Header name
+     * @param connection Value of the 'Connection' header, possibly null
+     * @return boolean True in case the header must not be forwarded
+     */
+    public static boolean isHopByHop(String name, String connection) {
+        return HOP_BY_HOP.contains(name) || (connection != null && isListed(connection, name));
+    }
+
+    /**
+     * Returns the first value of a header.
+     *
+     * @param name Header name, in any case
+     * @return String First value or null in case the header is absent
+     */
+    public String get(String name) {
+        int index = indexOf(name, 0);
+        return index < 0 ? null : values[index];
+    }
+
+    /**
+     * Returns all values of a header.
+     *
+     * @param name Header name, in any case
+     * @return List Values in their order, empty in case the header is absent
+     */
+    public List<String> getAll(String name) {
+        int index = indexOf(name, 0);
+        if (index < 0) return Collections.emptyList();
+        List<String> ret = new ArrayList<>(2);
+        for (; index >= 0; index = indexOf(name, index + 1)) {
+            ret.add(values[index]);
+        }
+        return ret;
+    }
+
+    /**
+     * Returns all values of a header joined by commas, for headers whose values are lists (e.g. 'Cache-Control').
+     * Must not be used for 'Set-Cookie', whose values may contain commas.
+     *
+     * @param name Header name, in any case
+     * @return String Joined values or null in case the header is absent
+     */
+    public String getJoined(String name) {
+        int index = indexOf(name, 0);
+        if (index < 0) return null;
+        String ret = values[index];
+        for (index = indexOf(name, index + 1); index >= 0; index = indexOf(name, index + 1)) {
+            ret = ret + "," + values[index];
+        }
+        return ret;
+    }
+
+    public boolean containsKey(String name) {
+        return indexOf(name, 0) >= 0;
+    }
+
+    /**
+     * Adds a value to a header, keeping its other values. Null names and values are ignored.
+     *
+     * @param name Header name
+     * @param value Header value
+     * @return Headers This container
+     */
+    public Headers add(String name, String value) {
+        if (name == null || value == null) return this;
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        names[size] = intern(name);
+        values[size] = value;
+        size++;
+        return this;
+    }
+
+    /**
+     * Sets the value of a header, replacing all its values.
+     *
+     * @param name Header name
+     * @param value Header value
+     * @return Headers This container
+     */
+    public Headers put(String name, String value) {
+        remove(name);
+        return add(name, value);
+    }
+
+    /**
+     * Removes all values of a header.
+     *
+     * @param name Header name, in any case
+     * @return boolean True in case the header was present
+     */
+    public boolean remove(String name) {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (names[i].equalsIgnoreCase(name)) continue;
+            names[kept] = names[i];
+            values[kept] = values[i];
+            kept++;
+        }
+        boolean removed = kept < size;
+        Arrays.fill(names, kept, size, null);
+        Arrays.fill(values, kept, size, null);
+        size = kept;
+        return removed;
+    }
+
+    /**
+     * @return int Number of header values
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return Set Distinct header names, in their order
+     */
+    public Set<String> keySet() {
+        Set<String> ret = new LinkedHashSet<>();
+        for (int i = 0; i < size; i++) {
+            if (indexOf(names[i], 0) == i) ret.add(names[i]);
+        }
+        return ret;
+    }
+
+    /**
+     * Calls an action for each header value, in order.
+     *
+     * @param action Action receiving the name and the value
+     */
+    public void forEach(BiConsumer<String, String> action) {
+        for (int i = 0; i < size; i++) {
+            action.accept(names[i], values[i]);
+        }
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, String>> iterator() {
+        return new Iterator<Map.Entry<String, String>>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public Map.Entry<String, String> next() {
+                if (next >= size) throw new NoSuchElementException();
+                Map.Entry<String, String> entry = new AbstractMap.SimpleImmutableEntry<>(names[next], values[next]);
+                next++;
+                return entry;
+            }
+        };
+    }
+
+    /**
+     * Copies the end-to-end headers, leaving out the hop-by-hop ones and those listed in 'Connection'.
+     *
+     * @return Headers Headers to be forwarded
+     */
+    public Headers copyEndToEnd() {
+        String connection = getJoined(CONNECTION);
+        Headers ret = new Headers(size);
+        for (int i = 0; i < size; i++) {
+            if (isHopByHop(names[i], connection)) continue;
+            ret.names[ret.size] = names[i];
+            ret.values[ret.size] = values[i];
+            ret.size++;
+        }
+        return ret;
+    }
+
+    /**
+     * Verifies if a name is one of the comma-separated tokens of a header value.
+     *
+     * @param list Header value, e.g. 'keep-alive, X-Private'
+     * @param name Header name
+     * @return boolean True in case the name is listed, in any case
+     */
+    private static boolean isListed(String list, String name) {
+        for (String token : list.split(",")) {
+            if (token.trim().equalsIgnoreCase(name)) return true;
+        }
+        return false;
+    }
+
+    private int indexOf(String name, int from) {
+        if (name == null) return -1;
+        for (int i = from; i < size; i++) {
+            if (names[i].equalsIgnoreCase(name)) return i;
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Headers)) return false;
+        Headers other = (Headers) o;
+        if (size != other.size) return false;
+        for (int i = 0; i < size; i++) {
+            if (!names[i].equalsIgnoreCase(other.names[i]) || !values[i].equals(other.values[i])) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int ret = 1;
+        for (int i = 0; i < size; i++) {
+            ret = 31 * ret + names[i].toLowerCase().hashCode();
+            ret = 31 * ret + values[i].hashCode();
+        }
+        return ret;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder ret = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            if (i > 0) ret.append(", ");
+            ret.append(names[i]).append(": ").append(values[i]);
+        }
+        return ret.toString();
+    }
+
+    /**
+     * Writes Headers as a JSON object of names to values, or to arrays of values for names with several values,
+     * and reads both forms back.
+     */
+    public static final class GsonAdapter extends TypeAdapter<Headers> {
+        @Override
+        public void write(JsonWriter out, Headers headers) throws IOException {
+            if (headers == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            for (int i = 0; i < headers.size; i++) {
+                String name = headers.names[i];
+                if (headers.indexOf(name, 0) < i) continue;
+                out.name(name);
+                int next = headers.indexOf(name, i + 1);
+                if (next < 0) {
+                    out.value(headers.values[i]);
+                    continue;
+                }
+                out.beginArray();
+                for (int index = i; index >= 0; index = headers.indexOf(name, index + 1)) {
+                    out.value(headers.values[index]);
+                }
+                out.endArray();
+            }
+            out.endObject();
+        }
+
+        @Override
+        public Headers read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            Headers headers = new Headers();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                JsonToken token = in.peek();
+                if (token == JsonToken.BEGIN_ARRAY) {
+                    in.beginArray();
+                    while (in.hasNext()) headers.add(name, in.nextString());
+                    in.endArray();
+                } else if (token == JsonToken.NULL) {
+                    in.nextNull();
+                } else {
+                    headers.add(name, in.nextString());
+                }
+            }
+            in.endObject();
+            return headers;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package mvcp.adobe.entities;
+
+/**
+ * A cache key among the most requested ones, as reported by the HotKeyDetector.
+ * Contains the cache key, the URL ('host/path?query') it was requested for, its request rate
+ * and whether it is hot enough to be pinned in the local near-cache.
+ *
+ * @author      Marcelo Pereira
+ * @version     1.0.0
+ * @since       2019-06-14
+ */
+public class HotKey {
+    private String key;
+    private String url;
+    private double rate;
+    private boolean pinned;
+
+    public HotKey() {}
+
+    public HotKey(String key, String url, double rate, boolean pinned) {
+        this.key = key;
+        this.url = url;
+        this.rate = rate;
+        this.pinned = pinned;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * @return double Estimated requests per second
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    public boolean isPinned() {
+        return pinned;
+    }
+}
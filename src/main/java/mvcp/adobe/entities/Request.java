@@ -1,22 +1,32 @@
 package mvcp.adobe.entities;
 
-import com.google.gson.Gson;
+import mvcp.adobe.connection.Buffers;
+import mvcp.adobe.enums.CacheStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.util.*;
 /**
  * Request is the internal representation of a HTTP request.
  * It contains as attributes:
  * <ul>
- *     <li>headers: HTTP headers</li>
- *     <li>body; HTTP body payload</li>
+ *     <li>headers: HTTP headers, without the hop-by-hop ones</li>
+ *     <li>body; HTTP body payload, as the raw bytes sent by the caller, whatever its content type</li>
+ *     <li>bodyStream: Unread body of a request too large to be buffered, forwarded as a stream</li>
  *     <li>path: Path of the HTTP request</li>
+ *     <li>query: Raw query string of the HTTP request, without the leading '?', or null when absent</li>
  *     <li>version: HTTP version used by the caller</li>
  *     <li>method: HTTP method </li>
  * </ul>
  * <p>
+ * Bodies are buffered up to a limit, so the request can be keyed by its body and retried on another Endpoint.
+ * Larger bodies are piped to the Endpoint once, and the request is neither cached nor retried.
  *
  * @author      Marcelo Pereira
  * @version     1.0.0
@@ -24,23 +34,38 @@ import java.util.*;
  */
 public class Request {
     public static final Logger logger = (Logger) LoggerFactory.getLogger(Request.class);
-    private Map<String, String> headers;
-    private Map<String, String> body;
+    private static final String HOST = "Host";
+    private static final String CONNECTION = "Connection";
+    private static final String HTTP_PREFIX = "HTTP/";
+    private Headers headers;
+    private byte[] body;
+    private transient InputStream bodyStream;
+    //Cache outcome of the request, for the access log, not serialized
+    private transient CacheStatus cacheStatus;
     private String path;
+    private String query;
     private String method;
     private String version;
 
 
     public Request() {}
 
-    public Request(String version, String method, String path, Map<String, String> headers, Map<String, String> body) {
+    public Request(String version, String method, String path, Map<String, String> headers, byte[] body) {
         this.version = version;
         this.method = method;
         this.path = path;
-        this.headers = headers;
+        this.headers = Headers.of(headers);
         this.body = body;
     }
 
+    public CacheStatus getCacheStatus() {
+        return cacheStatus;
+    }
+
+    public void setCacheStatus(CacheStatus cacheStatus) {
+        this.cacheStatus = cacheStatus;
+    }
+
     public String getMethod() {
         return method;
     }
@@ -57,22 +82,43 @@ public class Request {
         this.version = version;
     }
 
-    public Map<String, String> getHeaders() {
+    public Headers getHeaders() {
         return headers;
     }
 
-    public void setHeaders(Map<String, String> headers) {
+    public void setHeaders(Headers headers) {
         this.headers = headers;
     }
 
-    public Map<String, String> getBody() {
+    public void setHeaders(Map<String, String> headers) {
+        this.headers = Headers.of(headers);
+    }
+
+    public byte[] getBody() {
         return body;
     }
 
-    public void setBody(Map<String, String> body) {
+    public void setBody(byte[] body) {
         this.body = body;
     }
 
+    public InputStream getBodyStream() {
+        return bodyStream;
+    }
+
+    public void setBodyStream(InputStream bodyStream) {
+        this.bodyStream = bodyStream;
+    }
+
+    /**
+     * Verifies if the body of this request is too large to be buffered, and is forwarded as a stream.
+     *
+     * @return boolean True in case the body can only be read once
+     */
+    public boolean isStreamed() {
+        return bodyStream != null;
+    }
+
     public String getPath() {
         return path;
     }
@@ -81,68 +127,120 @@ public class Request {
         this.path = path;
     }
 
-    /**
-     * Returns a query string representation of the Request's body.
-     *
-     * @return String Query string of request body
-     */
-    public String stringifyBody() {
-        List<String> params = new ArrayList<>();
-        for (String key : this.body.keySet()) {
-            String value = this.body.get(key);
-            params.add(key + "=" + value);
-        }
-        return String.join("&", params);
+    public String getQuery() {
+        return query;
+    }
+
+    public void setQuery(String query) {
+        this.query = query;
     }
 
     /**
-     * Returns a JSON representation of the Request's body.
+     * Returns the request target forwarded to the Endpoints: the path followed by the query string, if any.
      *
-     * @return String Json of request body
+     * @return String Path and query string
      */
-    public String jsonBody() {
-        return new Gson().toJson(this.body);
+    public String getTarget() {
+        return this.query == null || this.query.isEmpty() ? this.path : this.path + "?" + this.query;
     }
 
     /**
-     * Builds and returns a Request object from a HttpServletRequest object and the body payload.
+     * Builds and returns a Request object from a HttpServletRequest object, reading its body as raw bytes.
+     * Bodies of up to maxBuffered bytes are buffered, larger ones are left as a stream.
      *
      * @param request Internal servlet http request
-     * @param body Payload coming in the request
+     * @param maxBuffered Largest body that is buffered, in bytes
      * @return Request Internal request object generated from servlet context
+     * @throws IOException Thrown in case the body cannot be read
      */
-    public static Request fromContextRequest(HttpServletRequest request, Map<String,String> body) {
+    public static Request fromContextRequest(HttpServletRequest request, int maxBuffered) throws IOException {
         Request req = null;
-        logger.info("Creating request object...");
         if (request != null) {
-            Map<String, String> headers = new HashMap<>();
+            //Hop-by-hop headers are dropped while reading, every value of the other ones is kept
+            Headers headers = new Headers();
+            String connection = request.getHeader(CONNECTION);
             Enumeration<String> headerNames = request.getHeaderNames();
             while (headerNames.hasMoreElements()) {
                 String name = headerNames.nextElement();
-                String value = request.getHeader(name);
-                headers.put(name, value);
+                if (Headers.isHopByHop(name, connection)) continue;
+                Enumeration<String> values = request.getHeaders(name);
+                while (values.hasMoreElements()) headers.add(name, values.nextElement());
             }
-            logger.info("Found the following headers:");
-            String h = "";
-            for (String key : headers.keySet()) {
-                String value = headers.get(key);
-                h += key + ":" + value + ",";
+            logger.debug("Found the following headers: {}", headers);
+            //String.replace compiles a pattern on every call (Java 8), the prefix is cut instead
+            String protocol = request.getProtocol();
+            String version = protocol.startsWith(HTTP_PREFIX) ? protocol.substring(HTTP_PREFIX.length()) : protocol;
+            req = new Request(version, request.getMethod(), request.getRequestURI(), null, null);
+            req.setHeaders(headers);
+            req.setQuery(request.getQueryString());
+            req.readBody(request.getInputStream(), request.getContentLengthLong(), maxBuffered);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Request created: {} {} ({})", req.getMethod(), req.getTarget(),
+                        req.isStreamed() ? "streamed body" : (req.body != null ? req.body.length : 0) + " body bytes");
             }
-            logger.info(h.substring(0, h.length()-1));
-            req = new Request(request.getProtocol().replace("HTTP/", ""), request.getMethod(), request.getRequestURI(), headers, body);
-            logger.info("Request created: " + new Gson().toJson(req));
         }
         return req;
     }
 
+    /**
+     * Reads the body of the request: buffers it when it fits in maxBuffered bytes, otherwise keeps it as a stream.
+     * A body announced larger than the limit is not read at all.
+     *
+     * @param in Body stream
+     * @param contentLength Announced length of the body, -1 when unknown (e.g. chunked)
+     * @param maxBuffered Largest body that is buffered, in bytes
+     * @throws IOException Thrown in case the body cannot be read
+     */
+    public void readBody(InputStream in, long contentLength, int maxBuffered) throws IOException {
+        if (in == null || contentLength == 0) return;
+        if (contentLength > maxBuffered) {
+            this.bodyStream = in;
+            return;
+        }
+        //A known length is read straight into the body, without intermediate copies
+        if (contentLength > 0) {
+            this.body = Buffers.readFully(in, (int) contentLength);
+            return;
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(1024);
+        byte[] chunk = Buffers.get();
+        int read;
+        while ((read = in.read(chunk, 0, (int) Math.min(chunk.length, maxBuffered + 1L - buffer.size()))) > 0) {
+            buffer.write(chunk, 0, read);
+            if (buffer.size() > maxBuffered) {
+                //Unknown length beyond the limit: what was read is sent first, then the rest of the stream
+                this.bodyStream = new SequenceInputStream(new ByteArrayInputStream(buffer.toByteArray()), in);
+                return;
+            }
+        }
+        if (buffer.size() > 0) this.body = buffer.toByteArray();
+    }
+
+    /**
+     * Returns the value of a request header, ignoring the case of its name.
+     *
+     * @param name Name of the header
+     * @return String Value of the header or null in case it is not present
+     */
+    public String getHeader(String name) {
+        return this.headers == null ? null : this.headers.get(name);
+    }
+
+    /**
+     * Returns the URL of the request as 'host/path?query', identifying its cached items.
+     *
+     * @return String Host header followed by the path and the query string, if any
+     */
+    public String getUrl() {
+        return getHostHeader() + getTarget();
+    }
+
     /**
      * Returns the HTTP 'Host' header value from the request.
      *
      * @return String Value of the 'Host' header
      */
     public String getHostHeader() {
-        String host = this.getHeaders().get("host");
-        if (host == null) host = this.getHeaders().get("Host");
-        return host;
+        return getHeader(HOST);
     }
 }
\ No newline at end of file
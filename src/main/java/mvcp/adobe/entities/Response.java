@@ -1,5 +1,6 @@
 package mvcp.adobe.entities;
 
+import java.io.InputStream;
 import java.util.Map;
 /**
  * Response is the internal representation of a HTTP response.
@@ -8,17 +9,34 @@ import java.util.Map;
  *     <li>headers: HTTP response headers</li>
  *     <li>body; HTTP response body payload</li>
  *     <li>status: HTTP response status</li>
+ *     <li>codec: Codec of the body when it is kept compressed (e.g. 'gzip'), null for a plain body</li>
+ *     <li>stream: Unread body of a large response, copied straight to the client and never cached</li>
+ *     <li>elapsed: Time the origin took to produce the response</li>
+ *     <li>endpoint: Endpoint that produced the response and attempts: Endpoints tried for it, for the access log</li>
  * </ul>
  * <p>
+ * A compressed body is only decompressed when it is read, so it can be sent as is to clients accepting its codec.
  *
  * @author      Marcelo Pereira
  * @version     1.0.0
  * @since       2019-06-08
  */
 public class Response {
-    private Map<String, String> headers;
-    private String body;
+    //Declared before the body, so the metadata of a serialized Response can be read without reading its body
+    private Headers headers;
     private int status;
+    private String codec;
+    private String body;
+    //Plain body decompressed on first read, not serialized
+    private transient String decoded;
+    private transient InputStream stream;
+    //Milliseconds the origin took to produce this response, not serialized
+    private transient long elapsed;
+    //Validator computed by the proxy for a cached response, not serialized
+    private transient String validator;
+    //Endpoint that answered and number of Endpoints tried, not serialized
+    private transient Endpoint endpoint;
+    private transient int attempts;
 
     public Response() {}
     public Response(int status, String body) {
@@ -26,20 +44,100 @@ public class Response {
         this.body = body;
     }
 
-    public Map<String, String> getHeaders() {
+    public Headers getHeaders() {
         return headers;
     }
 
-    public void setHeaders(Map<String, String> headers) {
+    public void setHeaders(Headers headers) {
         this.headers = headers;
     }
 
+    public void setHeaders(Map<String, String> headers) {
+        this.headers = Headers.of(headers);
+    }
+
     public String getBody() {
-        return body;
+        if (codec == null) return body;
+        if (decoded == null) decoded = Compression.decode(codec, body);
+        return decoded;
     }
 
     public void setBody(String body) {
         this.body = body;
+        this.codec = null;
+        this.decoded = null;
+    }
+
+    public String getCodec() {
+        return codec;
+    }
+
+    public InputStream getStream() {
+        return stream;
+    }
+
+    public void setStream(InputStream stream) {
+        this.stream = stream;
+    }
+
+    /**
+     * Returns the compressed body bytes, in case the body is kept compressed with the given codec.
+     *
+     * @param codec Codec accepted by the caller
+     * @return byte[] Compressed body or null in case the body is plain or uses another codec
+     */
+    public byte[] getEncodedBody(String codec) {
+        if (this.codec == null || !this.codec.equalsIgnoreCase(codec)) return null;
+        return Compression.toBytes(body);
+    }
+
+    /**
+     * Creates a copy of this Response holding a compressed body. Headers are shared with this Response.
+     *
+     * @param codec Codec used for compressing the body
+     * @param encodedBody Compressed body
+     * @return Response Copy of this Response with the compressed body
+     */
+    public Response withEncodedBody(String codec, String encodedBody) {
+        Response copy = new Response(status, encodedBody);
+        copy.headers = headers;
+        copy.codec = codec;
+        return copy;
+    }
+
+    public long getElapsed() {
+        return elapsed;
+    }
+
+    public void setElapsed(long elapsed) {
+        this.elapsed = elapsed;
+    }
+
+    /**
+     * @return String Strong validator of a cached response, sent as its ETag when the origin gave none
+     */
+    public String getValidator() {
+        return validator;
+    }
+
+    public void setValidator(String validator) {
+        this.validator = validator;
+    }
+
+    public Endpoint getEndpoint() {
+        return endpoint;
+    }
+
+    public void setEndpoint(Endpoint endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
     }
 
     public int getStatus() {
@@ -49,4 +147,14 @@ public class Response {
     public void setStatus(int status) {
         this.status = status;
     }
+
+    /**
+     * Returns the value of a response header, ignoring the case of its name.
+     *
+     * @param name Name of the header
+     * @return String Value of the header or null in case it is not present
+     */
+    public String getHeader(String name) {
+        return this.headers == null ? null : this.headers.get(name);
+    }
 }
\ No newline at end of file
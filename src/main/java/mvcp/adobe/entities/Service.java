@@ -10,6 +10,7 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 /**
  * Service represents a group of Endpoints responding together as replicas of an Application.
  * Each service is responsible for proper routing an incoming request to the best suitable Endpoint.
@@ -22,8 +23,12 @@ import java.util.List;
  *     <li>baseLoadBalancer: Implementation of a Load BaseLoadBalancer to route the incoming requests</li>
  *     <li>strategy: Type of implementation the internal baseLoadBalancer should follow</li>
  *     <li>endpoints: List of registered endpoints that are candidate for executing the Request</li>
+ *     <li>cachePolicy: Cache configuration of the Service, compiled from its options (see CachePolicy)</li>
  * </ul>
  * <p>
+ * Besides endpoints, the property string of a Service accepts options in the format 'key=value', e.g.:
+ * <pre>ServiceA,servicea.com,RANDOM,localhost:9000,stale-while-revalidate=30,negative-ttl-404=60,negative-ttl-5xx=0</pre>
+ * <pre>Static,static.com,RANDOM,localhost:9001,default-ttl=86400,cache-methods=GET|HEAD,cache-namespace=static</pre>
  *
  * @author      Marcelo Pereira
  * @version     1.0.0
@@ -37,6 +42,7 @@ public class Service implements IServiceHandler {
     private List<Endpoint> endpoints;
     private LoadBalanceStrategies strategy;
     private BaseLoadBalancer baseLoadBalancer;
+    private CachePolicy cachePolicy = new CachePolicy();
 
     public Service() {}
 
@@ -104,8 +110,42 @@ public class Service implements IServiceHandler {
         this.strategy = strategy;
     }
 
+    public CachePolicy getCachePolicy() {
+        return cachePolicy;
+    }
+
+    public void setCachePolicy(CachePolicy cachePolicy) {
+        this.cachePolicy = cachePolicy;
+    }
+
+    public int getStaleWhileRevalidate() {
+        return cachePolicy.getStaleWhileRevalidate();
+    }
+
+    public void setStaleWhileRevalidate(int staleWhileRevalidate) {
+        cachePolicy.setStaleWhileRevalidate(staleWhileRevalidate);
+    }
+
+    public Map<String, Integer> getNegativeTtls() {
+        return cachePolicy.getNegativeTtls();
+    }
+
+    public void setNegativeTtls(Map<String, Integer> negativeTtls) {
+        cachePolicy.setNegativeTtls(negativeTtls);
+    }
+
+    public long getMaxBodyBytes() {
+        return cachePolicy.getMaxBodyBytes();
+    }
+
+    public void setMaxBodyBytes(long maxBodyBytes) {
+        cachePolicy.setMaxBodyBytes(maxBodyBytes);
+    }
+
     /**
      * Executes the request by delegating the Endpoint decision to the Load BaseLoadBalancer.
+     * Responses larger than the maximum cacheable body are streamed, since they will not be cached.
+     * The time the origin took is kept in the response, as the recompute time of its cached item.
      *
      * @param request HTTP request to be processed
      * @return response HTTP returned response
@@ -113,7 +153,10 @@ public class Service implements IServiceHandler {
      */
     @Override
     public Response processRequest(Request request) throws NoAvailableEndpointsException {
-        return this.baseLoadBalancer.balance(request);
+        long start = System.currentTimeMillis();
+        Response response = this.baseLoadBalancer.balance(request, Math.max(getMaxBodyBytes(), 0));
+        if (response != null) response.setElapsed(System.currentTimeMillis() - start);
+        return response;
     }
 
     /**
@@ -151,6 +194,10 @@ public class Service implements IServiceHandler {
             for (int i = 3; i < props.length; i++) {
                 String endpoint = props[i];
                 if (endpoint == null || endpoint.trim().equalsIgnoreCase("")) continue;
+                if (endpoint.contains("=")) {
+                    ret.applyOption(endpoint.trim());
+                    continue;
+                }
                 String ip = endpoint.split(":")[0];
                 int port = Integer.parseInt(endpoint.split(":")[1]);
                 ret.endpoints.add(new Endpoint(ip, port));
@@ -162,6 +209,24 @@ public class Service implements IServiceHandler {
         return ret;
     }
 
+    /**
+     * Applies a 'key=value' option of the property string to this Service.
+     *
+     * @param option String option in the format 'key=value'
+     * @throws InvalidServiceDefinitionException Thrown in case the option is unknown or its value is invalid
+     */
+    private void applyOption(String option) throws InvalidServiceDefinitionException {
+        String key = option.split("=")[0].trim();
+        String value = option.substring(option.indexOf('=') + 1).trim();
+        try {
+            if (!cachePolicy.applyOption(key, value)) {
+                throw new InvalidServiceDefinitionException("Unknown service option: " + option);
+            }
+        } catch (NumberFormatException e) {
+            throw new InvalidServiceDefinitionException("Invalid service option: " + option);
+        }
+    }
+
     /**
      * Stringifies a Service for easier debugging.
      *
@@ -0,0 +1,25 @@
+package mvcp.adobe.enums;
+/**
+ * Cache outcomes of a request, as reported in the access log.
+ *
+ * Descriptions:
+ * <ul>
+ *     <li>HIT: A fresh cached response was served</li>
+ *     <li>STALE: A stale cached response was served (stale-while-revalidate, max-stale or stale-if-error)</li>
+ *     <li>REVALIDATED: A stale cached response was confirmed by the origin (304) and served</li>
+ *     <li>EXPIRED: A stale cached response was replaced by a new response of the origin</li>
+ *     <li>NOT_MODIFIED: A conditional request matched a fresh cached response and was answered with a 304</li>
+ *     <li>NEGATIVE: A cached error response was served</li>
+ *     <li>MISS: The response was not cached and was fetched from the origin</li>
+ *     <li>BYPASS: The cache was skipped by the request headers or by the Service policy</li>
+ *     <li>UNAVAILABLE: The Cache server was not available and the origin was called directly</li>
+ *     <li>PURGE: The request purged cached items</li>
+ * </ul>
+ *
+ * @author      Marcelo Pereira
+ * @version     1.0.0
+ * @since       2019-06-14
+ */
+public enum CacheStatus {
+    HIT, STALE, REVALIDATED, EXPIRED, NOT_MODIFIED, NEGATIVE, MISS, BYPASS, UNAVAILABLE, PURGE
+}
@@ -0,0 +1,17 @@
+package mvcp.adobe.enums;
+/**
+ * Defined States for the Cache circuit breaker.
+ *
+ * Descriptions:
+ * <ul>
+ *     <li>CLOSED: Cache calls go through to the Cache server</li>
+ *     <li>OPEN: Cache calls fail immediately while the Cache server is probed in background</li>
+ * </ul>
+ *
+ * @author      Marcelo Pereira
+ * @version     1.0.0
+ * @since       2019-06-13
+ */
+public enum CircuitState {
+    CLOSED, OPEN
+}
@@ -32,6 +32,8 @@ public class ReverseProxy {
     public static final Logger logger = (Logger) LoggerFactory.getLogger(ReverseProxy.class);
     //Timeout for health check request
     private static final int REQUEST_TIMEOUT = 5;
+    private static final String MAX_BODY_BYTES_PROPERTY = "mvcp.adobe.cache.max.body.bytes";
+    private static final long DEFAULT_MAX_BODY_BYTES = 1024 * 1024;
 
     @Autowired
     private Environment env;
@@ -68,11 +70,10 @@ public class ReverseProxy {
      * @throws ServiceHostNotFoundException Thrown when no Service matches the specified Request
      */
     public Service discoverService(Request req) throws ServiceHostNotFoundException {
-        logger.info("Discovering service...");
+        String host = req.getHostHeader();
         for (Service service : this.services) {
-            logger.info("Comparing service domain " + service.getDomain().trim() + " with " + req.getHostHeader());
-            if (service.getDomain().trim().equalsIgnoreCase(req.getHostHeader())) {
-                logger.info("Found: " + service);
+            if (service.getDomain().trim().equalsIgnoreCase(host)) {
+                logger.debug("Found: {}", service);
                 return service;
             }
         }
@@ -95,7 +96,8 @@ public class ReverseProxy {
     }
 
     /**
-     * Loads the Service configuration from a formatted String
+     * Loads the Service configuration from a formatted String.
+     * Services without a 'max-body-bytes' option get the global 'mvcp.adobe.cache.max.body.bytes'.
      *
      * @param str String containing a formatted Service configuration
      * @throws InvalidServiceDefinitionException Thrown when the String is invalid
@@ -103,6 +105,10 @@ public class ReverseProxy {
     private void loadServices(String str) throws InvalidServiceDefinitionException {
         if (str == null) str = env.getProperty("mvcp.adobe.proxy.services");
         this.services = Service.fromProperty(str);
+        long maxBodyBytes = env.getProperty(MAX_BODY_BYTES_PROPERTY, Long.class, DEFAULT_MAX_BODY_BYTES);
+        for (Service service : this.services) {
+            if (service.getMaxBodyBytes() < 0) service.setMaxBodyBytes(maxBodyBytes);
+        }
 
         logger.info("Services loaded:");
         this.services.forEach(System.out::println);
@@ -116,16 +122,18 @@ public class ReverseProxy {
     @Scheduled(fixedRateString = "${mvcp.adobe.proxy.polling.interval.milis}")
     public void pollServiceEndpoints() {
         for (Service service : services) {
-            logger.info("Polling endpoints each " +
-                    env.getProperty("mvcp.adobe.proxy.polling.interval.milis") +
-                    "(ms). Service " + service.toString() + "...");
+            logger.debug("Polling endpoints of Service {}...", service);
             for (Endpoint endpoint : service.getEndpoints()) {
+                EndpointStatus status;
                 try (Socket socket = new Socket()) {
                     socket.connect(new InetSocketAddress(endpoint.getIp(), endpoint.getPort()), REQUEST_TIMEOUT);
-                    endpoint.setStatus(EndpointStatus.ACTIVE);
-                    logger.info(endpoint.toJsonString());
+                    status = EndpointStatus.ACTIVE;
                 } catch (IOException e) {
-                    endpoint.setStatus(EndpointStatus.SUSPENDED);
+                    status = EndpointStatus.SUSPENDED;
+                }
+                //Only status changes are logged, a steady Endpoint does not log on every poll
+                if (endpoint.getStatus() != status) {
+                    endpoint.setStatus(status);
                     logger.info(endpoint.toJsonString());
                 }
             }
@@ -0,0 +1,90 @@
+package mvcp.adobe.entities;
+
+import mvcp.adobe.components.AccessLog;
+import mvcp.adobe.enums.CacheStatus;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AccessLogTest extends BaseTest {
+    private Path directory;
+    private AccessLog log;
+
+    @Before
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("access-log-test");
+        log = new AccessLog();
+    }
+
+    @After
+    public void teardown() {
+        log.close();
+        File[] files = directory.toFile().listFiles();
+        if (files != null) {
+            for (File file : files) file.delete();
+        }
+        directory.toFile().delete();
+    }
+
+    @Test
+    public void shouldFormatRecordsAsTabSeparatedLines() {
+        Request request = new Request("1.1", "GET", "/items", null, null);
+        request.setHeaders(new Headers().add("Host", SERVICE_A_DOMAIN));
+        request.setQuery("a=1");
+        request.setCacheStatus(CacheStatus.MISS);
+        Response response = new Response(200, "{}");
+        response.setEndpoint(new Endpoint("10.0.0.1", 9000));
+        response.setAttempts(2);
+        response.setElapsed(7);
+
+        AccessLogRecord record = new AccessLogRecord(0);
+        record.setRequest(request);
+        record.setResponse(response);
+        record.setStatus(200);
+        record.setTotalMillis(9);
+        record.setCacheMillis(1);
+        record.setSize(2);
+        assertEquals("1970-01-01T00:00:00Z\tGET\tservicea.com\t/items?a=1\t200\tMISS\t10.0.0.1:9000\t2\t9\t1\t7\t2",
+                record.format(new StringBuilder()).toString());
+
+        AccessLogRecord empty = new AccessLogRecord(0);
+        Request injected = new Request("1.1", "GET", "/a\tb\nc", null, null);
+        empty.setRequest(injected);
+        assertEquals("1970-01-01T00:00:00Z\tGET\t-\t/a?b?c\t0\t-\t-\t0\t0\t0\t0\t-",
+                empty.format(new StringBuilder()).toString());
+    }
+
+    @Test
+    public void shouldWriteAndRotateFiles() throws IOException {
+        Path path = directory.resolve("access.log");
+        log.open(path, 64, 200, 2, 10);
+        for (int i = 0; i < 20; i++) {
+            assertTrue(log.log(new AccessLogRecord(i)));
+        }
+        log.close();
+
+        List<String> lines = new ArrayList<>();
+        for (String name : new String[]{"access.log.2", "access.log.1", "access.log"}) {
+            Path file = directory.resolve(name);
+            assertTrue(Files.exists(file));
+            assertTrue(Files.size(file) <= 200);
+            lines.addAll(Files.readAllLines(file, StandardCharsets.UTF_8));
+        }
+        assertFalse(Files.exists(directory.resolve("access.log.3")));
+        assertEquals("1970-01-01T00:00:00.019Z", lines.get(lines.size() - 1).split("\t")[0]);
+        //The oldest records were rotated out
+        assertTrue(lines.size() < 20);
+    }
+}
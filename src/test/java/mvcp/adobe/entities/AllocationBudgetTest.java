@@ -0,0 +1,186 @@
+package mvcp.adobe.entities;
+
+import ch.qos.logback.classic.Level;
+import mvcp.adobe.components.AccessLog;
+import mvcp.adobe.components.CacheManager;
+import mvcp.adobe.components.MD5Serializer;
+import mvcp.adobe.controllers.Entrypoint;
+import mvcp.adobe.proxy.ReverseProxy;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AllocationBudgetTest extends BaseTest {
+    //Bytes allocated per call, measured by the HotSpot per-thread allocation counter
+    private static final long MD5_BUDGET_BYTES = 512;
+    private static final long HASH_REQUEST_BUDGET_BYTES = 8192;
+    private static final long CACHED_REQUEST_BUDGET_BYTES = 6144;
+    private static final long PROXIED_REQUEST_BUDGET_BYTES = 6144;
+    private static final int WARMUP = 20000;
+    private static final int MEASURED = 10000;
+    private static final String URL = "servicea.com/items?b=2&a=1";
+    private static final byte[] REQUEST_BODY = "{\"MY_FIELD\":\"MY_VALUE\"}".getBytes(StandardCharsets.UTF_8);
+    private static final String RESPONSE_BODY = "{\"items\":[1,2,3]}";
+
+    //Requests are measured at the level the proxy runs with, so debug messages must cost nothing
+    private ch.qos.logback.classic.Logger root;
+    private Level level;
+
+    @Before
+    public void setup() {
+        root = (ch.qos.logback.classic.Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME);
+        level = root.getLevel();
+        root.setLevel(Level.INFO);
+    }
+
+    @After
+    public void teardown() {
+        root.setLevel(level);
+    }
+
+    @Test
+    public void shouldHashWithinAllocationBudget() {
+        com.sun.management.ThreadMXBean threads = allocationCounter();
+        assertEquals(32, MD5Serializer.getMd5(URL).length());
+        long perCall = measure(threads, () -> MD5Serializer.getMd5(URL));
+        assertTrue("getMd5 allocated " + perCall + " bytes per call, budget is " + MD5_BUDGET_BYTES, perCall <= MD5_BUDGET_BYTES);
+    }
+
+    @Test
+    public void shouldHashRequestWithinAllocationBudget() {
+        com.sun.management.ThreadMXBean threads = allocationCounter();
+        MD5Serializer serializer = new MD5Serializer();
+        Request request = createRequest();
+        assertEquals(serializer.hashRequest(request), serializer.hashRequest(createRequest()));
+        long perCall = measure(threads, () -> serializer.hashRequest(request));
+        assertTrue("hashRequest allocated " + perCall + " bytes per call, budget is " + HASH_REQUEST_BUDGET_BYTES,
+                perCall <= HASH_REQUEST_BUDGET_BYTES);
+    }
+
+    @Test
+    public void shouldServeCachedRequestWithinAllocationBudget() {
+        com.sun.management.ThreadMXBean threads = allocationCounter();
+        Entrypoint entrypoint = createEntrypoint(createResponse(), null);
+        MockHttpServletRequest request = createServletRequest();
+        ResponseEntity<Object> response = entrypoint.get(request);
+        assertEquals(200, response.getStatusCodeValue());
+        assertEquals(RESPONSE_BODY, response.getBody());
+        long perCall = measure(threads, () -> entrypoint.get(request));
+        assertTrue("A cached request allocated " + perCall + " bytes, budget is " + CACHED_REQUEST_BUDGET_BYTES,
+                perCall <= CACHED_REQUEST_BUDGET_BYTES);
+    }
+
+    @Test
+    public void shouldProxyRequestWithinAllocationBudget() {
+        com.sun.management.ThreadMXBean threads = allocationCounter();
+        Entrypoint entrypoint = createEntrypoint(null, createResponse());
+        MockHttpServletRequest request = createServletRequest();
+        ResponseEntity<Object> response = entrypoint.get(request);
+        assertEquals(200, response.getStatusCodeValue());
+        assertEquals(RESPONSE_BODY, response.getBody());
+        long perCall = measure(threads, () -> entrypoint.get(request));
+        assertTrue("A proxied request allocated " + perCall + " bytes, budget is " + PROXIED_REQUEST_BUDGET_BYTES,
+                perCall <= PROXIED_REQUEST_BUDGET_BYTES);
+    }
+
+    /**
+     * Returns the allocation counter of the JVM. It is a HotSpot extension: on other JVMs the budgets are skipped.
+     *
+     * @return ThreadMXBean Counter of the bytes allocated by each thread
+     */
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue("The JVM does not count allocated bytes", bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported());
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        threads.setThreadAllocatedMemoryEnabled(true);
+        return threads;
+    }
+
+    /**
+     * Measures the average bytes allocated by the current thread per run of a task, once the task is warmed up.
+     */
+    private static long measure(com.sun.management.ThreadMXBean threads, Runnable task) {
+        for (int i = 0; i < WARMUP; i++) task.run();
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < MEASURED; i++) task.run();
+        return (threads.getThreadAllocatedBytes(thread) - before) / MEASURED;
+    }
+
+    /**
+     * Creates an Entrypoint answering from a cache and a proxy that do no work of their own.
+     * They are plain subclasses rather than mocks: a mock records every call, which would be measured too.
+     *
+     * @param cached Response of the cache, null for a cache miss
+     * @param proxied Response of the proxy
+     * @return Entrypoint Controller under measure
+     */
+    private static Entrypoint createEntrypoint(Response cached, Response proxied) {
+        Entrypoint entrypoint = new Entrypoint();
+        ReflectionTestUtils.setField(entrypoint, "cache", new CacheManager() {
+            @Override
+            public Response getCached(Request request) {
+                return cached;
+            }
+
+            @Override
+            public void storeAsync(Request request, Response response) {
+            }
+        });
+        ReflectionTestUtils.setField(entrypoint, "proxy", new ReverseProxy() {
+            @Override
+            public Response processRequest(Request request) {
+                return proxied;
+            }
+        });
+        //Not opened, so records are dropped
+        ReflectionTestUtils.setField(entrypoint, "accessLog", new AccessLog());
+        return entrypoint;
+    }
+
+    private static MockHttpServletRequest createServletRequest() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/items");
+        request.setQueryString("b=2&a=1");
+        request.addHeader("Host", SERVICE_A_DOMAIN);
+        request.addHeader("Accept", "application/json");
+        request.addHeader("User-Agent", "curl/7.64.0");
+        return request;
+    }
+
+    private static Response createResponse() {
+        Response response = new Response(200, RESPONSE_BODY);
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Type", "application/json");
+        headers.put("Cache-Control", "max-age=60");
+        response.setHeaders(headers);
+        return response;
+    }
+
+    private static Request createRequest() {
+        Headers headers = new Headers()
+                .add("Host", SERVICE_A_DOMAIN)
+                .add("Accept", "application/json")
+                .add("Content-Type", "application/json")
+                .add("User-Agent", "curl/7.64.0");
+        Request request = new Request("1.1", "POST", "/items", null, REQUEST_BODY);
+        request.setHeaders(headers);
+        request.setQuery("b=2&a=1");
+        return request;
+    }
+}
@@ -0,0 +1,68 @@
+package mvcp.adobe.entities;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ByteRangeTest extends BaseTest {
+
+    @Test
+    public void shouldParseRanges() {
+        List<ByteRange> ranges = ByteRange.parse("bytes=0-99, 500-, -50", 2000);
+        assertEquals(2, ranges.size());
+        assertEquals("bytes 0-99/2000", ranges.get(0).toContentRange(2000));
+        //'500-' and '-50' overlap, so they are coalesced
+        assertEquals("bytes 500-1999/2000", ranges.get(1).toContentRange(2000));
+        assertEquals(100, ranges.get(0).getLength());
+        assertEquals("bytes 950-999/1000", ByteRange.parse("bytes=-50", 1000).get(0).toContentRange(1000));
+    }
+
+    @Test
+    public void shouldCoalesceOverlappingRanges() {
+        List<ByteRange> ranges = ByteRange.parse("bytes=500-599, 0-99, 50-149, 150-199, -1", 1000);
+        assertEquals(3, ranges.size());
+        assertEquals("bytes 0-199/1000", ranges.get(0).toContentRange(1000));
+        assertEquals("bytes 500-599/1000", ranges.get(1).toContentRange(1000));
+        assertEquals("bytes 999-999/1000", ranges.get(2).toContentRange(1000));
+
+        //The same bytes requested many times are sent once
+        StringBuilder header = new StringBuilder("bytes=0-");
+        for (int i = 1; i < ByteRange.MAX_RANGES; i++) header.append(",0-");
+        ranges = ByteRange.parse(header.toString(), 1000);
+        assertEquals(1, ranges.size());
+        assertEquals(1000, ranges.get(0).getLength());
+    }
+
+    @Test
+    public void shouldKeepOrderOfDisjointRanges() {
+        List<ByteRange> ranges = ByteRange.parse("bytes=900-, 0-99", 1000);
+        assertEquals("bytes 900-999/1000", ranges.get(0).toContentRange(1000));
+        assertEquals("bytes 0-99/1000", ranges.get(1).toContentRange(1000));
+    }
+
+    @Test
+    public void shouldCapRangesToLength() {
+        assertEquals("bytes 10-19/20", ByteRange.parse("bytes=10-500", 20).get(0).toContentRange(20));
+        assertEquals("bytes 0-19/20", ByteRange.parse("bytes=-500", 20).get(0).toContentRange(20));
+    }
+
+    @Test
+    public void shouldRejectUnsatisfiableRanges() {
+        assertTrue(ByteRange.parse("bytes=20-30", 20).isEmpty());
+        assertTrue(ByteRange.parse("bytes=-0", 20).isEmpty());
+        assertTrue(ByteRange.parse("bytes=500-", 20).isEmpty());
+    }
+
+    @Test
+    public void shouldIgnoreInvalidHeaders() {
+        assertNull(ByteRange.parse(null, 20));
+        assertNull(ByteRange.parse("items=0-1", 20));
+        assertNull(ByteRange.parse("bytes=5-1", 20));
+        assertNull(ByteRange.parse("bytes=a-b", 20));
+        assertNull(ByteRange.parse("bytes=1", 20));
+    }
+}
@@ -0,0 +1,150 @@
+package mvcp.adobe.entities;
+
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CacheFreshnessTest extends BaseTest {
+    private static final long NOW = System.currentTimeMillis() / 1000 * 1000;
+
+    @Test
+    public void shouldParseDirectives() {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("CACHE-CONTROL", "Public, Max-Age=\"60\", max-stale");
+        headers.put("cache-control", "s-maxage=30, stale-if-error=abc");
+        CacheDirectives directives = CacheDirectives.of(headers);
+        assertTrue(directives.isPublic());
+        assertEquals(60, directives.getMaxAge());
+        assertEquals(30, directives.getSMaxAge());
+        assertEquals(CacheDirectives.UNLIMITED, directives.getMaxStale());
+        assertEquals(-1, directives.getStaleIfError());
+        assertTrue(directives.requiresRevalidation());
+        assertFalse(directives.bypassesCache());
+    }
+
+    @Test
+    public void shouldHonorPragmaNoCache() {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Pragma", "no-cache");
+        assertTrue(CacheDirectives.of(headers).bypassesCache());
+        headers.put("Cache-Control", "max-age=10");
+        assertFalse(CacheDirectives.of(headers).bypassesCache());
+    }
+
+    @Test
+    public void shouldPreferSMaxAgeOverMaxAge() {
+        CacheFreshness freshness = evaluate("", item(100, "max-age=300, s-maxage=60"));
+        assertEquals(60, freshness.getLifetime());
+        assertFalse(freshness.isFresh());
+        assertEquals(40, freshness.getStaleness());
+    }
+
+    @Test
+    public void shouldUseExpiresRelativeToDate() {
+        CacheItem item = item(10, null);
+        item.getResponse().getHeaders().put("Date", httpDate(NOW - 10000));
+        item.getResponse().getHeaders().put("Expires", httpDate(NOW + 20000));
+        CacheFreshness freshness = evaluate("", item);
+        assertEquals(30, freshness.getLifetime());
+        assertTrue(freshness.isFresh());
+
+        item.getResponse().getHeaders().put("Expires", "0");
+        assertFalse(evaluate("", item).isFresh());
+    }
+
+    @Test
+    public void shouldAddInitialAge() {
+        CacheItem item = item(10, "max-age=60");
+        item.getResponse().getHeaders().put("Age", "45");
+        CacheFreshness freshness = evaluate("", item);
+        assertEquals(55, freshness.getAge());
+        assertTrue(freshness.isFresh());
+        assertFalse(evaluate("min-fresh=10", item).isFresh());
+        assertFalse(evaluate("max-age=50", item).isFresh());
+    }
+
+    @Test
+    public void shouldNotExpireWithoutExpirationInformation() {
+        CacheFreshness freshness = evaluate("", item(100000, null));
+        assertEquals(CacheFreshness.UNLIMITED, freshness.getLifetime());
+        assertTrue(freshness.isFresh());
+    }
+
+    @Test
+    public void shouldServeStaleWithinMaxStale() {
+        CacheItem item = item(100, "max-age=60");
+        assertTrue(evaluate("max-stale=50", item).isWithinMaxStale());
+        assertTrue(evaluate("max-stale", item).isWithinMaxStale());
+        assertFalse(evaluate("max-stale=30", item).isWithinMaxStale());
+        assertFalse(evaluate("", item).isWithinMaxStale());
+    }
+
+    @Test
+    public void shouldNotServeStaleWhenMustRevalidate() {
+        CacheItem item = item(100, "max-age=60, must-revalidate, stale-while-revalidate=300, stale-if-error=300");
+        assertFalse(evaluate("max-stale", item).isWithinMaxStale());
+        assertFalse(evaluate("", item).isWithinStaleWhileRevalidate(300));
+        assertFalse(evaluate("", item).isWithinStaleIfError(300));
+    }
+
+    @Test
+    public void shouldServeStaleWithinWindows() {
+        CacheItem item = item(100, "max-age=60, stale-while-revalidate=50");
+        assertTrue(evaluate("", item).isWithinStaleWhileRevalidate(0));
+        assertFalse(evaluate("max-age=90", item).isWithinStaleWhileRevalidate(0));
+        assertTrue(evaluate("", item).isWithinStaleIfError(40));
+        assertFalse(evaluate("", item).isWithinStaleIfError(30));
+    }
+
+    @Test
+    public void shouldApplyServiceTtls() {
+        CachePolicy policy = new CachePolicy();
+        policy.applyOption("default-ttl", "60");
+        policy.applyOption("max-ttl", "120");
+        assertEquals(60, CacheFreshness.evaluate(CacheDirectives.parse(""), item(100, null), policy, NOW).getLifetime());
+        assertFalse(CacheFreshness.evaluate(CacheDirectives.parse(""), item(100, null), policy, NOW).isFresh());
+        assertEquals(120, CacheFreshness.evaluate(CacheDirectives.parse(""), item(100, "max-age=3600"), policy, NOW).getLifetime());
+        assertEquals(30, CacheFreshness.evaluate(CacheDirectives.parse(""), item(10, "max-age=30"), policy, NOW).getLifetime());
+    }
+
+    @Test
+    public void shouldRefreshEarlyNearExpiry() {
+        //Fresh for another 10s, the item took 2s to produce
+        CacheFreshness freshness = evaluate("", item(50, "max-age=60"));
+        assertTrue(freshness.isEarlyRefreshDue(2000, 1.0, 0.001));
+        assertFalse(freshness.isEarlyRefreshDue(2000, 1.0, 0.5));
+        assertFalse(freshness.isEarlyRefreshDue(0, 1.0, 0.001));
+        assertFalse(freshness.isEarlyRefreshDue(2000, 0, 0.001));
+        //Closer to expiry, a larger random number triggers it
+        assertTrue(evaluate("", item(59, "max-age=60")).isEarlyRefreshDue(2000, 1.0, 0.5));
+        assertFalse(evaluate("", item(10, null)).isEarlyRefreshDue(2000, 1.0, 0.001));
+        assertFalse(evaluate("", item(70, "max-age=60")).isEarlyRefreshDue(2000, 1.0, 0.001));
+    }
+
+    private CacheFreshness evaluate(String requestCacheControl, CacheItem item) {
+        return CacheFreshness.evaluate(CacheDirectives.parse(requestCacheControl), item, NOW);
+    }
+
+    private CacheItem item(long ageInSeconds, String cacheControl) {
+        Response response = new Response(200, "BODY");
+        response.setHeaders(new HashMap<>());
+        if (cacheControl != null) response.getHeaders().put("Cache-Control", cacheControl);
+        CacheItem item = new CacheItem(response);
+        item.setIsoCreated(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(NOW - ageInSeconds * 1000)));
+        return item;
+    }
+
+    private String httpDate(long milis) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(milis).atOffset(ZoneOffset.UTC));
+    }
+}
@@ -1,10 +1,20 @@
 package mvcp.adobe.entities;
 
 import mvcp.adobe.abstractions.ISerializer;
+import mvcp.adobe.components.CacheIndex;
+import mvcp.adobe.components.CacheInvalidator;
 import mvcp.adobe.components.CacheManager;
+import mvcp.adobe.components.HotKeyCache;
+import mvcp.adobe.components.KeyFilter;
 import mvcp.adobe.components.MD5Serializer;
+import mvcp.adobe.components.NegativeCache;
 import mvcp.adobe.components.RedisCache;
+import mvcp.adobe.enums.CacheStatus;
+import mvcp.adobe.enums.LoadBalanceStrategies;
 import mvcp.adobe.exceptions.CacheNotAvailableException;
+import mvcp.adobe.exceptions.NoAvailableEndpointsException;
+import mvcp.adobe.exceptions.ServiceHostNotFoundException;
+import mvcp.adobe.proxy.ReverseProxy;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -17,12 +27,17 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 
@@ -35,6 +50,24 @@ public class CacheManagerTest extends BaseTest {
     @Mock
     private RedisCache redis = new RedisCache();
 
+    @Mock
+    private ReverseProxy proxy;
+
+    @Mock
+    private CacheIndex index;
+
+    @Mock
+    private CacheInvalidator invalidator;
+
+    @Mock
+    private NegativeCache negativeCache;
+
+    @Mock
+    private KeyFilter keyFilter;
+
+    @Mock
+    private HotKeyCache hotKeys;
+
     private ISerializer serializer = new MD5Serializer();
 
     @InjectMocks
@@ -51,6 +84,7 @@ public class CacheManagerTest extends BaseTest {
         String hash = serializer.hashRequest(getRequest1());
         String hash2 = serializer.serializeCacheItem(item);
         Mockito.when(redis.get(hash)).thenReturn(hash2);
+        Mockito.lenient().when(keyFilter.mightContain(Mockito.anyString())).thenReturn(true);
 
         cache.setSerializer(serializer);
     }
@@ -60,7 +94,7 @@ public class CacheManagerTest extends BaseTest {
         Request request = getRequest1();
         Response response = getResponse1();
         response.getHeaders().put(CACHE_CONTROL_HEADER, "public");
-        cache.store(request, response);
+        assertTrue(cache.store(request, response));
         Mockito.verify(redis, Mockito.times(1)).put(eq(new MD5Serializer().hashRequest(request)), any());
     }
 
@@ -87,7 +121,7 @@ public class CacheManagerTest extends BaseTest {
         Request request = getRequest1();
         Response response = getResponse1();
         response.getHeaders().put(CACHE_CONTROL_HEADER, "no-store");
-        cache.store(request, response);
+        assertFalse(cache.store(request, response));
         Mockito.verify(redis, Mockito.times(0)).put(eq(new MD5Serializer().hashRequest(request)), any());
     }
 
@@ -164,6 +198,213 @@ public class CacheManagerTest extends BaseTest {
         assertNull(result);
     }
 
+    @Test
+    public void shouldRevalidateWhenMaxAgeExceeded() throws CacheNotAvailableException, InterruptedException,
+            ServiceHostNotFoundException, NoAvailableEndpointsException {
+        Request request = getRequest2();
+        CacheItem item = new CacheItem();
+        item.setResponse(getResponse1());
+        item.getResponse().getHeaders().put("ETag", "\"v1\"");
+        item.setIsoCreated(START_TIME);
+        String hash = serializer.hashRequest(request);
+        Mockito.when(redis.get(hash)).thenReturn(serializer.serializeCacheItem(item));
+        Mockito.when(proxy.processRequest(any())).thenReturn(new Response(304, ""));
+
+        Thread.sleep(1000);
+        request.getHeaders().put(CACHE_CONTROL_HEADER, "max-age=1");
+        Response result = cache.getCached(request);
+        assertEquals(item.getResponse().getBody(), result.getBody());
+        assertEquals(200, result.getStatus());
+        Mockito.verify(redis, Mockito.times(1)).put(eq(hash), any());
+    }
+
+    @Test
+    public void shouldServeStaleWhileRevalidating() throws CacheNotAvailableException,
+            ServiceHostNotFoundException, NoAvailableEndpointsException {
+        Request request = getRequest2();
+        CacheItem item = new CacheItem();
+        item.setResponse(getResponse1());
+        item.getResponse().getHeaders().put("Cache-Control", "max-age=0, stale-while-revalidate=60");
+        item.getResponse().getHeaders().put("ETag", "\"v1\"");
+        item.setIsoCreated(START_TIME);
+        String hash = serializer.hashRequest(request);
+        Mockito.when(redis.get(hash)).thenReturn(serializer.serializeCacheItem(item));
+        Mockito.when(proxy.discoverService(any())).thenReturn(roundrobin);
+        Response notModified = new Response(304, "");
+        notModified.setHeaders(Collections.singletonMap("Cache-Control", "max-age=60"));
+        Mockito.when(proxy.processRequest(any())).thenReturn(notModified);
+
+        Response result = cache.getCached(request);
+        assertEquals(item.getResponse().getBody(), result.getBody());
+        Mockito.verify(proxy, Mockito.timeout(1000).times(1)).processRequest(any());
+        Mockito.verify(redis, Mockito.timeout(1000).times(1)).put(eq(hash), any());
+
+        //The refresh updated its own copy: the response being served and its logged status are untouched
+        assertEquals(CacheStatus.STALE, request.getCacheStatus());
+        assertEquals("max-age=0, stale-while-revalidate=60", result.getHeaders().get("Cache-Control"));
+    }
+
+    @Test
+    public void shouldServeStaleIfError() throws CacheNotAvailableException {
+        Request request = getRequest2();
+        CacheItem item = new CacheItem();
+        item.setResponse(getResponse1());
+        item.getResponse().getHeaders().put("Cache-Control", "max-age=0");
+        item.setIsoCreated(START_TIME);
+        Mockito.when(redis.get(serializer.hashRequest(request))).thenReturn(serializer.serializeCacheItem(item));
+
+        Response result = cache.getStaleIfError(request);
+        assertEquals(item.getResponse().getBody(), result.getBody());
+        assertEquals("110 - \"Response is Stale\"", result.getHeader("Warning"));
+    }
+
+    @Test
+    public void shouldServeStaleWhenRevalidationFails() throws CacheNotAvailableException,
+            ServiceHostNotFoundException, NoAvailableEndpointsException {
+        Request request = getRequest2();
+        CacheItem item = new CacheItem();
+        item.setResponse(getResponse1());
+        item.getResponse().getHeaders().put("Cache-Control", "max-age=0");
+        item.getResponse().getHeaders().put("ETag", "\"v1\"");
+        item.setIsoCreated(START_TIME);
+        String hash = serializer.hashRequest(request);
+        Mockito.when(redis.get(hash)).thenReturn(serializer.serializeCacheItem(item));
+        Mockito.when(proxy.discoverService(any())).thenReturn(roundrobin);
+        Mockito.when(proxy.processRequest(any())).thenReturn(new Response(503, "Down for maintenance"));
+
+        Response result = cache.getCached(request);
+        assertEquals(item.getResponse().getBody(), result.getBody());
+        assertEquals(CacheStatus.STALE, request.getCacheStatus());
+        Mockito.verify(negativeCache, Mockito.never()).put(any(), any(), any());
+    }
+
+    @Test
+    public void shouldAnswerNotModifiedFromMetadata() throws CacheNotAvailableException {
+        Request request = getRequest2();
+        CacheItem item = new CacheItem(getResponse1());
+        item.setEtag(serializer.validatorOf(item.getResponse()));
+        item.getResponse().getHeaders().put("Cache-Control", "max-age=60");
+        Mockito.when(redis.get(serializer.hashRequest(request))).thenReturn(serializer.serializeCacheItem(item));
+
+        request.getHeaders().put("If-None-Match", "\"other\", W/" + item.getEtag());
+        Response result = cache.getCached(request);
+        assertEquals(304, result.getStatus());
+        assertNull(result.getBody());
+        assertEquals("max-age=60", result.getHeader("Cache-Control"));
+        assertEquals(item.getEtag(), result.getValidator());
+
+        request.getHeaders().put("If-None-Match", "\"other\"");
+        result = cache.getCached(request);
+        assertEquals(200, result.getStatus());
+        assertEquals(item.getEtag(), result.getValidator());
+
+        //The tag sent with the gzip encoded body validates the same item
+        request.getHeaders().put("If-None-Match", Compression.gzipTag(item.getEtag()));
+        assertEquals(304, cache.getCached(request).getStatus());
+    }
+
+    @Test
+    public void shouldNotServeStaleIfErrorWhenTooOld() throws CacheNotAvailableException {
+        Request request = getRequest2();
+        CacheItem item = new CacheItem();
+        item.setResponse(getResponse1());
+        item.getResponse().getHeaders().put("Cache-Control", "max-age=0");
+        item.setIsoCreated(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(System.currentTimeMillis() - 3600000)));
+        Mockito.when(redis.get(serializer.hashRequest(request))).thenReturn(serializer.serializeCacheItem(item));
+
+        assertNull(cache.getStaleIfError(request));
+    }
+
+    @Test
+    public void shouldNotStoreBodyLargerThanServiceLimit() throws CacheNotAvailableException, ServiceHostNotFoundException {
+        Request request = getRequest1();
+        Response response = getResponse1();
+        Service service = new Service("ServiceA", "servicea.com", LoadBalanceStrategies.RANDOM);
+        service.setMaxBodyBytes(8);
+        Mockito.when(proxy.discoverService(any())).thenReturn(service);
+        assertFalse(cache.store(request, response));
+        Mockito.verify(redis, Mockito.times(0)).put(any(), any());
+    }
+
+    @Test
+    public void shouldMeasureBodyLimitInBytes() throws CacheNotAvailableException, ServiceHostNotFoundException {
+        Request request = getRequest1();
+        //6 characters, 12 bytes in UTF-8, without Content-Length
+        Response response = new Response(200, "\u00e9\u00e9\u00e9\u00e9\u00e9\u00e9");
+        response.setHeaders(Collections.singletonMap("Content-Type", "text/plain; charset=utf-8"));
+        Service service = new Service("ServiceA", "servicea.com", LoadBalanceStrategies.RANDOM);
+        service.setMaxBodyBytes(8);
+        Mockito.when(proxy.discoverService(any())).thenReturn(service);
+        cache.store(request, response);
+        Mockito.verify(redis, Mockito.times(0)).put(any(), any());
+    }
+
+    @Test
+    public void shouldStoreErrorsOnlyInNegativeCache() throws CacheNotAvailableException {
+        Request request = getRequest1();
+        Response response = new Response(404, "Not Found");
+        String hash = serializer.hashRequest(request);
+        assertFalse(cache.store(request, response));
+        Mockito.verify(negativeCache, Mockito.times(1)).put(eq(hash), eq(response), any());
+        Mockito.verify(redis, Mockito.times(0)).put(any(), any());
+    }
+
+    @Test
+    public void shouldServeCachedErrorBeforeCache() throws CacheNotAvailableException {
+        Request request = getRequest1();
+        Response error = new Response(404, "Not Found");
+        Mockito.when(negativeCache.get(serializer.hashRequest(request))).thenReturn(error);
+        assertEquals(error, cache.getCached(request));
+        Mockito.verify(redis, Mockito.times(0)).get(any());
+    }
+
+    @Test
+    public void shouldSkipCacheForKeysNotInFilter() throws CacheNotAvailableException {
+        Request request = getRequest1();
+        Mockito.when(keyFilter.mightContain(serializer.hashRequest(request))).thenReturn(false);
+        assertNull(cache.getCached(request));
+        Mockito.verify(redis, Mockito.times(0)).get(any());
+    }
+
+    @Test
+    public void shouldServeHotKeysFromNearCache() throws CacheNotAvailableException {
+        Request request = getRequest1();
+        String hash = serializer.hashRequest(request);
+        Mockito.when(hotKeys.record(eq(hash), any())).thenReturn(true);
+        assertEquals("MY_RETURNED_BODY", cache.getCached(request).getBody());
+        Mockito.verify(hotKeys).put(eq(hash), any());
+        Mockito.when(hotKeys.get(hash)).thenReturn(serializer.serializeCacheItem(new CacheItem(getResponse1())));
+        cache.getCached(request);
+        Mockito.verify(redis, Mockito.times(1)).get(hash);
+    }
+
+    @Test
+    public void shouldPurgeCachedUrl() throws CacheNotAvailableException {
+        Request purge = getRequest1();
+        purge.setBody(null);
+        purge.getHeaders().put("host", "servicea.com");
+        purge.setMethod("PURGE");
+        Request get = getRequest1();
+        get.setBody(null);
+        get.getHeaders().put("host", "servicea.com");
+        get.setMethod("GET");
+        List<String> keys = Collections.singletonList(serializer.hashRequest(get));
+
+        assertEquals(1, cache.purge(purge));
+        Mockito.verify(redis, Mockito.times(1)).delete(keys);
+        Mockito.verify(index, Mockito.times(1)).remove("servicea.comPATH_TO_BE_RETRIEVED", keys.get(0));
+        Mockito.verify(invalidator, Mockito.times(1)).publish(keys);
+    }
+
+    @Test
+    public void shouldPurgeByTag() throws CacheNotAvailableException {
+        List<String> keys = Arrays.asList("KEY1", "KEY2");
+        Mockito.when(index.removeByTag("products")).thenReturn(keys);
+
+        assertEquals(2, cache.purgeByTag("products"));
+        Mockito.verify(redis, Mockito.times(1)).delete(keys);
+        Mockito.verify(invalidator, Mockito.times(1)).publish(keys);
+    }
 
     /**
      * Returns mocked Request for testing
@@ -172,17 +413,24 @@ public class CacheManagerTest extends BaseTest {
     private Request getRequest1() {
         Map<String, String> headers = new HashMap<>();
         headers.put("Cache-Control", "public");
-        Map<String, String> body = new HashMap<>();
-        body.put("MY_FIELD", "MY_VALUE");
-
         Request request = new Request();
         request.setHeaders(headers);
-        request.setBody(body);
+        request.setBody("{\"MY_FIELD\":\"MY_VALUE\"}".getBytes());
         request.setPath("PATH_TO_BE_RETRIEVED");
 
         return request;
     }
 
+    /**
+     * Returns a mocked Request with a different path for testing
+     * @return Request mocked request
+     */
+    private Request getRequest2() {
+        Request request = getRequest1();
+        request.setPath("PATH_TO_BE_REVALIDATED");
+        return request;
+    }
+
     /**
      * Returns mocked Response for testing
      * @return Response mocked response
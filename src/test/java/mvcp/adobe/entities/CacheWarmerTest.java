@@ -0,0 +1,46 @@
+package mvcp.adobe.entities;
+
+import mvcp.adobe.components.CacheWarmer;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CacheWarmerTest extends BaseTest {
+
+    @Test
+    public void shouldParseUrlsWithTheirHost() {
+        List<Request> requests = CacheWarmer.parse(Arrays.asList(
+                "http://servicea.com:9999/marcelo/test/1",
+                "http://servicea.com:9999/marcelo/test/1",
+                "",
+                "# comment",
+                "https://serviceb.com"), "");
+        assertEquals(2, requests.size());
+        assertEquals("servicea.com", requests.get(0).getHostHeader());
+        assertEquals("/marcelo/test/1", requests.get(0).getPath());
+        assertEquals("GET", requests.get(0).getMethod());
+        assertNull(requests.get(0).getBody());
+        assertEquals("serviceb.com/", requests.get(1).getUrl());
+    }
+
+    @Test
+    public void shouldParseAccessLogGetRequests() {
+        List<Request> requests = CacheWarmer.parse(Arrays.asList(
+                "127.0.0.1 - - [14/Jun/2019:10:00:00 +0000] \"GET /api/items?page=2 HTTP/1.1\" 200 512",
+                "127.0.0.1 - - [14/Jun/2019:10:00:01 +0000] \"POST /api/items HTTP/1.1\" 201 12",
+                "/api/other"), "a.my-services.com");
+        assertEquals(2, requests.size());
+        assertEquals("a.my-services.com/api/items?page=2", requests.get(0).getUrl());
+        assertEquals("page=2", requests.get(0).getQuery());
+        assertEquals("a.my-services.com/api/other", requests.get(1).getUrl());
+    }
+
+    @Test
+    public void shouldSkipEntriesWithoutHost() {
+        assertEquals(0, CacheWarmer.parse(Arrays.asList("/api/items", "not a url"), "").size());
+    }
+}
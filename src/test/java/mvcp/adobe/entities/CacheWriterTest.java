@@ -0,0 +1,136 @@
+package mvcp.adobe.entities;
+
+import mvcp.adobe.abstractions.ISerializer;
+import mvcp.adobe.components.CacheIndex;
+import mvcp.adobe.components.CacheWriter;
+import mvcp.adobe.components.KeyFilter;
+import mvcp.adobe.components.MD5Serializer;
+import mvcp.adobe.components.RedisCache;
+import mvcp.adobe.exceptions.CacheNotAvailableException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.core.env.Environment;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CacheWriterTest extends BaseTest {
+    private static final int QUEUE = 2;
+
+    @Mock
+    private RedisCache redis;
+
+    @Mock
+    private CacheIndex index;
+
+    @Mock
+    private KeyFilter keyFilter;
+
+    @Mock
+    private Environment env;
+
+    @Spy
+    private ISerializer serializer = new MD5Serializer();
+
+    @InjectMocks
+    private CacheWriter writer;
+
+    @Before
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+        Mockito.when(env.getProperty("mvcp.adobe.cache.write.queue", Integer.class, 1000)).thenReturn(QUEUE);
+        Mockito.when(env.getProperty("mvcp.adobe.cache.write.batch", Integer.class, 100)).thenReturn(100);
+        //The worker is stopped right away, so the writes wait until the test flushes them
+        writer.start();
+        writer.stop();
+    }
+
+    @Test
+    public void shouldCoalesceWritesToTheSameKey() throws CacheNotAvailableException {
+        CacheItem first = item("FIRST");
+        CacheItem second = item("SECOND");
+        CacheItem other = item("OTHER");
+        assertTrue(writer.enqueue("KEY", first));
+        assertTrue(writer.enqueue("KEY", second));
+        assertTrue(writer.enqueue("OTHER_KEY", other));
+        writer.flush();
+
+        Map<String, String> expected = new HashMap<>();
+        expected.put("KEY", serializer.serializeCacheItem(second));
+        expected.put("OTHER_KEY", serializer.serializeCacheItem(other));
+        Mockito.verify(redis, Mockito.times(1)).putAll(eq(expected));
+    }
+
+    @Test
+    public void shouldDropWritesWhenQueueIsFull() throws CacheNotAvailableException {
+        CacheItem first = item("FIRST");
+        CacheItem second = item("SECOND");
+        assertTrue(writer.enqueue("KEY1", first));
+        assertTrue(writer.enqueue("KEY2", item("KEY2")));
+        assertFalse(writer.enqueue("KEY3", item("KEY3")));
+        //Keys already waiting are still coalesced with a full queue
+        assertTrue(writer.enqueue("KEY2", second));
+        writer.flush();
+
+        Map<String, String> expected = new HashMap<>();
+        expected.put("KEY1", serializer.serializeCacheItem(first));
+        expected.put("KEY2", serializer.serializeCacheItem(second));
+        Mockito.verify(redis, Mockito.times(1)).putAll(eq(expected));
+
+        //The dropped key left nothing behind, so it is queued again once there is room
+        CacheItem third = item("THIRD");
+        assertTrue(writer.enqueue("KEY3", third));
+        writer.flush();
+        Mockito.verify(redis, Mockito.times(1)).putAll(eq(Collections.singletonMap("KEY3", serializer.serializeCacheItem(third))));
+    }
+
+    @Test
+    public void shouldFlushWaitingWritesOnStop() throws CacheNotAvailableException {
+        CacheItem item = item("BODY");
+        assertTrue(writer.enqueue("KEY", item));
+        Mockito.verify(redis, Mockito.never()).putAll(any());
+
+        writer.stop();
+        Mockito.verify(redis, Mockito.times(1)).putAll(eq(Collections.singletonMap("KEY", serializer.serializeCacheItem(item))));
+        Mockito.verify(keyFilter, Mockito.times(1)).stored(eq(Collections.singleton("KEY")));
+    }
+
+    @Test
+    public void shouldIndexBeforePublishingToKeyFilter() throws CacheNotAvailableException {
+        assertTrue(writer.enqueue("KEY", item("BODY")));
+        writer.flush();
+        InOrder order = Mockito.inOrder(redis, index, keyFilter);
+        order.verify(redis).putAll(any());
+        order.verify(index).addAll(any());
+        order.verify(keyFilter).stored(eq(Collections.singleton("KEY")));
+    }
+
+    @Test
+    public void shouldDiscardWritesOfPurgedKeys() throws CacheNotAvailableException {
+        assertTrue(writer.enqueue("KEY", item("BODY")));
+        writer.invalidate(Collections.singletonList("KEY"));
+        writer.flush();
+        Mockito.verify(redis, Mockito.never()).putAll(any());
+    }
+
+    private CacheItem item(String body) {
+        CacheItem item = new CacheItem(new Response(200, body));
+        item.setUrl("servicea.com/" + body);
+        return item;
+    }
+}
@@ -0,0 +1,114 @@
+package mvcp.adobe.entities;
+
+import mvcp.adobe.abstractions.ICache;
+import mvcp.adobe.components.CircuitBreakerCache;
+import mvcp.adobe.enums.CircuitState;
+import mvcp.adobe.exceptions.CacheNotAvailableException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class CircuitBreakerCacheTest extends BaseTest {
+    private static final int FAILURES = 3;
+
+    private FakeCache fake;
+    private CircuitBreakerCache cache;
+
+    @Before
+    public void setup() {
+        fake = new FakeCache();
+        cache = new CircuitBreakerCache(fake, FAILURES, 20);
+    }
+
+    @After
+    public void teardown() {
+        cache.close();
+    }
+
+    @Test
+    public void shouldOpenAfterConsecutiveFailures() throws CacheNotAvailableException {
+        fake.down = true;
+        for (int i = 0; i < FAILURES; i++) {
+            assertEquals(CircuitState.CLOSED, cache.getState());
+            getFailing();
+        }
+        assertEquals(CircuitState.OPEN, cache.getState());
+        int calls = fake.calls;
+        getFailing();
+        assertEquals(calls, fake.calls);
+    }
+
+    @Test
+    public void shouldResetFailuresOnSuccess() throws CacheNotAvailableException {
+        fake.down = true;
+        getFailing();
+        getFailing();
+        fake.down = false;
+        cache.put("key", "value");
+        fake.down = true;
+        getFailing();
+        assertEquals(CircuitState.CLOSED, cache.getState());
+    }
+
+    @Test
+    public void shouldCloseWhenProbeSucceeds() throws InterruptedException, CacheNotAvailableException {
+        fake.down = true;
+        for (int i = 0; i < FAILURES; i++) {
+            getFailing();
+        }
+        assertEquals(CircuitState.OPEN, cache.getState());
+        fake.down = false;
+        for (int i = 0; i < 100 && cache.getState() == CircuitState.OPEN; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(CircuitState.CLOSED, cache.getState());
+        cache.put("key", "value");
+        assertEquals("value", cache.get("key"));
+    }
+
+    private void getFailing() {
+        try {
+            cache.get("key");
+            fail("Expected the cache to fail");
+        } catch (CacheNotAvailableException e) {
+            //expected
+        }
+    }
+
+    /**
+     * In-process stand-in for the Cache server
+     */
+    private static class FakeCache implements ICache {
+        private final Map<String, String> values = new HashMap<>();
+        private volatile boolean down;
+        private volatile int calls;
+
+        @Override
+        public void put(String key, String value) throws CacheNotAvailableException {
+            calls++;
+            if (down) throw new CacheNotAvailableException("Cache is down");
+            values.put(key, value);
+        }
+
+        @Override
+        public String get(String key) throws CacheNotAvailableException {
+            calls++;
+            if (down) throw new CacheNotAvailableException("Cache is down");
+            return values.get(key);
+        }
+
+        @Override
+        public void delete(Collection<String> keys) throws CacheNotAvailableException {
+            calls++;
+            if (down) throw new CacheNotAvailableException("Cache is down");
+            values.keySet().removeAll(keys);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package mvcp.adobe.entities;
+
+import mvcp.adobe.components.CountMinSketch;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CountMinSketchTest extends BaseTest {
+
+    @Test
+    public void shouldEstimateFrequencies() {
+        CountMinSketch sketch = new CountMinSketch(1024);
+        for (int i = 0; i < 5; i++) {
+            sketch.increment("HOT");
+        }
+        assertEquals(1, sketch.increment("COLD"));
+        assertEquals(5, sketch.estimate("HOT"));
+        assertEquals(0, sketch.estimate("UNKNOWN"));
+    }
+
+    @Test
+    public void shouldAgeFrequencies() {
+        CountMinSketch sketch = new CountMinSketch(16);
+        for (int i = 0; i < 8; i++) {
+            sketch.increment("OLD");
+        }
+        for (int i = 0; i < 200; i++) {
+            sketch.increment("KEY" + i);
+        }
+        assertTrue(sketch.estimate("OLD") < 8);
+    }
+
+    @Test
+    public void shouldCountFromManyThreads() throws InterruptedException {
+        CountMinSketch.Concurrent sketch = new CountMinSketch.Concurrent(1024);
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 1000; j++) {
+                    sketch.increment("HOT");
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(4000, sketch.estimate("HOT"));
+        assertEquals(4001, sketch.increment("HOT"));
+        assertEquals(0, sketch.estimate("UNKNOWN"));
+    }
+}
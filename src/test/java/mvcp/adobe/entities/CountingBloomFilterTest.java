@@ -0,0 +1,41 @@
+package mvcp.adobe.entities;
+
+import mvcp.adobe.components.CountingBloomFilter;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CountingBloomFilterTest extends BaseTest {
+
+    @Test
+    public void shouldNeverMissAddedKeys() {
+        CountingBloomFilter filter = new CountingBloomFilter(10000, 0.01);
+        for (int i = 0; i < 10000; i++) {
+            filter.add("KEY_" + i);
+        }
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(filter.mightContain("KEY_" + i));
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (filter.mightContain("OTHER_" + i)) falsePositives++;
+        }
+        assertTrue(falsePositives < 300);
+        assertEquals(10000, filter.size());
+        assertTrue(filter.expectedFpp() < 0.02);
+    }
+
+    @Test
+    public void shouldRemoveKeys() {
+        CountingBloomFilter filter = new CountingBloomFilter(1000, 0.01);
+        filter.add("A");
+        filter.add("B");
+        assertTrue(filter.remove("A"));
+        assertFalse(filter.mightContain("A"));
+        assertTrue(filter.mightContain("B"));
+        assertFalse(filter.remove("A"));
+        assertEquals(1, filter.size());
+    }
+}
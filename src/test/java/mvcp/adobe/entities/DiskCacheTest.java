@@ -0,0 +1,134 @@
+package mvcp.adobe.entities;
+
+import mvcp.adobe.abstractions.ICache;
+import mvcp.adobe.components.DiskCache;
+import mvcp.adobe.components.DiskIndex;
+import mvcp.adobe.exceptions.CacheNotAvailableException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class DiskCacheTest extends BaseTest {
+    private static final int SEGMENT_BYTES = 4096;
+    private static final int MIN_BYTES = 100;
+
+    private Path directory;
+    private FakeCache fake;
+    private DiskCache cache;
+
+    @Before
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("disk-cache-test");
+        fake = new FakeCache();
+        cache = new DiskCache(fake, directory, SEGMENT_BYTES, 3, MIN_BYTES);
+    }
+
+    @After
+    public void teardown() {
+        cache.close();
+        File[] files = directory.toFile().listFiles();
+        if (files != null) {
+            for (File file : files) file.delete();
+        }
+        directory.toFile().delete();
+    }
+
+    @Test
+    public void shouldServeLargeItemsFromDisk() throws CacheNotAvailableException {
+        String large = value('a', 500);
+        cache.put("LARGE", large);
+        cache.put("SMALL", "small");
+        fake.values.clear();
+        assertEquals(large, cache.get("LARGE"));
+        assertNull(cache.get("SMALL"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void shouldCopyLargeItemsFoundInTheCache() throws CacheNotAvailableException {
+        String large = value('b', 500);
+        fake.values.put("LARGE", large);
+        assertEquals(large, cache.get("LARGE"));
+        fake.values.clear();
+        assertEquals(large, cache.get("LARGE"));
+    }
+
+    @Test
+    public void shouldRecoverIndexAfterRestart() throws CacheNotAvailableException, IOException {
+        cache.put("KEY1", value('c', 500));
+        cache.put("KEY2", value('d', 500));
+        cache.put("KEY1", value('e', 600));
+        cache.delete(Collections.singletonList("KEY2"));
+        cache.close();
+        fake.values.clear();
+
+        cache = new DiskCache(fake, directory, SEGMENT_BYTES, 3, MIN_BYTES);
+        assertEquals(value('e', 600), cache.get("KEY1"));
+        assertNull(cache.get("KEY2"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void shouldEvictOldestSegment() throws CacheNotAvailableException {
+        for (int i = 0; i < 20; i++) {
+            cache.put("KEY" + i, value('f', 1000));
+        }
+        fake.values.clear();
+        assertEquals(3, cache.getSegmentCount());
+        assertNull(cache.get("KEY0"));
+        assertEquals(value('f', 1000), cache.get("KEY19"));
+    }
+
+    @Test
+    public void shouldGrowIndexKeepingEntries() {
+        DiskIndex index = new DiskIndex(16);
+        for (int i = 1; i <= 5000; i++) {
+            index.put(i * 31L, DiskIndex.location(1, i));
+        }
+        for (int i = 1; i <= 5000; i += 2) {
+            index.remove(i * 31L);
+        }
+        assertEquals(2500, index.size());
+        assertEquals(DiskIndex.NOT_FOUND, index.get(31L));
+        assertEquals(DiskIndex.location(1, 4000), index.get(4000 * 31L));
+        assertEquals(2500, index.removeSegment(1));
+        assertEquals(DiskIndex.NOT_FOUND, index.get(4000 * 31L));
+    }
+
+    private static String value(char c, int length) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < length; i++) builder.append(c);
+        return builder.toString();
+    }
+
+    private static class FakeCache implements ICache {
+        private final Map<String, String> values = new HashMap<>();
+
+        @Override
+        public void put(String key, String value) {
+            values.put(key, value);
+        }
+
+        @Override
+        public String get(String key) {
+            return values.get(key);
+        }
+
+        @Override
+        public void delete(Collection<String> keys) {
+            values.keySet().removeAll(keys);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package mvcp.adobe.entities;
+
+import mvcp.adobe.components.AccessLog;
+import mvcp.adobe.components.CacheManager;
+import mvcp.adobe.controllers.Entrypoint;
+import mvcp.adobe.exceptions.CacheNotAvailableException;
+import mvcp.adobe.proxy.ReverseProxy;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.core.env.Environment;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+
+@RunWith(MockitoJUnitRunner.class)
+public class EntrypointTest extends BaseTest {
+    private static final String BODY = "0123456789abcdefghij";
+
+    @Mock
+    private CacheManager cache;
+
+    @Mock
+    private ReverseProxy proxy;
+
+    @Mock
+    private AccessLog accessLog;
+
+    @Mock
+    private Environment env;
+
+    @InjectMocks
+    private Entrypoint entrypoint;
+
+    @Before
+    public void setup() throws CacheNotAvailableException {
+        MockitoAnnotations.initMocks(this);
+        Response cached = new Response(200, BODY);
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Type", "text/plain");
+        headers.put("ETag", "\"v1\"");
+        headers.put("Last-Modified", "Thu, 13 Jun 2019 10:00:00 GMT");
+        cached.setHeaders(headers);
+        Mockito.when(cache.getCached(any())).thenReturn(cached);
+    }
+
+    @Test
+    public void shouldSendSingleRange() {
+        ResponseEntity<Object> response = entrypoint.get(request("bytes=2-5", null));
+        assertEquals(206, response.getStatusCodeValue());
+        assertEquals("bytes 2-5/20", response.getHeaders().getFirst("Content-Range"));
+        assertEquals("2345", text(response));
+    }
+
+    @Test
+    public void shouldSendSeveralRangesAsMultipart() {
+        ResponseEntity<Object> response = entrypoint.get(request("bytes=0-1, -2", null));
+        assertEquals(206, response.getStatusCodeValue());
+        String contentType = response.getHeaders().getFirst("Content-Type");
+        assertTrue(contentType.startsWith("multipart/byteranges; boundary="));
+        String boundary = contentType.substring(contentType.indexOf('=') + 1);
+        String body = text(response);
+        assertTrue(body.contains("Content-Range: bytes 0-1/20\r\n\r\n01\r\n--" + boundary));
+        assertTrue(body.contains("Content-Range: bytes 18-19/20\r\n\r\nij\r\n--" + boundary + "--"));
+    }
+
+    @Test
+    public void shouldCoalesceOverlappingRanges() {
+        ResponseEntity<Object> response = entrypoint.get(request("bytes=0-9, 5-14, 0-, 0-", null));
+        assertEquals(206, response.getStatusCodeValue());
+        assertEquals("bytes 0-19/20", response.getHeaders().getFirst("Content-Range"));
+        assertEquals(BODY, text(response));
+    }
+
+    @Test
+    public void shouldRejectUnsatisfiableRanges() {
+        ResponseEntity<Object> response = entrypoint.get(request("bytes=20-30", null));
+        assertEquals(416, response.getStatusCodeValue());
+        assertEquals("bytes */20", response.getHeaders().getFirst("Content-Range"));
+    }
+
+    @Test
+    public void shouldHonorIfRange() {
+        assertEquals(206, entrypoint.get(request("bytes=0-1", "\"v1\"")).getStatusCodeValue());
+        assertEquals(206, entrypoint.get(request("bytes=0-1", "Thu, 13 Jun 2019 10:00:00 GMT")).getStatusCodeValue());
+
+        //The client copy is another one: the full response is sent
+        ResponseEntity<Object> response = entrypoint.get(request("bytes=0-1", "\"v0\""));
+        assertEquals(200, response.getStatusCodeValue());
+        assertEquals(BODY, response.getBody());
+        assertEquals(200, entrypoint.get(request("bytes=0-1", "W/\"v1\"")).getStatusCodeValue());
+        assertEquals(200, entrypoint.get(request("bytes=0-1", "\"v1-gzip\"")).getStatusCodeValue());
+    }
+
+    @Test
+    public void shouldSendFullBodyNotReceivedAsUtf8() throws CacheNotAvailableException {
+        //Latin-1 body: its byte 0xE9 is not valid UTF-8, so offsets in the decoded body are not the origin ones
+        byte[] origin = "caf\u00e9 au lait".getBytes(StandardCharsets.ISO_8859_1);
+        Response cached = new Response(200, new String(origin, StandardCharsets.UTF_8));
+        cached.setHeaders(Collections.singletonMap("Content-Length", Integer.toString(origin.length)));
+        Mockito.when(cache.getCached(any())).thenReturn(cached);
+
+        ResponseEntity<Object> response = entrypoint.get(request("bytes=4-5", null));
+        assertEquals(200, response.getStatusCodeValue());
+        assertNull(response.getHeaders().getFirst("Content-Range"));
+        assertEquals(cached.getBody(), response.getBody());
+    }
+
+    @Test
+    public void shouldSliceRangesFromUtf8Bytes() throws CacheNotAvailableException {
+        byte[] origin = "caf\u00e9 au lait".getBytes(StandardCharsets.UTF_8);
+        Response cached = new Response(200, new String(origin, StandardCharsets.UTF_8));
+        cached.setHeaders(Collections.singletonMap("Content-Length", Integer.toString(origin.length)));
+        Mockito.when(cache.getCached(any())).thenReturn(cached);
+
+        ResponseEntity<Object> response = entrypoint.get(request("bytes=3-4", null));
+        assertEquals(206, response.getStatusCodeValue());
+        assertEquals("bytes 3-4/13", response.getHeaders().getFirst("Content-Range"));
+        assertEquals("\u00e9", text(response));
+    }
+
+    @Test
+    public void shouldLogSizeInBytes() throws CacheNotAvailableException {
+        Response cached = new Response(200, "caf\u00e9 au lait");
+        cached.setHeaders(Collections.singletonMap("Content-Type", "text/plain; charset=utf-8"));
+        Mockito.when(cache.getCached(any())).thenReturn(cached);
+
+        entrypoint.get(new MockHttpServletRequest("GET", "/items"));
+        ArgumentCaptor<AccessLogRecord> record = ArgumentCaptor.forClass(AccessLogRecord.class);
+        Mockito.verify(accessLog, Mockito.times(1)).log(record.capture());
+        assertEquals(13, record.getValue().getSize());
+    }
+
+    private MockHttpServletRequest request(String range, String ifRange) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/items");
+        request.addHeader("Host", SERVICE_A_DOMAIN);
+        request.addHeader("Range", range);
+        if (ifRange != null) request.addHeader("If-Range", ifRange);
+        return request;
+    }
+
+    private static String text(ResponseEntity<Object> response) {
+        return new String((byte[]) response.getBody(), StandardCharsets.UTF_8);
+    }
+}
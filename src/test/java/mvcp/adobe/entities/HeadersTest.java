@@ -0,0 +1,60 @@
+package mvcp.adobe.entities;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class HeadersTest extends BaseTest {
+    @Test
+    public void shouldIgnoreNameCase() {
+        Headers headers = new Headers().add("content-type", "text/plain");
+        assertEquals("text/plain", headers.get("Content-Type"));
+        assertTrue(headers.containsKey("CONTENT-TYPE"));
+        assertSame("Content-Type", headers.keySet().iterator().next());
+        headers.put("Content-TYPE", "application/json");
+        assertEquals(1, headers.size());
+        assertEquals("application/json", headers.get("content-type"));
+        assertTrue(headers.remove("CONTENT-type"));
+        assertTrue(headers.isEmpty());
+    }
+
+    @Test
+    public void shouldKeepEveryValueInOrder() {
+        Headers headers = new Headers(1).add("Set-Cookie", "b=2; Expires=Wed, 21 Oct 2026 07:28:00 GMT")
+                .add("Cache-Control", "no-cache").add("set-cookie", "a=1").add("Cache-Control", "max-age=0");
+        assertEquals(Arrays.asList("b=2; Expires=Wed, 21 Oct 2026 07:28:00 GMT", "a=1"), headers.getAll("Set-Cookie"));
+        assertEquals("no-cache,max-age=0", headers.getJoined("cache-control"));
+        assertEquals(2, headers.keySet().size());
+        assertNull(headers.get("Vary"));
+    }
+
+    @Test
+    public void shouldSerializeRepeatedNamesAsArrays() {
+        Headers headers = new Headers().add("Set-Cookie", "b=2").add("Content-Type", "text/html").add("Set-Cookie", "a=1");
+        Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+        String json = gson.toJson(headers);
+        assertEquals("{\"Set-Cookie\":[\"b=2\",\"a=1\"],\"Content-Type\":\"text/html\"}", json);
+        Headers read = gson.fromJson(json, Headers.class);
+        assertEquals(Arrays.asList("b=2", "a=1"), read.getAll("set-cookie"));
+        assertEquals("text/html", read.get("content-type"));
+    }
+
+    @Test
+    public void shouldDropHopByHopHeaders() {
+        Headers headers = new Headers().add("Connection", "keep-alive, X-Private").add("Keep-Alive", "timeout=5")
+                .add("X-Private", "secret").add("Transfer-Encoding", "chunked").add("Accept", "*/*");
+        Headers forwarded = headers.copyEndToEnd();
+        assertEquals(1, forwarded.size());
+        assertEquals("*/*", forwarded.get("Accept"));
+        assertTrue(Headers.isHopByHop("x-private", "keep-alive, X-Private"));
+        assertFalse(Headers.isHopByHop("Accept", null));
+    }
+}
@@ -0,0 +1,71 @@
+package mvcp.adobe.entities;
+
+import mvcp.adobe.components.HotKeyDetector;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HotKeyDetectorTest extends BaseTest {
+
+    @Test
+    public void shouldDetectHotKeysAndReportTheirRates() {
+        //Hot from 10 requests per second, over windows of 1 second
+        HotKeyDetector detector = new HotKeyDetector(1024, 2, 1000, 10);
+        long now = 1000;
+        for (int i = 0; i < 9; i++) {
+            assertFalse(detector.record("HOT", () -> "a.com/hot", now));
+        }
+        assertTrue(detector.record("HOT", () -> "a.com/hot", now));
+        for (int i = 0; i < 5; i++) {
+            detector.record("WARM", () -> "a.com/warm", now);
+        }
+        detector.record("COLD", () -> "a.com/cold", now);
+
+        //The next window reports the previous one and keeps its hot keys pinned
+        assertTrue(detector.record("HOT", () -> "a.com/hot", now + 1000));
+        List<HotKey> top = detector.getTop();
+        assertEquals(2, top.size());
+        assertEquals("a.com/hot", top.get(0).getUrl());
+        assertEquals(10.0, top.get(0).getRate(), 0.001);
+        assertTrue(top.get(0).isPinned());
+        assertEquals("WARM", top.get(1).getKey());
+        assertFalse(top.get(1).isPinned());
+    }
+
+    @Test
+    public void shouldForgetRatesAfterIdleWindows() {
+        HotKeyDetector detector = new HotKeyDetector(1024, 10, 1000, 1);
+        assertTrue(detector.record("KEY", () -> "a.com/key", 1000));
+        detector.record("OTHER", () -> "a.com/other", 5000);
+        assertEquals(0, detector.getTop().size());
+    }
+
+    @Test
+    public void shouldCountConcurrentLookups() throws InterruptedException {
+        HotKeyDetector detector = new HotKeyDetector(1024, 10, 1000, 100);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 2500; i++) {
+                    detector.record("HOT", () -> "a.com/hot", 1000);
+                    detector.record("COLD" + i, () -> "a.com/cold", 1000);
+                }
+            }));
+        }
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+
+        detector.record("HOT", () -> "a.com/hot", 2000);
+        List<HotKey> top = detector.getTop();
+        assertEquals(1, top.size());
+        assertEquals("HOT", top.get(0).getKey());
+        //No lookup is lost, and collisions with the cold keys only add a few
+        assertTrue(top.get(0).getRate() >= 10000.0);
+        assertTrue(top.get(0).getRate() < 10100.0);
+    }
+}
@@ -0,0 +1,165 @@
+package mvcp.adobe.entities;
+
+import com.sun.net.httpserver.HttpServer;
+import mvcp.adobe.connection.Buffers;
+import mvcp.adobe.connection.HttpForwarder;
+import mvcp.adobe.enums.EndpointStatus;
+import mvcp.adobe.exceptions.NoAvailableEndpointsException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HttpForwarderTest extends BaseTest {
+    private static final String BODY = "{\"items\":[1,2,3]}";
+
+    private HttpServer upstream;
+    private Endpoint endpoint;
+
+    @Before
+    public void startUpstream() throws IOException {
+        upstream = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        //Bodyless answers announcing the length of the representation, as HEAD, 204 and 304 answers may do
+        upstream.createContext("/head", exchange -> {
+            exchange.getResponseHeaders().add("Content-Length", "4096");
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        upstream.createContext("/not-modified", exchange -> {
+            exchange.getResponseHeaders().add("Content-Length", "4096");
+            exchange.getResponseHeaders().add("ETag", "\"v1\"");
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+        });
+        //Chunked answers: no announced length
+        upstream.createContext("/chunked", exchange -> {
+            int status = exchange.getRequestURI().getQuery() == null ? 200 : Integer.parseInt(exchange.getRequestURI().getQuery());
+            exchange.sendResponseHeaders(status, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(BODY.getBytes(StandardCharsets.UTF_8));
+            }
+        });
+        upstream.createContext("/unavailable", exchange -> {
+            byte[] body = "Down for maintenance".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Retry-After", "120");
+            exchange.sendResponseHeaders(503, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        upstream.start();
+        endpoint = new Endpoint("127.0.0.1", upstream.getAddress().getPort());
+    }
+
+    @After
+    public void stopUpstream() {
+        upstream.stop(0);
+    }
+
+    @Test
+    public void shouldForwardHeadWithContentLength() throws IOException {
+        Response response = HttpForwarder.execute(new Request("1.1", "HEAD", "/head", null, null), endpoint);
+        assertEquals(200, response.getStatus());
+        assertEquals("", response.getBody());
+        assertEquals("4096", response.getHeader("Content-Length"));
+    }
+
+    @Test
+    public void shouldForwardNotModifiedWithContentLength() throws IOException {
+        Response response = HttpForwarder.execute(new Request("1.1", "GET", "/not-modified", null, null), endpoint, 1);
+        assertEquals(304, response.getStatus());
+        assertEquals("", response.getBody());
+        assertEquals(null, response.getStream());
+        assertEquals("\"v1\"", response.getHeader("ETag"));
+    }
+
+    @Test
+    public void shouldReadChunkedBodies() throws IOException {
+        assertEquals(BODY, HttpForwarder.execute(new Request("1.1", "GET", "/chunked", null, null), endpoint).getBody());
+    }
+
+    @Test
+    public void shouldTrustAnnouncedLengthOnlyAsHint() throws IOException {
+        byte[] body = new byte[3 * Buffers.BUFFER_SIZE + 5];
+        Arrays.fill(body, (byte) 'x');
+        assertArrayEquals(body, Buffers.readToEnd(new ByteArrayInputStream(body), body.length));
+        assertArrayEquals(body, Buffers.readToEnd(new ByteArrayInputStream(body), 10));
+        assertArrayEquals(body, Buffers.readToEnd(new ByteArrayInputStream(body), -1));
+        assertArrayEquals(new byte[0], Buffers.readToEnd(new ByteArrayInputStream(new byte[0]), Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void shouldStreamChunkedBodiesCrossingTheLimit() throws IOException {
+        Request request = new Request("1.1", "GET", "/chunked", null, null);
+        Response response = HttpForwarder.execute(request, endpoint, 5);
+        assertNull(response.getBody());
+        ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        try (InputStream in = response.getStream()) {
+            Buffers.copy(in, streamed);
+        }
+        assertEquals(BODY, new String(streamed.toByteArray(), StandardCharsets.UTF_8));
+
+        response = HttpForwarder.execute(request, endpoint, BODY.length());
+        assertNull(response.getStream());
+        assertEquals(BODY, response.getBody());
+    }
+
+    @Test
+    public void shouldCountUtf8Bytes() {
+        for (String text : new String[]{"", "plain", "caf\u00e9", "\u20ac10", "\ud83d\ude00!", "\ud83d", "x\ude00\ud83d"}) {
+            assertEquals(text, text.getBytes(StandardCharsets.UTF_8).length, Buffers.utf8Length(text));
+        }
+    }
+
+    @Test
+    public void shouldStopReadingPastTheLimit() throws IOException {
+        byte[] body = new byte[3 * Buffers.BUFFER_SIZE];
+        ByteArrayInputStream in = new ByteArrayInputStream(body);
+        byte[] read = Buffers.readToEnd(in, -1, 100);
+        assertTrue(read.length > 100);
+        assertEquals(body.length, read.length + in.available());
+        assertEquals(body.length, Buffers.readToEnd(new ByteArrayInputStream(body), -1, body.length).length);
+    }
+
+    @Test
+    public void shouldReadClientErrorBodies() throws IOException {
+        Request request = new Request("1.1", "GET", "/chunked", null, null);
+        request.setQuery("404");
+        Response response = HttpForwarder.execute(request, endpoint);
+        assertEquals(404, response.getStatus());
+        assertEquals(BODY, response.getBody());
+    }
+
+    @Test
+    public void shouldReadServerErrorBodies() throws IOException {
+        Response response = HttpForwarder.execute(new Request("1.1", "GET", "/unavailable", null, null), endpoint, 1);
+        assertEquals(503, response.getStatus());
+        assertEquals("Down for maintenance", response.getBody());
+        assertEquals("120", response.getHeader("Retry-After"));
+    }
+
+    @Test
+    public void shouldReturnLastServerErrorWhenEveryEndpointFails() throws NoAvailableEndpointsException {
+        Endpoint other = new Endpoint("127.0.0.1", upstream.getAddress().getPort());
+        RoundRobinLoadBalancer balancer = new RoundRobinLoadBalancer(Arrays.asList(endpoint, other));
+        Response response = balancer.balance(new Request("1.1", "GET", "/unavailable", null, null));
+        assertEquals(503, response.getStatus());
+        assertEquals(2, response.getAttempts());
+        assertEquals("120", response.getHeader("Retry-After"));
+        assertEquals(EndpointStatus.SUSPENDED, endpoint.getStatus());
+        assertEquals(EndpointStatus.SUSPENDED, other.getStatus());
+    }
+}
@@ -0,0 +1,106 @@
+package mvcp.adobe.entities;
+
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisConnectionException;
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import mvcp.adobe.components.LettuceCache;
+import mvcp.adobe.exceptions.CacheNotAvailableException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.anyString;
+
+@RunWith(MockitoJUnitRunner.class)
+public class LettuceCacheTest extends BaseTest {
+
+    @Mock
+    private RedisClient client;
+
+    @Mock
+    private StatefulRedisConnection<String, String> connection;
+
+    @Mock
+    private RedisAsyncCommands<String, String> commands;
+
+    @Mock
+    private RedisFuture<String> reply;
+
+    @Mock
+    private RedisFuture<Long> exists;
+
+    private LettuceCache cache;
+
+    @Before
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+        Mockito.when(client.connect()).thenReturn(connection);
+        Mockito.when(connection.async()).thenReturn(commands);
+        cache = new LettuceCache(client, 1000, true);
+    }
+
+    @Test
+    public void shouldIssueBatchInSinglePipeline() throws CacheNotAvailableException {
+        Mockito.when(commands.set(anyString(), anyString())).thenReturn(reply);
+        Mockito.when(reply.toCompletableFuture()).thenReturn(CompletableFuture.completedFuture("OK"));
+        Map<String, String> values = new HashMap<>();
+        values.put("KEY1", "VALUE1");
+        values.put("KEY2", "VALUE2");
+        values.put("KEY3", "VALUE3");
+        cache.putAll(values);
+
+        Mockito.verify(client, Mockito.times(1)).connect();
+        Mockito.verify(connection, Mockito.times(1)).setAutoFlushCommands(false);
+        Mockito.verify(commands, Mockito.times(3)).set(anyString(), anyString());
+        Mockito.verify(connection, Mockito.times(1)).flushCommands();
+    }
+
+    @Test
+    public void shouldReportMissingKeysOfSinglePipeline() throws CacheNotAvailableException {
+        Mockito.when(commands.exists("KEY1")).thenReturn(exists);
+        Mockito.when(commands.exists("KEY2")).thenReturn(exists);
+        Mockito.when(exists.toCompletableFuture()).thenReturn(CompletableFuture.completedFuture(1L), CompletableFuture.completedFuture(0L));
+
+        assertEquals(Collections.singleton("KEY2"), cache.missing(Arrays.asList("KEY1", "KEY2")));
+        Mockito.verify(connection, Mockito.times(1)).flushCommands();
+    }
+
+    @Test
+    public void shouldMapClientFailures() {
+        Mockito.when(commands.set(anyString(), anyString())).thenThrow(new RedisConnectionException("Connection refused"));
+        try {
+            cache.putAll(Collections.singletonMap("KEY", "VALUE"));
+            fail("Expected the cache to fail");
+        } catch (CacheNotAvailableException e) {
+            assertEquals("The cache server is inaccessible: Connection refused", e.getMessage());
+        }
+    }
+
+    @Test
+    public void shouldMapFailedReplies() {
+        CompletableFuture<String> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new RedisConnectionException("Connection reset"));
+        Mockito.when(commands.set(anyString(), anyString())).thenReturn(reply);
+        Mockito.when(reply.toCompletableFuture()).thenReturn(failed);
+        try {
+            cache.putAll(Collections.singletonMap("KEY", "VALUE"));
+            fail("Expected the cache to fail");
+        } catch (CacheNotAvailableException e) {
+            assertEquals("The cache server is inaccessible: Connection reset", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package mvcp.adobe.entities;
+
+import mvcp.adobe.components.MD5Serializer;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MD5SerializerTest extends BaseTest {
+    private MD5Serializer serializer;
+
+    @Before
+    public void setup() {
+        serializer = new MD5Serializer();
+        serializer.setCompressionThreshold(100);
+    }
+
+    @Test
+    public void shouldCompressLargeBodies() throws IOException {
+        String body = getLargeBody();
+        String serialized = serializer.serializeCacheItem(new CacheItem(new Response(200, body)));
+        assertTrue(serialized.length() < body.length() / 2);
+
+        CacheItem item = serializer.deserializeCacheItem(serialized);
+        assertEquals(Compression.GZIP, item.getResponse().getCodec());
+        byte[] encoded = item.getResponse().getEncodedBody(Compression.GZIP);
+        assertNotNull(encoded);
+        assertEquals(body, gunzip(encoded));
+        assertEquals(body, item.getResponse().getBody());
+    }
+
+    @Test
+    public void shouldNotCompressSmallBodies() {
+        String serialized = serializer.serializeCacheItem(new CacheItem(new Response(200, "{\"small\":true}")));
+        CacheItem item = serializer.deserializeCacheItem(serialized);
+        assertNull(item.getResponse().getCodec());
+        assertNull(item.getResponse().getEncodedBody(Compression.GZIP));
+        assertEquals("{\"small\":true}", item.getResponse().getBody());
+    }
+
+    @Test
+    public void shouldNotCompressEncodedBodies() {
+        Response response = new Response(200, getLargeBody());
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Encoding", "br");
+        response.setHeaders(headers);
+        CacheItem item = serializer.deserializeCacheItem(serializer.serializeCacheItem(new CacheItem(response)));
+        assertNull(item.getResponse().getCodec());
+        assertEquals(getLargeBody(), item.getResponse().getBody());
+    }
+
+    @Test
+    public void shouldRefreshCompressedItems() {
+        CacheItem item = new CacheItem(new Response(200, getLargeBody()));
+        String serialized = serializer.serializeCacheItem(item);
+        item.setIsoCreated("2019-06-13 10:00:00");
+        CacheItem refreshed = serializer.deserializeCacheItem(serializer.refreshCacheItem(serialized, item));
+        assertEquals("2019-06-13 10:00:00", refreshed.getIsoCreated());
+        assertEquals(getLargeBody(), refreshed.getResponse().getBody());
+    }
+
+    @Test
+    public void shouldReadMetadataWithoutBody() {
+        Response response = new Response(200, getLargeBody());
+        Map<String, String> headers = new HashMap<>();
+        headers.put("ETag", "\"origin\"");
+        response.setHeaders(headers);
+        CacheItem item = new CacheItem(response);
+        item.setEtag(serializer.validatorOf(response));
+        item.setUrl("servicea.com/items");
+        CacheItem meta = serializer.deserializeCacheMeta(serializer.serializeCacheItem(item));
+        assertEquals(item.getIsoCreated(), meta.getIsoCreated());
+        assertEquals("\"" + MD5Serializer.getMd5(getLargeBody()) + "\"", meta.getEtag());
+        assertEquals("servicea.com/items", meta.getUrl());
+        assertEquals(200, meta.getResponse().getStatus());
+        assertEquals("\"origin\"", meta.getResponse().getHeader("ETag"));
+        assertNull(meta.getResponse().getBody());
+    }
+
+    @Test
+    public void shouldKeyQueryStrings() {
+        assertTrue(!serializer.hashRequest(request("page=1")).equals(serializer.hashRequest(request("page=2"))));
+        assertTrue(!serializer.hashRequest(request(null)).equals(serializer.hashRequest(request("page=1"))));
+    }
+
+    @Test
+    public void shouldShareKeysOfEquivalentQueryStrings() {
+        String hash = serializer.hashRequest(request("a=1&b=2"));
+        assertEquals(hash, serializer.hashRequest(request("b=2&a=1&utm_source=mail")));
+        assertEquals(hash, serializer.hashRequest(request("%61=1&b=%32")));
+        assertEquals(serializer.hashRequest(request(null)), serializer.hashRequest(request("utm_campaign=x&gclid=y")));
+        assertEquals("servicea.com/items?a=1&b=2", serializer.canonicalUrl(request("b=2&a=1&utm_source=mail")));
+    }
+
+    @Test
+    public void shouldKeyHeadersAndNamespaceOfPolicy() {
+        CachePolicy policy = new CachePolicy();
+        policy.applyOption("cache-key-headers", "Accept-Language");
+        policy.applyOption("cache-namespace", "static");
+        Request english = request(null);
+        english.getHeaders().put("Accept-Language", "en");
+        Request french = request(null);
+        french.getHeaders().put("accept-language", "fr");
+        String hash = serializer.hashRequest(english, policy);
+        assertTrue(hash.startsWith("static:"));
+        assertTrue(!hash.equals(serializer.hashRequest(french, policy)));
+        assertEquals(serializer.hashRequest(english), serializer.hashRequest(french));
+    }
+
+    private Request request(String query) {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("host", "servicea.com");
+        Request request = new Request("1.1", "GET", "/items", headers, null);
+        request.setQuery(query);
+        return request;
+    }
+
+    private String getLargeBody() {
+        StringBuilder body = new StringBuilder("[");
+        for (int i = 0; i < 200; i++) {
+            if (i > 0) body.append(",");
+            body.append("{\"id\":").append(i).append(",\"name\":\"item\",\"active\":true}");
+        }
+        return body.append("]").toString();
+    }
+
+    private String gunzip(byte[] bytes) throws IOException {
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            ByteArrayOutputStream plain = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = gzip.read(buffer)) != -1) {
+                plain.write(buffer, 0, read);
+            }
+            return new String(plain.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void shouldTagGzipRepresentationsApart() {
+        assertEquals("\"abc-gzip\"", Compression.gzipTag("\"abc\""));
+        assertEquals("W/\"abc-gzip\"", Compression.gzipTag("W/\"abc\""));
+        assertEquals("\"abc\"", Compression.plainTag(Compression.gzipTag("\"abc\"")));
+        assertEquals("\"abc\"", Compression.plainTag("\"abc\""));
+        assertNull(Compression.gzipTag(null));
+    }
+}
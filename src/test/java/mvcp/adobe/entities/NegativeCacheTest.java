@@ -0,0 +1,60 @@
+package mvcp.adobe.entities;
+
+import mvcp.adobe.components.NegativeCache;
+import mvcp.adobe.enums.LoadBalanceStrategies;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class NegativeCacheTest extends BaseTest {
+    private NegativeCache cache;
+    private Service service;
+
+    @Before
+    public void setup() {
+        cache = new NegativeCache();
+        cache.setTtls(NegativeCache.parseTtls("404=30,410=60,5xx=5"));
+        service = new Service("ServiceA", "servicea.com", LoadBalanceStrategies.RANDOM);
+    }
+
+    @Test
+    public void shouldResolveTtlByStatusAndClass() {
+        assertEquals(30, cache.getTtl(404, null));
+        assertEquals(60, cache.getTtl(410, null));
+        assertEquals(5, cache.getTtl(503, null));
+        assertEquals(0, cache.getTtl(400, null));
+    }
+
+    @Test
+    public void shouldPreferServiceTtls() {
+        service.getNegativeTtls().put("4xx", 10);
+        service.getNegativeTtls().put("5xx", 0);
+        assertEquals(10, cache.getTtl(404, service));
+        assertEquals(10, cache.getTtl(400, service));
+        assertEquals(0, cache.getTtl(500, service));
+    }
+
+    @Test
+    public void shouldServeCachedErrorUntilPurged() {
+        Response response = new Response(404, "Not Found");
+        assertTrue(cache.put("KEY", response, service));
+        assertEquals(response, cache.get("KEY"));
+        cache.invalidate(Collections.singletonList("KEY"));
+        assertNull(cache.get("KEY"));
+    }
+
+    @Test
+    public void shouldNotCacheDisabledStatusOrBeyondCapacity() {
+        assertFalse(cache.put("KEY1", new Response(400, "Bad Request"), service));
+        cache.setMaxEntries(1);
+        assertTrue(cache.put("KEY2", new Response(404, "Not Found"), service));
+        assertFalse(cache.put("KEY3", new Response(404, "Not Found"), service));
+        assertNull(cache.get("KEY3"));
+    }
+}
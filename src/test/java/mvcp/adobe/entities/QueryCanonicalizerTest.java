@@ -0,0 +1,35 @@
+package mvcp.adobe.entities;
+
+import mvcp.adobe.components.QueryCanonicalizer;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class QueryCanonicalizerTest extends BaseTest {
+
+    @Test
+    public void shouldSortParametersAndDropIgnoredOnes() {
+        QueryCanonicalizer canonicalizer = QueryCanonicalizer.DEFAULT;
+        assertEquals("a=1&a=2&b&c=", canonicalizer.canonicalize("c=&b&UTM_Source=x&a=2&fbclid=y&a=1"));
+        assertNull(canonicalizer.canonicalize("utm_medium=x&gclid=y"));
+        assertNull(canonicalizer.canonicalize(""));
+        assertNull(canonicalizer.canonicalize(null));
+    }
+
+    @Test
+    public void shouldNormalizePercentEncoding() {
+        QueryCanonicalizer canonicalizer = QueryCanonicalizer.DEFAULT;
+        assertEquals("q=a%20b", canonicalizer.canonicalize("q=a+b"));
+        assertEquals("q=a%20b", canonicalizer.canonicalize("q=a%20b"));
+        assertEquals("q=%C3%A9~x", canonicalizer.canonicalize("q=%c3%a9%7Ex"));
+        assertEquals("q=%C3%A9", canonicalizer.canonicalize("q=\u00e9"));
+        assertEquals("q=100%25", canonicalizer.canonicalize("q=100%"));
+    }
+
+    @Test
+    public void shouldKeepOrderWhenSortingIsDisabled() {
+        QueryCanonicalizer canonicalizer = new QueryCanonicalizer(false, "session");
+        assertEquals("b=2&a=1", canonicalizer.canonicalize("b=2&session=x&a=1"));
+    }
+}
@@ -0,0 +1,59 @@
+package mvcp.adobe.entities;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RequestTest extends BaseTest {
+    private static final byte[] BODY = "line 1\nline 2\n\u0000binary".getBytes();
+
+    @Test
+    public void shouldBufferSmallBodies() throws IOException {
+        Request request = new Request();
+        request.readBody(new ByteArrayInputStream(BODY), -1, 1024);
+        assertFalse(request.isStreamed());
+        assertArrayEquals(BODY, request.getBody());
+    }
+
+    @Test
+    public void shouldNotReadEmptyBodies() throws IOException {
+        Request request = new Request();
+        request.readBody(new ByteArrayInputStream(new byte[0]), -1, 1024);
+        assertFalse(request.isStreamed());
+        assertNull(request.getBody());
+    }
+
+    @Test
+    public void shouldStreamBodiesAnnouncedLarger() throws IOException {
+        Request request = new Request();
+        InputStream in = new ByteArrayInputStream(BODY);
+        request.readBody(in, BODY.length, 4);
+        assertTrue(request.isStreamed());
+        assertNull(request.getBody());
+        assertArrayEquals(BODY, readAll(request.getBodyStream()));
+    }
+
+    @Test
+    public void shouldStreamChunkedBodiesBeyondLimit() throws IOException {
+        Request request = new Request();
+        request.readBody(new ByteArrayInputStream(BODY), -1, 4);
+        assertTrue(request.isStreamed());
+        assertArrayEquals(BODY, readAll(request.getBodyStream()));
+        assertFalse(CachePolicy.DEFAULT.isCacheable(request));
+    }
+
+    private byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int read;
+        while ((read = in.read()) != -1) out.write(read);
+        return out.toByteArray();
+    }
+}
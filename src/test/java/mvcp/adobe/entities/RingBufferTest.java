@@ -0,0 +1,54 @@
+package mvcp.adobe.entities;
+
+import mvcp.adobe.components.RingBuffer;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RingBufferTest extends BaseTest {
+    @Test
+    public void shouldDrainInOrderAndRejectWhenFull() {
+        RingBuffer<Integer> ring = new RingBuffer<>(3);
+        assertEquals(4, ring.capacity());
+        for (int i = 0; i < 4; i++) assertTrue(ring.offer(i));
+        assertFalse(ring.offer(4));
+
+        List<Integer> drained = new ArrayList<>();
+        assertEquals(2, ring.drain(drained::add, 2));
+        assertTrue(ring.offer(5));
+        assertEquals(3, ring.drain(drained::add, 10));
+        assertEquals(0, ring.size());
+        assertEquals(Arrays.asList(0, 1, 2, 3, 5), drained);
+    }
+
+    @Test
+    public void shouldNotLoseItemsOfConcurrentProducers() throws InterruptedException {
+        int producers = 4;
+        int perProducer = 20000;
+        RingBuffer<Integer> ring = new RingBuffer<>(64);
+        CountDownLatch done = new CountDownLatch(producers);
+        for (int p = 0; p < producers; p++) {
+            int first = p * perProducer;
+            new Thread(() -> {
+                for (int i = first; i < first + perProducer; i++) {
+                    while (!ring.offer(i)) Thread.yield();
+                }
+                done.countDown();
+            }).start();
+        }
+        Set<Integer> drained = new HashSet<>();
+        while (done.getCount() > 0 || ring.size() > 0) {
+            if (ring.drain(drained::add, 100) == 0) Thread.yield();
+        }
+        assertEquals(producers * perProducer, drained.size());
+    }
+}
@@ -12,6 +12,7 @@ import java.util.List;
 import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 public class ServiceTest extends BaseTest{
@@ -40,6 +41,49 @@ public class ServiceTest extends BaseTest{
         assertTrue(service.getEndpoints().containsAll(endpoints));
     }
 
+    @Test
+    public void shouldParseServiceOptions() throws InvalidServiceDefinitionException {
+        List<Endpoint> endpoints = Arrays.asList(createRandomEndpoint(), createRandomEndpoint());
+        String serviceString = buildServiceString("MyTestService", "mydomain.com", LoadBalanceStrategies.RANDOM, endpoints);
+        Service service = Service.parse(serviceString + FORMAT_FIELD_SEPARATOR + "stale-while-revalidate=30"
+                + FORMAT_FIELD_SEPARATOR + "negative-ttl-404=60" + FORMAT_FIELD_SEPARATOR + "negative-ttl-5XX=0"
+                + FORMAT_FIELD_SEPARATOR + "max-body-bytes=2048");
+        assertEquals(endpoints.size(), service.getEndpoints().size());
+        assertEquals(30, service.getStaleWhileRevalidate());
+        assertEquals(Integer.valueOf(60), service.getNegativeTtls().get("404"));
+        assertEquals(Integer.valueOf(0), service.getNegativeTtls().get("5xx"));
+        assertEquals(2048, service.getMaxBodyBytes());
+    }
+
+    @Test
+    public void shouldCompileCachePolicy() throws InvalidServiceDefinitionException {
+        List<Endpoint> endpoints = Arrays.asList(createRandomEndpoint());
+        String serviceString = buildServiceString("MyTestService", "mydomain.com", LoadBalanceStrategies.RANDOM, endpoints);
+        Service service = Service.parse(serviceString + FORMAT_FIELD_SEPARATOR + "cache-methods=get|head"
+                + FORMAT_FIELD_SEPARATOR + "cache-statuses=200|301" + FORMAT_FIELD_SEPARATOR + "cache-key-headers=X-Device|Accept-Language"
+                + FORMAT_FIELD_SEPARATOR + "cache-namespace=static" + FORMAT_FIELD_SEPARATOR + "default-ttl=3600");
+        CachePolicy policy = service.getCachePolicy();
+        Request get = new Request("1.1", "GET", "/", null, null);
+        Request post = new Request("1.1", "POST", "/", null, null);
+        assertTrue(policy.isCacheable(get));
+        assertFalse(policy.isCacheable(post));
+        assertTrue(policy.isCacheableStatus(301));
+        assertFalse(policy.isCacheableStatus(203));
+        assertEquals(Arrays.asList("accept-language", "x-device"), policy.getKeyHeaders());
+        assertEquals("static", policy.getNamespace());
+        assertEquals(3600, policy.applyTtls(CacheFreshness.UNLIMITED));
+
+        Service disabled = Service.parse(serviceString + FORMAT_FIELD_SEPARATOR + "cache=false");
+        assertFalse(disabled.getCachePolicy().isCacheable(get));
+    }
+
+    @Test(expected = InvalidServiceDefinitionException.class)
+    public void shouldNotParseUnknownServiceOption() throws InvalidServiceDefinitionException {
+        List<Endpoint> endpoints = Arrays.asList(createRandomEndpoint());
+        String serviceString = buildServiceString("MyTestService", "mydomain.com", LoadBalanceStrategies.RANDOM, endpoints);
+        Service.parse(serviceString + FORMAT_FIELD_SEPARATOR + "unknown-option=1");
+    }
+
     @Test
     public void shouldParseMultipleServices() throws InvalidServiceDefinitionException {
         int totalServices = 5;
@@ -0,0 +1,130 @@
+package mvcp.adobe.entities;
+
+import mvcp.adobe.abstractions.ICache;
+import mvcp.adobe.components.ShardedCache;
+import mvcp.adobe.exceptions.CacheNotAvailableException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ShardedCacheTest extends BaseTest {
+    private static final int TOTAL_KEYS = 1000;
+
+    private Map<String, FakeCache> nodes;
+    private ShardedCache cache;
+
+    @Before
+    public void setup() {
+        nodes = new LinkedHashMap<>();
+        nodes.put("node1:6379", new FakeCache());
+        nodes.put("node2:6379", new FakeCache());
+        nodes.put("node3:6379", new FakeCache());
+        cache = new ShardedCache(new LinkedHashMap<>(nodes), 60000);
+    }
+
+    @Test
+    public void shouldStoreEachKeyInItsNode() throws CacheNotAvailableException {
+        for (int i = 0; i < TOTAL_KEYS; i++) {
+            cache.put("key" + i, "value" + i);
+        }
+        for (int i = 0; i < TOTAL_KEYS; i++) {
+            String key = "key" + i;
+            assertEquals("value" + i, cache.get(key));
+            assertEquals("value" + i, nodes.get(cache.getNodeName(key)).values.get(key));
+        }
+        for (FakeCache node : nodes.values()) {
+            assertTrue(node.values.size() > TOTAL_KEYS / 10);
+        }
+    }
+
+    @Test
+    public void shouldKeepMostKeysWhenNodeIsRemoved() {
+        Map<String, ICache> remaining = new LinkedHashMap<>(nodes);
+        remaining.remove("node3:6379");
+        ShardedCache smaller = new ShardedCache(remaining, 60000);
+        for (int i = 0; i < TOTAL_KEYS; i++) {
+            String key = "key" + i;
+            if (!cache.getNodeName(key).equals("node3:6379")) {
+                assertEquals(cache.getNodeName(key), smaller.getNodeName(key));
+            }
+        }
+    }
+
+    @Test
+    public void shouldDegradeToMissWhenNodeFails() throws CacheNotAvailableException {
+        Map<String, String> values = new HashMap<>();
+        for (int i = 0; i < TOTAL_KEYS; i++) {
+            values.put("key" + i, "value" + i);
+        }
+        cache.putAll(values);
+        nodes.get("node2:6379").down = true;
+
+        Map<String, String> found = cache.getAll(values.keySet());
+        for (int i = 0; i < TOTAL_KEYS; i++) {
+            String key = "key" + i;
+            if (cache.getNodeName(key).equals("node2:6379")) {
+                assertNull(cache.get(key));
+                assertNull(found.get(key));
+            } else {
+                assertEquals("value" + i, cache.get(key));
+                assertEquals("value" + i, found.get(key));
+            }
+        }
+        assertTrue(!cache.isNodeAvailable("node2:6379"));
+        assertTrue(cache.isNodeAvailable("node1:6379"));
+    }
+
+    @Test
+    public void shouldNotReportKeysOfFailedNodeAsMissing() throws CacheNotAvailableException {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < TOTAL_KEYS; i++) {
+            keys.add("key" + i);
+            if (i % 2 == 0) cache.put("key" + i, "value" + i);
+        }
+        nodes.get("node2:6379").down = true;
+
+        Set<String> missing = cache.missing(keys);
+        for (int i = 0; i < TOTAL_KEYS; i++) {
+            String key = "key" + i;
+            boolean expected = i % 2 != 0 && !cache.getNodeName(key).equals("node2:6379");
+            assertEquals(key, expected, missing.contains(key));
+        }
+    }
+
+    /**
+     * In-process stand-in for a Redis node
+     */
+    private static class FakeCache implements ICache {
+        private final Map<String, String> values = new HashMap<>();
+        private boolean down;
+
+        @Override
+        public void put(String key, String value) throws CacheNotAvailableException {
+            if (down) throw new CacheNotAvailableException("Node is down");
+            values.put(key, value);
+        }
+
+        @Override
+        public String get(String key) throws CacheNotAvailableException {
+            if (down) throw new CacheNotAvailableException("Node is down");
+            return values.get(key);
+        }
+
+        @Override
+        public void delete(Collection<String> keys) throws CacheNotAvailableException {
+            if (down) throw new CacheNotAvailableException("Node is down");
+            values.keySet().removeAll(keys);
+        }
+    }
+}